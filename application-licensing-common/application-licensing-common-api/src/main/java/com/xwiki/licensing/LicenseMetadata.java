@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.xwiki.instance.InstanceId;
+
+/**
+ * The searchable properties of a stored license. License metadata can be queried without decoding and verifying the
+ * stored licenses, but it shouldn't be used to decide if a license is valid: only the license itself is trusted.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+public class LicenseMetadata
+{
+    private final LicenseId id;
+
+    private final LicenseType type;
+
+    private final long expirationDate;
+
+    private final long maxUserCount;
+
+    private final Collection<LicensedFeatureId> featureIds;
+
+    private final Collection<InstanceId> instanceIds;
+
+    private final boolean signed;
+
+    private final String digest;
+
+    /**
+     * Extract the metadata of the given license.
+     *
+     * @param license the license
+     * @param digest the digest of the stored license data, or {@code null} if unknown
+     */
+    public LicenseMetadata(License license, String digest)
+    {
+        this(license.getId(), license.getType(), license.getExpirationDate(), license.getMaxUserCount(),
+            license.getFeatureIds(), license.getInstanceIds(), license instanceof SignedLicense, digest);
+    }
+
+    /**
+     * Create a new license metadata.
+     *
+     * @param id the license identifier
+     * @param type the license type
+     * @param expirationDate the license expiration date
+     * @param maxUserCount the maximum number of users allowed by the license
+     * @param featureIds the features covered by the license
+     * @param instanceIds the instances covered by the license
+     * @param signed whether the stored license is signed or not
+     * @param digest the digest of the stored license data, or {@code null} if unknown
+     */
+    public LicenseMetadata(LicenseId id, LicenseType type, long expirationDate, long maxUserCount,
+        Collection<LicensedFeatureId> featureIds, Collection<InstanceId> instanceIds, boolean signed, String digest)
+    {
+        this.id = id;
+        this.type = type;
+        this.expirationDate = expirationDate;
+        this.maxUserCount = maxUserCount;
+        this.featureIds = Collections.unmodifiableList(new ArrayList<>(featureIds));
+        this.instanceIds = Collections.unmodifiableList(new ArrayList<>(instanceIds));
+        this.signed = signed;
+        this.digest = digest;
+    }
+
+    /**
+     * @return the license identifier
+     */
+    public LicenseId getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the license type
+     */
+    public LicenseType getType()
+    {
+        return this.type;
+    }
+
+    /**
+     * @return the license expiration date
+     */
+    public long getExpirationDate()
+    {
+        return this.expirationDate;
+    }
+
+    /**
+     * @return the maximum number of users allowed by the license
+     */
+    public long getMaxUserCount()
+    {
+        return this.maxUserCount;
+    }
+
+    /**
+     * @return the features covered by the license
+     */
+    public Collection<LicensedFeatureId> getFeatureIds()
+    {
+        return this.featureIds;
+    }
+
+    /**
+     * @return the instances covered by the license
+     */
+    public Collection<InstanceId> getInstanceIds()
+    {
+        return this.instanceIds;
+    }
+
+    /**
+     * @return {@code true} if the stored license is signed, {@code false} otherwise
+     */
+    public boolean isSigned()
+    {
+        return this.signed;
+    }
+
+    /**
+     * @return the digest of the stored license data, or {@code null} if unknown
+     */
+    public String getDigest()
+    {
+        return this.digest;
+    }
+
+    /**
+     * @param date a date, in milliseconds since the epoch
+     * @return {@code true} if the license expires before the given date
+     */
+    public boolean expiresBefore(long date)
+    {
+        return this.expirationDate < date;
+    }
+
+    /**
+     * @param featureId a feature (extension) identifier
+     * @return {@code true} if the license covers the given feature, whatever the version
+     */
+    public boolean covers(String featureId)
+    {
+        return this.featureIds.stream().anyMatch(licensedFeatureId -> licensedFeatureId.getId().equals(featureId));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s (%s, expires %d)", this.id, this.type, this.expirationDate);
+    }
+}
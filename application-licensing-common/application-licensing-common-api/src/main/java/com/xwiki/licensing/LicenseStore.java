@@ -20,6 +20,11 @@
 package com.xwiki.licensing;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Predicate;
 
 import org.xwiki.component.annotation.Role;
 
@@ -40,6 +45,22 @@ public interface LicenseStore
      */
     void store(LicenseStoreReference store, License license) throws IOException;
 
+    /**
+     * Store the given licenses into a given multi-licenses store. Implementations may group the writes in order to
+     * reduce the cost of persisting many licenses at once.
+     *
+     * @param store the store where to store the licenses.
+     * @param licenses the licenses to be stored.
+     * @throws IOException when an error occurs.
+     * @since 1.32.1
+     */
+    default void store(LicenseStoreReference store, Collection<License> licenses) throws IOException
+    {
+        for (License license : licenses) {
+            store(store, license);
+        }
+    }
+
     /**
      * Retrieve a license from a single license store.
      *
@@ -81,4 +102,39 @@ public interface LicenseStore
      * @return an iterable over all license currently stored.
      */
     Iterable<License> getIterable(LicenseStoreReference store);
+
+    /**
+     * Get a spliterator over all licenses stored in a given store, suitable for processing the licenses with a parallel
+     * stream.
+     *
+     * @param store the store from which the licenses should be retrieved.
+     * @return a spliterator over all license currently stored.
+     * @since 1.32.1
+     */
+    default Spliterator<License> getSpliterator(LicenseStoreReference store)
+    {
+        return getIterable(store).spliterator();
+    }
+
+    /**
+     * Query the metadata of the licenses stored in a given multi-licenses store. Implementations maintaining an index
+     * of the stored licenses answer such queries without decoding and verifying the licenses, e.g. to find the licenses
+     * expiring soon or the licenses covering a given feature.
+     *
+     * @param store the store to query
+     * @param filter the condition the returned license metadata must fulfill
+     * @return the metadata of the stored licenses matching the given filter
+     * @since 1.32.1
+     */
+    default Collection<LicenseMetadata> getMetadata(LicenseStoreReference store, Predicate<LicenseMetadata> filter)
+    {
+        List<LicenseMetadata> result = new ArrayList<>();
+        for (License license : getIterable(store)) {
+            LicenseMetadata metadata = new LicenseMetadata(license, null);
+            if (filter.test(metadata)) {
+                result.add(metadata);
+            }
+        }
+        return result;
+    }
 }
@@ -47,6 +47,9 @@ public final class SignedLicense extends License
 {
     private static final String UNSUPPORTED_METHOD_ERROR = "Signed license could not be tampered.";
 
+    private static final String UNTRUSTED_COMPONENTS_ERROR =
+        "Untrusted signature verifier or license converter received.";
+
     private Collection<X509CertifiedPublicKey> certificates;
 
     private final byte[] signedLicense;
@@ -61,19 +64,52 @@ public final class SignedLicense extends License
      */
     public SignedLicense(byte[] signedLicense, CMSSignedDataVerifier verifier, Converter<License> converter)
     {
-        if (!(verifier instanceof DefaultCMSSignedDataVerifier) || !(converter instanceof LicenseConverter)) {
-            throw new IllegalArgumentException("Untrusted signature verifier or license converter received.");
+        this(signedLicense, verify(signedLicense, verifier), converter);
+    }
+
+    private SignedLicense(byte[] signedLicense, CMSSignedDataVerified signedDataVerified,
+        Converter<License> converter)
+    {
+        this(signedLicense, getTrustedCertificates(signedDataVerified), signedDataVerified, converter);
+    }
+
+    private SignedLicense(byte[] signedLicense, Collection<X509CertifiedPublicKey> certificates,
+        CMSSignedDataVerified signedDataVerified, Converter<License> converter)
+    {
+        checkConverter(converter);
+
+        if (certificates == null) {
+            throw new IllegalArgumentException("Invalid signed license data received. Signature not trusted.");
         }
 
         this.signedLicense = signedLicense;
+        this.certificates = certificates;
+        initialize(converter.convert(License.class, StringUtils.newStringUtf8(signedDataVerified.getContent())));
+    }
 
-        String xmlLicense = getTrustedContent(verifier);
-        if (xmlLicense == null) {
-            throw new IllegalArgumentException("Invalid signed license data received. Signature not trusted.");
+    /**
+     * Decode an encoded signed license, verifying its signed data only once, not for public usage, see the
+     * LicenseConverter to convert a encoded license into a License.
+     *
+     * @param signedLicense the encoded signed license.
+     * @param verifier the signature verifier, should be an instance of DefaultCMSSignedDataVerifier.
+     * @param converter the license converter, should be an instance of LicenseConverter.
+     * @return a signed license when the license is signed by a trusted certificate chain, otherwise a plain license
+     *         with the same content, which can't be used as a signed license.
+     * @throws IllegalArgumentException if the signed data is not valid (e.g. corrupted).
+     * @since 1.32.1
+     */
+    public static License decode(byte[] signedLicense, CMSSignedDataVerifier verifier, Converter<License> converter)
+    {
+        CMSSignedDataVerified signedDataVerified = verify(signedLicense, verifier);
+        Collection<X509CertifiedPublicKey> certificates = getTrustedCertificates(signedDataVerified);
+        if (certificates != null) {
+            return new SignedLicense(signedLicense, certificates, signedDataVerified, converter);
         }
 
-        License license = converter.convert(License.class, xmlLicense);
-        initialize(license);
+        // The license data is valid but the certificates used to sign the data are not.
+        checkConverter(converter);
+        return converter.convert(License.class, StringUtils.newStringUtf8(signedDataVerified.getContent()));
     }
 
     /**
@@ -106,26 +142,39 @@ public final class SignedLicense extends License
         super.setLicensee(license.getLicensee());
     }
 
-    private String getTrustedContent(CMSSignedDataVerifier verifier)
+    private static CMSSignedDataVerified verify(byte[] signedLicense, CMSSignedDataVerifier verifier)
     {
-        CMSSignedDataVerified signedDataVerified;
+        if (!(verifier instanceof DefaultCMSSignedDataVerifier)) {
+            throw new IllegalArgumentException(UNTRUSTED_COMPONENTS_ERROR);
+        }
+
         try {
-            signedDataVerified = verifier.verify(signedLicense);
+            return verifier.verify(signedLicense);
         } catch (GeneralSecurityException e) {
             throw new IllegalArgumentException("Invalid signed license data received", e);
         }
+    }
+
+    private static void checkConverter(Converter<License> converter)
+    {
+        if (!(converter instanceof LicenseConverter)) {
+            throw new IllegalArgumentException(UNTRUSTED_COMPONENTS_ERROR);
+        }
+    }
 
+    private static Collection<X509CertifiedPublicKey> getTrustedCertificates(CMSSignedDataVerified signedDataVerified)
+    {
         for (CMSSignerVerifiedInformation signatureInfo : signedDataVerified.getSignatures()) {
-            certificates = getValidCertificateChain(signatureInfo);
-            if (certificates != null) {
-                return StringUtils.newStringUtf8(signedDataVerified.getContent());
+            Collection<X509CertifiedPublicKey> chain = getValidCertificateChain(signatureInfo);
+            if (chain != null) {
+                return chain;
             }
         }
 
         return null;
     }
 
-    private Collection<X509CertifiedPublicKey> getValidCertificateChain(CMSSignerVerifiedInformation signature)
+    private static Collection<X509CertifiedPublicKey> getValidCertificateChain(CMSSignerVerifiedInformation signature)
     {
         if (!signature.isVerified()) {
             return null;
@@ -148,7 +197,7 @@ public final class SignedLicense extends License
         return rootCA.isRootCA() ? checkChainValidity(chain) : null;
     }
 
-    private Collection<X509CertifiedPublicKey> checkChainValidity(Collection<CertifiedPublicKey> chain)
+    private static Collection<X509CertifiedPublicKey> checkChainValidity(Collection<CertifiedPublicKey> chain)
     {
         Collection<X509CertifiedPublicKey> result = new ArrayList<X509CertifiedPublicKey>();
         for (CertifiedPublicKey cert : chain) {
@@ -19,27 +19,63 @@
  */
 package com.xwiki.licensing.internal;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.codec.binary.StringUtils;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.properties.converter.Converter;
 
 import com.xwiki.licensing.FileLicenseStoreReference;
 import com.xwiki.licensing.License;
 import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseMetadata;
 import com.xwiki.licensing.LicenseSerializer;
 import com.xwiki.licensing.LicenseStore;
 import com.xwiki.licensing.LicenseStoreReference;
@@ -53,7 +89,7 @@ import com.xwiki.licensing.SignedLicense;
 @Component
 @Singleton
 @Named("FileSystem")
-public class FileSystemLicenseStore implements LicenseStore
+public class FileSystemLicenseStore implements LicenseStore, Disposable
 {
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
@@ -62,19 +98,50 @@ public class FileSystemLicenseStore implements LicenseStore
      */
     private static final byte[] XML_MAGIC = new byte[] {0x3c, 0x3f, 0x78, 0x6d, 0x6c, 0x20};
 
-    private static final String LICENSE_FILE_EXT = ".license";
+    /**
+     * The extension of the files holding a license in a multi-licenses store.
+     */
+    static final String LICENSE_FILE_EXT = ".license";
 
-    private static final FilenameFilter LICENSE_FILE_FILTER = new FilenameFilter()
-    {
-        private final Pattern pattern = Pattern.compile("[0-9a-f]{8}(?:-[0-9a-f]{4}){3}-[0-9a-f]{12}\\.license");
+    private static final String TEMPORARY_FILE_EXT = ".tmp";
 
+    /**
+     * The configuration property used to disable the sync of the license files on disk.
+     */
+    private static final String SYNC_PROPERTY = "licensing.localStoreSync";
+
+    /**
+     * Accept only the license files of a multi-licenses store.
+     */
+    static final FilenameFilter LICENSE_FILE_FILTER = new FilenameFilter()
+    {
         @Override
         public boolean accept(File dir, String name)
         {
-            return pattern.matcher(name).matches();
+            return LICENSE_FILE_PATTERN.matcher(name).matches();
         }
     };
 
+    private static final Pattern LICENSE_FILE_PATTERN =
+        Pattern.compile("[0-9a-f]{8}(?:-[0-9a-f]{4}){3}-[0-9a-f]{12}\\.license");
+
+    private static final DirectoryStream.Filter<Path> LICENSE_PATH_FILTER =
+        path -> LICENSE_FILE_PATTERN.matcher(path.getFileName().toString()).matches();
+
+    /**
+     * The configuration property holding the number of licenses to decode in advance while iterating a store.
+     */
+    private static final String PREFETCH_PROPERTY = "licensing.localStorePrefetch";
+
+    private static final int MAX_DECODING_THREADS = 4;
+
+    private static final String READ_ERROR = "Failed to read license file [{}].";
+
+    /**
+     * Releases the resources of the iterations over the license files that are abandoned without being closed.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
     @Inject
     private Logger logger;
 
@@ -85,6 +152,46 @@ public class FileSystemLicenseStore implements LicenseStore
     @Inject
     private Converter<License> converter;
 
+    @Inject
+    private Provider<ConfigurationSource> configuration;
+
+    /**
+     * The digest of the content of the license files written or checked by this store, used to skip identical
+     * rewrites.
+     */
+    private final Map<File, FileDigest> digests = new ConcurrentHashMap<>();
+
+    /**
+     * The metadata indexes of the multi-licenses stores used so far, by store directory.
+     */
+    private final Map<File, LicenseMetadataIndex> metadataIndexes = new ConcurrentHashMap<>();
+
+    private ExecutorService decodingExecutor;
+
+    /**
+     * The digest of the content of a license file, valid as long as the file is not modified.
+     */
+    private static final class FileDigest
+    {
+        private final String digest;
+
+        private final long lastModified;
+
+        private final long length;
+
+        FileDigest(String digest, long lastModified, long length)
+        {
+            this.digest = digest;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isValid(File file)
+        {
+            return file.lastModified() == this.lastModified && file.length() == this.length;
+        }
+    }
+
     private File getStoreFile(LicenseStoreReference store)
     {
         if (store instanceof FileLicenseStoreReference) {
@@ -113,8 +220,15 @@ public class FileSystemLicenseStore implements LicenseStore
 
     private Object getFileContent(File licenseFile) throws IOException
     {
-        byte[] data = FileUtils.readFileToByteArray(licenseFile);
+        return getLicenseContent(FileUtils.readFileToByteArray(licenseFile));
+    }
 
+    /**
+     * @param data the raw content of a stored license
+     * @return the serialized license as a string when the data is XML, the encoded signed license otherwise
+     */
+    static Object getLicenseContent(byte[] data)
+    {
         boolean isXML = true;
         if (data.length > XML_MAGIC.length) {
             for (int i = 0; i < XML_MAGIC.length; i++) {
@@ -132,15 +246,235 @@ public class FileSystemLicenseStore implements LicenseStore
         }
     }
 
+    private byte[] getLicenseData(License license) throws IOException
+    {
+        if (license instanceof SignedLicense) {
+            return ((SignedLicense) license).getEncoded();
+        } else {
+            return serializer.serialize(license).getBytes(UTF8);
+        }
+    }
+
+    /**
+     * Write the given license data unless the file already holds the exact same data.
+     *
+     * @return true if the file has been written, false if the write has been skipped
+     */
+    private boolean write(File licenseFile, byte[] data, boolean sync) throws IOException
+    {
+        String digest = DigestUtils.sha256Hex(data);
+        if (digest.equals(getStoredDigest(licenseFile, data.length))) {
+            logger.debug("License file [{}] is already up to date.", licenseFile);
+            return false;
+        }
+
+        // Write to a temporary file first and then move it over the license file so that a crash in the middle of the
+        // write can't leave a truncated license behind. Each write uses its own temporary file so that concurrent
+        // writes of the same license don't interfere.
+        File parent = licenseFile.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        Path temporaryFile = Files.createTempFile(parent.toPath(), licenseFile.getName(), TEMPORARY_FILE_EXT);
+        try {
+            try (FileOutputStream output = new FileOutputStream(temporaryFile.toFile())) {
+                output.write(data);
+                if (sync) {
+                    output.getFD().sync();
+                }
+            }
+            // The move keeps the modification date of the temporary file.
+            long lastModified = Files.getLastModifiedTime(temporaryFile).toMillis();
+            try {
+                Files.move(temporaryFile, licenseFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, licenseFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            this.digests.put(licenseFile, new FileDigest(digest, lastModified, data.length));
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the digest of the content of the given license file, {@code null} if the file doesn't exist or if its
+     *     length is not the expected one
+     */
+    private String getStoredDigest(File licenseFile, int expectedLength) throws IOException
+    {
+        if (!licenseFile.exists()) {
+            this.digests.remove(licenseFile);
+            return null;
+        }
+
+        // The cached digest is ignored when the file has been modified by someone else.
+        FileDigest fileDigest = this.digests.get(licenseFile);
+        if ((fileDigest == null || !fileDigest.isValid(licenseFile)) && licenseFile.length() == expectedLength) {
+            // Reading the existing file is still much cheaper than rewriting and syncing it.
+            long lastModified = licenseFile.lastModified();
+            fileDigest = new FileDigest(DigestUtils.sha256Hex(FileUtils.readFileToByteArray(licenseFile)),
+                lastModified, expectedLength);
+            this.digests.put(licenseFile, fileDigest);
+        }
+        return fileDigest != null && fileDigest.isValid(licenseFile) ? fileDigest.digest : null;
+    }
+
+    private String getDigest(File licenseFile)
+    {
+        FileDigest fileDigest = this.digests.get(licenseFile);
+        return fileDigest != null ? fileDigest.digest : null;
+    }
+
+    private void syncDirectory(File directory)
+    {
+        // Make sure the renames are durable. Not all platforms allow to open a directory, in which case we rely on the
+        // file system to eventually persist the directory entries.
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Failed to sync the license store directory [{}]. Root cause is [{}].", directory,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private boolean isSyncEnabled()
+    {
+        return !Boolean.FALSE.equals(this.configuration.get().getProperty(SYNC_PROPERTY, Boolean.class));
+    }
+
     @Override
     public void store(LicenseStoreReference store, License license) throws IOException
     {
         File licenseFile = (isMulti(store)) ? getLicenseFile(store, license.getId()) : getStoreFile(store);
 
-        if (license instanceof SignedLicense) {
-            FileUtils.writeByteArrayToFile(licenseFile, ((SignedLicense) license).getEncoded());
-        } else {
-            FileUtils.writeStringToFile(licenseFile, serializer.serialize(license), UTF8);
+        boolean sync = isSyncEnabled();
+        if (write(licenseFile, getLicenseData(license), sync) && sync) {
+            syncDirectory(licenseFile.getAbsoluteFile().getParentFile());
+        }
+
+        if (isMulti(store)) {
+            LicenseMetadataIndex index = getMetadataIndex(getStoreFile(store));
+            if (index.put(new LicenseMetadata(license, getDigest(licenseFile)))) {
+                saveMetadataIndex(index);
+            }
+        }
+    }
+
+    @Override
+    public void store(LicenseStoreReference store, Collection<License> licenses) throws IOException
+    {
+        boolean sync = isSyncEnabled();
+        boolean written = false;
+        boolean indexed = false;
+        LicenseMetadataIndex index = getMetadataIndex(getStoreFile(store));
+        for (License license : licenses) {
+            File licenseFile = getLicenseFile(store, license.getId());
+            written |= write(licenseFile, getLicenseData(license), sync);
+            indexed |= index.put(new LicenseMetadata(license, getDigest(licenseFile)));
+        }
+
+        // A single directory sync and index update for the whole batch.
+        if (written && sync) {
+            syncDirectory(getStoreFile(store).getAbsoluteFile());
+        }
+        if (indexed) {
+            saveMetadataIndex(index);
+        }
+    }
+
+    @Override
+    public Collection<LicenseMetadata> getMetadata(LicenseStoreReference store, Predicate<LicenseMetadata> filter)
+    {
+        return getMetadataIndex(getMultiStoreFile(store)).getAll().stream().filter(filter)
+            .collect(Collectors.toList());
+    }
+
+    private LicenseMetadataIndex getMetadataIndex(File directory)
+    {
+        return this.metadataIndexes.computeIfAbsent(directory.getAbsoluteFile(), this::loadMetadataIndex);
+    }
+
+    /**
+     * Load the metadata index of the given store directory and make sure it matches the license files it holds. Only
+     * the licenses that are missing from the index, or whose file has been replaced since the index was saved, are
+     * decoded.
+     */
+    private LicenseMetadataIndex loadMetadataIndex(File directory)
+    {
+        LicenseMetadataIndex index = new LicenseMetadataIndex(directory);
+        try {
+            index.load();
+        } catch (IOException e) {
+            logger.warn("Failed to read the license metadata index of [{}], rebuilding it. Root cause is [{}].",
+                directory, ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        Set<LicenseId> licenseIds = new HashSet<>();
+        File[] licenseFiles = directory.listFiles(LICENSE_FILE_FILTER);
+        if (licenseFiles != null) {
+            for (File licenseFile : licenseFiles) {
+                String fileName = licenseFile.getName();
+                licenseIds.add(new LicenseId(fileName.substring(0, fileName.length() - LICENSE_FILE_EXT.length())));
+            }
+        }
+
+        boolean modified = index.retainAll(licenseIds);
+        for (LicenseId licenseId : licenseIds) {
+            File licenseFile = new File(directory, licenseId + LICENSE_FILE_EXT);
+            if (!isIndexed(index, licenseId, licenseFile)) {
+                LicenseMetadata metadata = readMetadataQuietly(licenseFile);
+                if (metadata != null) {
+                    modified |= index.put(metadata);
+                }
+            }
+        }
+        if (modified) {
+            saveMetadataIndex(index);
+        }
+
+        return index;
+    }
+
+    private boolean isIndexed(LicenseMetadataIndex index, LicenseId licenseId, File licenseFile)
+    {
+        LicenseMetadata metadata = index.get(licenseId);
+        if (metadata == null) {
+            return false;
+        }
+        // Only the files modified after the index has been saved have to be checked (the file system may not record
+        // the modification date with a precision high enough to skip the files modified at the same time).
+        if (licenseFile.lastModified() < index.getLastModified()) {
+            return true;
+        }
+        try {
+            return DigestUtils.sha256Hex(FileUtils.readFileToByteArray(licenseFile)).equals(metadata.getDigest());
+        } catch (IOException e) {
+            logger.warn(READ_ERROR, licenseFile, e);
+            return true;
+        }
+    }
+
+    private LicenseMetadata readMetadataQuietly(File licenseFile)
+    {
+        try {
+            byte[] data = FileUtils.readFileToByteArray(licenseFile);
+            License license = converter.convert(License.class, getLicenseContent(data));
+            return license != null ? new LicenseMetadata(license, DigestUtils.sha256Hex(data)) : null;
+        } catch (Exception e) {
+            logger.warn(READ_ERROR, licenseFile, e);
+            return null;
+        }
+    }
+
+    private void saveMetadataIndex(LicenseMetadataIndex index)
+    {
+        // The index can always be rebuilt from the license files so failing to save it is not fatal.
+        try {
+            index.save();
+        } catch (IOException e) {
+            logger.warn("Failed to save the license metadata index. Root cause is [{}].",
+                ExceptionUtils.getRootCauseMessage(e));
         }
     }
 
@@ -176,24 +510,97 @@ public class FileSystemLicenseStore implements LicenseStore
     @Override
     public Iterable<License> getIterable(LicenseStoreReference store)
     {
-        if (!isMulti(store)) {
-            throw new UnsupportedOperationException(
-                String.format("Unexpected store reference, cannot iterate on a single license store [%s].",
-                    getStoreFile(store)));
-        }
+        File storeFile = getMultiStoreFile(store);
 
         return new Iterable<License>()
         {
             @Override
             public Iterator<License> iterator()
             {
-                return new LicenseFileIterator(
-                    getStoreFile(store).listFiles(LICENSE_FILE_FILTER)
-                );
+                return new LicenseFileIterator(openLicensePaths(storeFile), getPrefetchWindow());
             }
         };
     }
 
+    @Override
+    public Spliterator<License> getSpliterator(LicenseStoreReference store)
+    {
+        return new LicenseFileSpliterator(openLicensePaths(getMultiStoreFile(store)));
+    }
+
+    private File getMultiStoreFile(LicenseStoreReference store)
+    {
+        if (!isMulti(store)) {
+            throw new UnsupportedOperationException(
+                String.format("Unexpected store reference, cannot iterate on a single license store [%s].",
+                    getStoreFile(store)));
+        }
+
+        return getStoreFile(store);
+    }
+
+    /**
+     * Open a directory stream over the license files of the given directory, which is closed by the iterators and
+     * spliterators using it once all the license files are listed, when they are closed, or when they are abandoned.
+     *
+     * @return the directory stream, or {@code null} if the directory can't be listed
+     */
+    private DirectoryStream<Path> openLicensePaths(File directory)
+    {
+        try {
+            return Files.newDirectoryStream(directory.toPath(), LICENSE_PATH_FILTER);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Failed to list the license files from [{}]. Root cause is [{}].", directory,
+                ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
+    private License readLicense(Path path) throws IOException
+    {
+        return converter.convert(License.class, getFileContent(path.toFile()));
+    }
+
+    private License readLicenseQuietly(Path path)
+    {
+        try {
+            return readLicense(path);
+        } catch (Exception e) {
+            logger.warn(READ_ERROR, path.toFile(), e);
+            return null;
+        }
+    }
+
+    private int getPrefetchWindow()
+    {
+        Integer prefetchWindow = this.configuration.get().getProperty(PREFETCH_PROPERTY, Integer.class);
+        return prefetchWindow != null ? Math.max(prefetchWindow, 0) : 0;
+    }
+
+    private synchronized ExecutorService getDecodingExecutor()
+    {
+        if (this.decodingExecutor == null) {
+            int poolSize = Math.max(1, Math.min(MAX_DECODING_THREADS, Runtime.getRuntime().availableProcessors()));
+            this.decodingExecutor = Executors.newFixedThreadPool(poolSize, runnable -> {
+                Thread thread = new Thread(runnable, "XWiki License Store Decoding Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.decodingExecutor;
+    }
+
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.decodingExecutor != null) {
+            this.decodingExecutor.shutdownNow();
+            this.decodingExecutor = null;
+        }
+    }
+
     @Override
     public void delete(LicenseStoreReference store)
     {
@@ -205,8 +612,11 @@ public class FileSystemLicenseStore implements LicenseStore
             } catch (IOException e) {
                 // Ignored
             }
+            this.digests.clear();
+            this.metadataIndexes.remove(licenseFile.getAbsoluteFile());
         } else {
             licenseFile.delete();
+            this.digests.remove(licenseFile);
         }
     }
 
@@ -218,32 +628,122 @@ public class FileSystemLicenseStore implements LicenseStore
         if (licenseFile.exists()) {
             licenseFile.delete();
         }
+        this.digests.remove(licenseFile);
+
+        LicenseMetadataIndex index = getMetadataIndex(getStoreFile(store));
+        if (index.remove(licenseId)) {
+            saveMetadataIndex(index);
+        }
+    }
+
+    /**
+     * The resources held by an iteration over the license files of a store: the directory stream listing them and the
+     * licenses being decoded in advance. They are released when the iteration is exhausted or closed, and by the
+     * {@link #CLEANER} when the iteration is abandoned without being closed.
+     */
+    private static final class LicenseFileResources implements Runnable
+    {
+        private final DirectoryStream<Path> directoryStream;
+
+        private final Deque<Map.Entry<Path, Future<License>>> prefetched = new ArrayDeque<>();
+
+        LicenseFileResources(DirectoryStream<Path> directoryStream)
+        {
+            this.directoryStream = directoryStream;
+        }
+
+        Iterator<Path> getPaths()
+        {
+            return this.directoryStream != null ? this.directoryStream.iterator() : Collections.emptyIterator();
+        }
+
+        @Override
+        public void run()
+        {
+            this.prefetched.forEach(entry -> entry.getValue().cancel(true));
+            this.prefetched.clear();
+            if (this.directoryStream != null) {
+                try {
+                    this.directoryStream.close();
+                } catch (IOException e) {
+                    // Ignored, the directory was only read.
+                }
+            }
+        }
     }
 
-    class LicenseFileIterator implements Iterator<License>
+    /**
+     * Iterate over the licenses of a store, optionally decoding the next licenses in advance on a bounded pool of
+     * threads. The licenses are returned in the order of the directory entries in both cases. The license files are
+     * listed while iterating, and the callers that stop before the end should close the iterator.
+     */
+    class LicenseFileIterator implements Iterator<License>, Closeable
     {
-        private final File[] files;
-        private int index;
+        private final Iterator<Path> paths;
+
+        private final int prefetchWindow;
+
+        private final Deque<Map.Entry<Path, Future<License>>> prefetched;
+
+        private final Cleaner.Cleanable cleanable;
+
         private License next;
 
-        LicenseFileIterator(File[] files)
+        LicenseFileIterator(DirectoryStream<Path> directoryStream, int prefetchWindow)
         {
-            this.files = files;
+            LicenseFileResources resources = new LicenseFileResources(directoryStream);
+            this.paths = resources.getPaths();
+            this.prefetched = resources.prefetched;
+            this.prefetchWindow = prefetchWindow;
+            this.cleanable = CLEANER.register(this, resources);
         }
 
         private License computeNext()
         {
-            while (this.files != null && this.index < this.files.length) {
-                File file = this.files[this.index++];
-                try {
-                    return converter.convert(License.class, getFileContent(file));
-                } catch (Exception e) {
-                    logger.warn("Failed to read license file [{}].", file, e);
+            License license = this.prefetchWindow > 0 ? computeNextPrefetched() : computeNextDirectly();
+            if (license == null) {
+                close();
+            }
+            return license;
+        }
+
+        private License computeNextDirectly()
+        {
+            while (this.paths.hasNext()) {
+                License license = readLicenseQuietly(this.paths.next());
+                if (license != null) {
+                    return license;
                 }
             }
             return null;
         }
 
+        private License computeNextPrefetched()
+        {
+            while (true) {
+                while (this.prefetched.size() < this.prefetchWindow && this.paths.hasNext()) {
+                    Path path = this.paths.next();
+                    this.prefetched.add(new AbstractMap.SimpleImmutableEntry<>(path,
+                        getDecodingExecutor().submit(() -> readLicense(path))));
+                }
+
+                Map.Entry<Path, Future<License>> entry = this.prefetched.poll();
+                if (entry == null) {
+                    return null;
+                }
+
+                try {
+                    return entry.getValue().get();
+                } catch (ExecutionException e) {
+                    logger.warn(READ_ERROR, entry.getKey().toFile(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        @Override
         public boolean hasNext()
         {
             if (this.next == null) {
@@ -252,6 +752,7 @@ public class FileSystemLicenseStore implements LicenseStore
             return this.next != null;
         }
 
+        @Override
         public License next()
         {
             if (!hasNext()) {
@@ -262,9 +763,98 @@ public class FileSystemLicenseStore implements LicenseStore
             return license;
         }
 
+        @Override
         public void remove()
         {
             throw new UnsupportedOperationException("Removing licenses is not supported by this iterator.");
         }
+
+        /**
+         * Cancel the licenses decoded in advance and close the listing of the license files.
+         */
+        @Override
+        public void close()
+        {
+            this.cleanable.clean();
+        }
+    }
+
+    /**
+     * Expose the licenses of a store to (parallel) streams. Splitting is delegated to the spliterator of the license
+     * files so that licenses are decoded by the thread that consumes them. The license files are listed while
+     * advancing, and the callers that stop before the end should close the spliterator (or the stream using it).
+     */
+    class LicenseFileSpliterator implements Spliterator<License>, Closeable
+    {
+        private final Spliterator<Path> paths;
+
+        /**
+         * Releases the directory stream, {@code null} for the spliterators split from another one, which hold the
+         * paths they cover in memory.
+         */
+        private final Cleaner.Cleanable cleanable;
+
+        LicenseFileSpliterator(DirectoryStream<Path> directoryStream)
+        {
+            LicenseFileResources resources = new LicenseFileResources(directoryStream);
+            this.paths = Spliterators.spliteratorUnknownSize(resources.getPaths(), Spliterator.DISTINCT);
+            this.cleanable = CLEANER.register(this, resources);
+        }
+
+        private LicenseFileSpliterator(Spliterator<Path> paths)
+        {
+            this.paths = paths;
+            this.cleanable = null;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super License> action)
+        {
+            License[] license = new License[1];
+            boolean advanced;
+            do {
+                // Skip the license files that can't be read.
+                advanced = this.paths.tryAdvance(path -> license[0] = readLicenseQuietly(path));
+            } while (advanced && license[0] == null);
+
+            if (license[0] != null) {
+                action.accept(license[0]);
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public Spliterator<License> trySplit()
+        {
+            Spliterator<Path> prefix = this.paths.trySplit();
+            return prefix != null ? new LicenseFileSpliterator(prefix) : null;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return this.paths.estimateSize();
+        }
+
+        @Override
+        public int characteristics()
+        {
+            // The licenses that can't be read are skipped so the size is never exact.
+            return (this.paths.characteristics() | Spliterator.DISTINCT | Spliterator.NONNULL)
+                & ~(Spliterator.SIZED | Spliterator.SUBSIZED);
+        }
+
+        /**
+         * Close the listing of the license files.
+         */
+        @Override
+        public void close()
+        {
+            if (this.cleanable != null) {
+                this.cleanable.clean();
+            }
+        }
     }
 }
@@ -22,7 +22,6 @@ package com.xwiki.licensing.internal;
 import java.io.ByteArrayInputStream;
 import java.lang.reflect.Type;
 import java.nio.charset.Charset;
-import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -34,7 +33,6 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
-import org.apache.commons.codec.binary.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.crypto.signer.CMSSignedDataVerifier;
@@ -80,23 +78,14 @@ public class LicenseConverter extends AbstractConverter<com.xwiki.licensing.Lice
 
     private com.xwiki.licensing.License convertToLicense(byte[] signedLicense)
     {
-        try {
-            return new SignedLicense(signedLicense, verifier, this);
-        } catch (Exception signedLicenseException) {
-            // Try to fall back on a plain license.
-            String serializedLicense;
-            try {
-                serializedLicense = StringUtils.newStringUtf8(this.verifier.verify(signedLicense).getContent());
-            } catch (GeneralSecurityException e) {
-                // Invalid signed license data.
-                throw signedLicenseException;
-            }
+        // The signed data is verified only once, and the right license type is built from the verification result.
+        com.xwiki.licensing.License license = SignedLicense.decode(signedLicense, this.verifier, this);
+        if (!(license instanceof SignedLicense)) {
             // The license data is valid but the certificates used to sign the data are not.
-            com.xwiki.licensing.License license = convertToLicense(serializedLicense);
             this.logger.warn("The signed license [{}] will not be used because its signature is not trusted.",
-                license.getId(), signedLicenseException);
-            return license;
+                license.getId());
         }
+        return license;
     }
 
     private com.xwiki.licensing.License convertToLicense(String serializedLicense)
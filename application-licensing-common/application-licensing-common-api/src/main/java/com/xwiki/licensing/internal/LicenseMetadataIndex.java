@@ -0,0 +1,275 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.instance.InstanceId;
+
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseMetadata;
+import com.xwiki.licensing.LicenseType;
+import com.xwiki.licensing.LicensedFeatureId;
+
+/**
+ * The metadata of the licenses of a multi-licenses file system store, kept in a sidecar file next to the license files.
+ * The index file holds one license per line, with tab separated and URL encoded fields. Missing values (e.g. the type
+ * of a license that has none) are written as empty fields.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+class LicenseMetadataIndex
+{
+    /**
+     * The name of the index file inside the store directory.
+     */
+    static final String INDEX_FILE_NAME = "licenses.index";
+
+    private static final String HEADER = "# XWiki license metadata index v1";
+
+    private static final char FIELD_SEPARATOR = '\t';
+
+    private static final String LIST_SEPARATOR = ",";
+
+    private static final String VERSION_SEPARATOR = ";";
+
+    private static final int FIELD_COUNT = 8;
+
+    private static final String NO_VALUE = "";
+
+    private final File file;
+
+    private final Map<LicenseId, LicenseMetadata> entries = new LinkedHashMap<>();
+
+    private long lastModified;
+
+    /**
+     * @param directory the store directory
+     */
+    LicenseMetadataIndex(File directory)
+    {
+        this.file = new File(directory, INDEX_FILE_NAME);
+    }
+
+    /**
+     * Load the index file, if it exists. Lines that can't be parsed are ignored, and the corresponding licenses are
+     * indexed again by the store.
+     *
+     * @throws IOException if the index file can't be read
+     */
+    synchronized void load() throws IOException
+    {
+        this.entries.clear();
+        this.lastModified = this.file.lastModified();
+        if (!this.file.exists()) {
+            return;
+        }
+
+        List<String> lines = FileUtils.readLines(this.file, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+            // Unknown format, the index is rebuilt.
+            return;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            LicenseMetadata metadata = parse(line);
+            if (metadata != null) {
+                this.entries.put(metadata.getId(), metadata);
+            }
+        }
+    }
+
+    /**
+     * Write the index file, replacing the previous one atomically when the file system supports it.
+     *
+     * @throws IOException if the index file can't be written
+     */
+    synchronized void save() throws IOException
+    {
+        List<String> lines = new ArrayList<>(this.entries.size() + 1);
+        lines.add(HEADER);
+        for (LicenseMetadata metadata : this.entries.values()) {
+            lines.add(format(metadata));
+        }
+
+        File temporaryFile = new File(this.file.getPath() + ".tmp");
+        FileUtils.writeLines(temporaryFile, StandardCharsets.UTF_8.name(), lines, "\n");
+        try {
+            Files.move(temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.lastModified = this.file.lastModified();
+    }
+
+    /**
+     * @return the modification date of the index file when it was last loaded or saved, {@code 0} if there was no
+     *     index file
+     */
+    synchronized long getLastModified()
+    {
+        return this.lastModified;
+    }
+
+    /**
+     * @param id a license identifier
+     * @return {@code true} if the index holds the metadata of the given license
+     */
+    synchronized boolean contains(LicenseId id)
+    {
+        return this.entries.containsKey(id);
+    }
+
+    /**
+     * @param id a license identifier
+     * @return the indexed metadata of the given license, {@code null} if the license is not indexed
+     */
+    synchronized LicenseMetadata get(LicenseId id)
+    {
+        return this.entries.get(id);
+    }
+
+    /**
+     * @param metadata the license metadata to add or replace
+     * @return {@code true} if the index has been modified, i.e. unless it already holds the metadata of the same
+     *     license file content
+     */
+    synchronized boolean put(LicenseMetadata metadata)
+    {
+        LicenseMetadata previous = this.entries.put(metadata.getId(), metadata);
+        return previous == null || metadata.getDigest() == null
+            || !metadata.getDigest().equals(previous.getDigest());
+    }
+
+    /**
+     * @param id the identifier of the license to remove from the index
+     * @return {@code true} if the index has been modified
+     */
+    synchronized boolean remove(LicenseId id)
+    {
+        return this.entries.remove(id) != null;
+    }
+
+    /**
+     * Remove the licenses that are not part of the given set.
+     *
+     * @param ids the identifiers of the licenses to keep
+     * @return {@code true} if the index has been modified
+     */
+    synchronized boolean retainAll(Set<LicenseId> ids)
+    {
+        return this.entries.keySet().retainAll(ids);
+    }
+
+    /**
+     * @return a snapshot of the indexed license metadata
+     */
+    synchronized Collection<LicenseMetadata> getAll()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(this.entries.values()));
+    }
+
+    static String format(LicenseMetadata metadata)
+    {
+        List<String> features = new ArrayList<>();
+        for (LicensedFeatureId featureId : metadata.getFeatureIds()) {
+            String feature = encode(featureId.getId());
+            if (featureId.getVersionConstraint() != null) {
+                feature += VERSION_SEPARATOR + encode(featureId.getVersionConstraint());
+            }
+            features.add(feature);
+        }
+        List<String> instances = new ArrayList<>();
+        for (InstanceId instanceId : metadata.getInstanceIds()) {
+            instances.add(encode(instanceId.getInstanceId()));
+        }
+
+        String type = metadata.getType() != null ? metadata.getType().name() : NO_VALUE;
+        return StringUtils.joinWith(String.valueOf(FIELD_SEPARATOR), metadata.getId(), type,
+            metadata.getExpirationDate(), metadata.getMaxUserCount(), String.join(LIST_SEPARATOR, features),
+            String.join(LIST_SEPARATOR, instances), metadata.isSigned(),
+            StringUtils.defaultString(metadata.getDigest()));
+    }
+
+    static LicenseMetadata parse(String line)
+    {
+        String[] fields = StringUtils.splitPreserveAllTokens(line, FIELD_SEPARATOR);
+        if (fields.length != FIELD_COUNT) {
+            return null;
+        }
+
+        try {
+            List<LicensedFeatureId> featureIds = new ArrayList<>();
+            for (String feature : StringUtils.split(fields[4], LIST_SEPARATOR)) {
+                String[] parts = StringUtils.split(feature, VERSION_SEPARATOR);
+                featureIds.add(new LicensedFeatureId(decode(parts[0]), parts.length > 1 ? decode(parts[1]) : null));
+            }
+            List<InstanceId> instanceIds = new ArrayList<>();
+            for (String instance : StringUtils.split(fields[5], LIST_SEPARATOR)) {
+                instanceIds.add(new InstanceId(decode(instance)));
+            }
+
+            LicenseType type = NO_VALUE.equals(fields[1]) ? null : LicenseType.valueOf(fields[1]);
+            return new LicenseMetadata(new LicenseId(fields[0]), type,
+                Long.parseLong(fields[2]), Long.parseLong(fields[3]), featureIds, instanceIds,
+                Boolean.parseBoolean(fields[6]), StringUtils.defaultIfEmpty(fields[7], null));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String encode(String value)
+    {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen since UTF-8 is always supported.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value)
+    {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen since UTF-8 is always supported.
+            throw new IllegalStateException(e);
+        }
+    }
+}
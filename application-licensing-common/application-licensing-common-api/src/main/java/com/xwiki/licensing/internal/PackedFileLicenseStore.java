@@ -0,0 +1,592 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.properties.converter.Converter;
+
+import com.xwiki.licensing.FileLicenseStoreReference;
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseSerializer;
+import com.xwiki.licensing.LicenseStore;
+import com.xwiki.licensing.LicenseStoreReference;
+import com.xwiki.licensing.SignedLicense;
+
+/**
+ * License store keeping all the licenses of a multi-licenses store in a single append-only segment file. Each license
+ * is written as a length-prefixed record and an in-memory index maps each license identifier to the offset of its
+ * latest record, so that a license is read with a single positional read. Superseded or deleted records are dropped by
+ * compacting the segment. When a store directory without segment is opened, the licenses found in the per-file layout
+ * used by {@link FileSystemLicenseStore} are imported into a new segment (the original files are kept until the store
+ * is deleted). This store is used when the {@code licensing.store} configuration property is set to {@value #HINT}.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component
+@Singleton
+@Named(PackedFileLicenseStore.HINT)
+public class PackedFileLicenseStore implements LicenseStore
+{
+    /**
+     * The component hint.
+     */
+    public static final String HINT = "PackedFile";
+
+    /**
+     * The name of the segment file created inside the store directory.
+     */
+    static final String SEGMENT_FILE_NAME = "licenses.pack";
+
+    /**
+     * The "XLIC" file signature.
+     */
+    private static final int MAGIC = 0x584c4943;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int SEGMENT_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * Record header: payload length, record type and the two halves of the license UUID.
+     */
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + 1 + 2 * Long.BYTES;
+
+    private static final byte RECORD_LICENSE = 1;
+
+    private static final byte RECORD_DELETED = 2;
+
+    /**
+     * Don't bother compacting small segments.
+     */
+    private static final int COMPACTION_MIN_STALE_RECORDS = 32;
+
+    private static final String TEMPORARY_FILE_EXT = ".tmp";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("xml")
+    private LicenseSerializer<String> serializer;
+
+    @Inject
+    private Converter<License> converter;
+
+    private final Map<File, Segment> segments = new HashMap<>();
+
+    /**
+     * An append-only segment file and the index of the latest record of each license it holds. The segment file is
+     * opened only for the duration of each operation, so that it can be replaced by compaction on any platform.
+     */
+    private final class Segment
+    {
+        private final File file;
+
+        private final Map<LicenseId, Long> index = new LinkedHashMap<>();
+
+        private long end;
+
+        private int staleRecords;
+
+        Segment(File file)
+        {
+            this.file = file;
+        }
+
+        void load() throws IOException
+        {
+            this.index.clear();
+            this.staleRecords = 0;
+            this.end = SEGMENT_HEADER_SIZE;
+
+            if (!this.file.exists() || this.file.length() == 0) {
+                return;
+            }
+
+            try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer header = size < SEGMENT_HEADER_SIZE ? null : readFully(channel, 0, SEGMENT_HEADER_SIZE);
+                if (header == null || header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != FORMAT_VERSION) {
+                    throw new IOException(String.format("[%s] is not a supported packed license store.", this.file));
+                }
+
+                long position = SEGMENT_HEADER_SIZE;
+                while (position + RECORD_HEADER_SIZE <= size) {
+                    ByteBuffer recordHeader = readFully(channel, position, RECORD_HEADER_SIZE);
+                    int length = recordHeader.getInt(0);
+                    long next = position + RECORD_HEADER_SIZE + length;
+                    if (length < 0 || next > size) {
+                        break;
+                    }
+                    index(recordHeader.get(Integer.BYTES), readLicenseId(recordHeader, Integer.BYTES + 1), position);
+                    position = next;
+                }
+
+                this.end = position;
+                if (this.end < size) {
+                    logger.warn("Ignoring [{}] bytes of incomplete data at the end of the license store [{}].",
+                        size - this.end, this.file);
+                }
+            }
+        }
+
+        private void index(byte type, LicenseId licenseId, long position)
+        {
+            Long previous;
+            if (type == RECORD_DELETED) {
+                previous = this.index.remove(licenseId);
+                // The tombstone itself is stale too.
+                this.staleRecords++;
+            } else {
+                previous = this.index.put(licenseId, position);
+            }
+            if (previous != null) {
+                this.staleRecords++;
+            }
+        }
+
+        void append(byte type, LicenseId licenseId, byte[] payload) throws IOException
+        {
+            append(type, Collections.singletonMap(licenseId, payload));
+        }
+
+        /**
+         * Append several records of the same type, forcing them to the storage device only once.
+         */
+        void append(byte type, Map<LicenseId, byte[]> payloads) throws IOException
+        {
+            this.file.getParentFile().mkdirs();
+            try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE))
+            {
+                if (channel.size() == 0) {
+                    channel.write(createSegmentHeader());
+                }
+                if (channel.size() > this.end) {
+                    // Drop the incomplete data left by an interrupted write.
+                    channel.truncate(this.end);
+                }
+                long position = this.end;
+                for (Map.Entry<LicenseId, byte[]> payload : payloads.entrySet()) {
+                    ByteBuffer record = createRecord(type, payload.getKey(), payload.getValue());
+                    position += writeFully(channel, record, position);
+                }
+                channel.force(false);
+            }
+
+            for (Map.Entry<LicenseId, byte[]> payload : payloads.entrySet()) {
+                index(type, payload.getKey(), this.end);
+                this.end += RECORD_HEADER_SIZE + payload.getValue().length;
+            }
+        }
+
+        byte[] read(long position) throws IOException
+        {
+            try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+                int length = readFully(channel, position, Integer.BYTES).getInt(0);
+                return readFully(channel, position + RECORD_HEADER_SIZE, length).array();
+            }
+        }
+
+        boolean shouldCompact()
+        {
+            return this.staleRecords >= COMPACTION_MIN_STALE_RECORDS && this.staleRecords > this.index.size();
+        }
+
+        void compact() throws IOException
+        {
+            File compactedFile = new File(this.file.getPath() + TEMPORARY_FILE_EXT);
+            Map<LicenseId, Long> compactedIndex = new LinkedHashMap<>();
+            long position = SEGMENT_HEADER_SIZE;
+            try (FileChannel source = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(compactedFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                target.write(createSegmentHeader());
+                for (Map.Entry<LicenseId, Long> entry : this.index.entrySet()) {
+                    long start = entry.getValue();
+                    long length = RECORD_HEADER_SIZE + readFully(source, start, Integer.BYTES).getInt(0);
+                    compactedIndex.put(entry.getKey(), position);
+                    long copied = 0;
+                    while (copied < length) {
+                        copied += source.transferTo(start + copied, length - copied, target);
+                    }
+                    position += length;
+                }
+                target.force(true);
+            }
+
+            // Both channels are closed, so the segment file can be replaced even on Windows.
+            Files.move(compactedFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+            logger.debug("Compacted the license store [{}], [{}] stale records dropped.", this.file,
+                this.staleRecords);
+
+            this.index.clear();
+            this.index.putAll(compactedIndex);
+            this.end = position;
+            this.staleRecords = 0;
+        }
+    }
+
+    private File getStoreFile(LicenseStoreReference store)
+    {
+        if (store instanceof FileLicenseStoreReference) {
+            return ((FileLicenseStoreReference) store).getFile();
+        }
+        throw new IllegalArgumentException(String.format("Unsupported store reference [%s] for this implementation.",
+            store.getClass().getName()));
+    }
+
+    private boolean isMulti(LicenseStoreReference store)
+    {
+        return !(store instanceof FileLicenseStoreReference) || ((FileLicenseStoreReference) store).isMulti();
+    }
+
+    private File getStoreDirectory(LicenseStoreReference store)
+    {
+        File directory = getStoreFile(store);
+
+        if (!isMulti(store)) {
+            throw new UnsupportedOperationException(
+                String.format("Unexpected store reference, [%s] should be a multi-licenses store.", directory));
+        }
+
+        return directory;
+    }
+
+    private Segment getSegment(LicenseStoreReference store) throws IOException
+    {
+        File directory = getStoreDirectory(store);
+
+        synchronized (this.segments) {
+            Segment segment = this.segments.get(directory);
+            if (segment == null) {
+                segment = new Segment(new File(directory, SEGMENT_FILE_NAME));
+                synchronized (segment) {
+                    if (!segment.file.exists()) {
+                        importLicenseFiles(directory, segment.file);
+                    }
+                    segment.load();
+                }
+                this.segments.put(directory, segment);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Migration from the per-file layout of {@link FileSystemLicenseStore}. The license data is copied as is, without
+     * being decoded, into a temporary segment that becomes the store segment only once complete, so that an interrupted
+     * migration is started again the next time the store is opened.
+     */
+    private void importLicenseFiles(File directory, File segmentFile) throws IOException
+    {
+        File[] licenseFiles = directory.listFiles(FileSystemLicenseStore.LICENSE_FILE_FILTER);
+        if (licenseFiles == null || licenseFiles.length == 0) {
+            return;
+        }
+
+        File importFile = new File(segmentFile.getPath() + TEMPORARY_FILE_EXT);
+        try (FileChannel channel = FileChannel.open(importFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            long position = writeFully(channel, createSegmentHeader(), 0);
+            for (File licenseFile : licenseFiles) {
+                String fileName = licenseFile.getName();
+                LicenseId licenseId = new LicenseId(
+                    fileName.substring(0, fileName.length() - FileSystemLicenseStore.LICENSE_FILE_EXT.length()));
+                position += writeFully(channel,
+                    createRecord(RECORD_LICENSE, licenseId, FileUtils.readFileToByteArray(licenseFile)), position);
+            }
+            channel.force(true);
+        }
+        Files.move(importFile.toPath(), segmentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        this.logger.info("Imported [{}] license files from [{}] into [{}].", licenseFiles.length, directory,
+            segmentFile);
+    }
+
+    private byte[] encode(License license) throws IOException
+    {
+        if (license instanceof SignedLicense) {
+            return ((SignedLicense) license).getEncoded();
+        } else {
+            return this.serializer.serialize(license).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private License decode(byte[] payload)
+    {
+        return this.converter.convert(License.class, FileSystemLicenseStore.getLicenseContent(payload));
+    }
+
+    private static ByteBuffer createSegmentHeader()
+    {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        return header;
+    }
+
+    private static ByteBuffer createRecord(byte type, LicenseId licenseId, byte[] payload)
+    {
+        UUID uuid = UUID.fromString(licenseId.getId());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).put(type).putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits()).put(payload).flip();
+        return record;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(String.format("Unexpected end of the license store at [%s].", position));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + length - buffer.remaining());
+        }
+        return length;
+    }
+
+    private static LicenseId readLicenseId(ByteBuffer buffer, int position)
+    {
+        return new LicenseId(new UUID(buffer.getLong(position), buffer.getLong(position + Long.BYTES)).toString());
+    }
+
+    @Override
+    public void store(LicenseStoreReference store, License license) throws IOException
+    {
+        Segment segment = getSegment(store);
+        byte[] payload = encode(license);
+
+        synchronized (segment) {
+            segment.append(RECORD_LICENSE, license.getId(), payload);
+            if (segment.shouldCompact()) {
+                segment.compact();
+            }
+        }
+    }
+
+    @Override
+    public void store(LicenseStoreReference store, Collection<License> licenses) throws IOException
+    {
+        Segment segment = getSegment(store);
+        Map<LicenseId, byte[]> payloads = new LinkedHashMap<>();
+        for (License license : licenses) {
+            payloads.put(license.getId(), encode(license));
+        }
+
+        synchronized (segment) {
+            segment.append(RECORD_LICENSE, payloads);
+            if (segment.shouldCompact()) {
+                segment.compact();
+            }
+        }
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store) throws IOException
+    {
+        throw new UnsupportedOperationException(
+            String.format("Unexpected store reference, [%s] should be a multi-licenses store.", getStoreFile(store)));
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store, LicenseId licenseId) throws IOException
+    {
+        Segment segment = getSegment(store);
+
+        byte[] payload;
+        synchronized (segment) {
+            Long position = segment.index.get(licenseId);
+            if (position == null) {
+                return null;
+            }
+            payload = segment.read(position);
+        }
+
+        return decode(payload);
+    }
+
+    @Override
+    public Iterable<License> getIterable(LicenseStoreReference store)
+    {
+        Segment segment;
+        List<LicenseId> licenseIds;
+        try {
+            segment = getSegment(store);
+            synchronized (segment) {
+                licenseIds = new ArrayList<>(segment.index.keySet());
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to load the license store [{}].", getStoreFile(store), e);
+            return Collections.emptyList();
+        }
+
+        return () -> new LicenseRecordIterator(segment, licenseIds);
+    }
+
+    @Override
+    public void delete(LicenseStoreReference store)
+    {
+        File directory = getStoreDirectory(store);
+
+        synchronized (this.segments) {
+            this.segments.remove(directory);
+            // Delete the whole directory, like the file system store, so that the license files kept by the migration
+            // are not imported again the next time the store is opened.
+            try {
+                FileUtils.deleteDirectory(directory);
+            } catch (IOException e) {
+                this.logger.warn("Failed to delete the license store [{}].", directory, e);
+            }
+        }
+    }
+
+    @Override
+    public void delete(LicenseStoreReference store, LicenseId licenseId)
+    {
+        try {
+            Segment segment = getSegment(store);
+            synchronized (segment) {
+                if (segment.index.containsKey(licenseId)) {
+                    segment.append(RECORD_DELETED, licenseId, new byte[0]);
+                    if (segment.shouldCompact()) {
+                        segment.compact();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to delete license [{}] from [{}].", licenseId, getStoreFile(store), e);
+        }
+    }
+
+    /**
+     * Rewrite the segment of the given store keeping only the latest record of each license.
+     *
+     * @param store the store to compact
+     * @throws IOException when an error occurs
+     */
+    public void compact(LicenseStoreReference store) throws IOException
+    {
+        Segment segment = getSegment(store);
+        synchronized (segment) {
+            if (segment.staleRecords > 0) {
+                segment.compact();
+            }
+        }
+    }
+
+    class LicenseRecordIterator implements Iterator<License>
+    {
+        private final Segment segment;
+
+        private final Iterator<LicenseId> licenseIds;
+
+        private License next;
+
+        LicenseRecordIterator(Segment segment, List<LicenseId> licenseIds)
+        {
+            this.segment = segment;
+            this.licenseIds = licenseIds.iterator();
+        }
+
+        private License computeNext()
+        {
+            while (this.licenseIds.hasNext()) {
+                LicenseId licenseId = this.licenseIds.next();
+                try {
+                    byte[] payload;
+                    // Look up the position again since the segment may have been compacted in the mean time.
+                    synchronized (this.segment) {
+                        Long position = this.segment.index.get(licenseId);
+                        if (position == null) {
+                            continue;
+                        }
+                        payload = this.segment.read(position);
+                    }
+                    return decode(payload);
+                } catch (Exception e) {
+                    logger.warn("Failed to read license [{}] from [{}].", licenseId, this.segment.file, e);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (this.next == null) {
+                this.next = computeNext();
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public License next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            License license = this.next;
+            this.next = null;
+            return license;
+        }
+    }
+}
@@ -19,19 +19,35 @@
  */
 package com.xwiki.licensing.internal;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.test.AllLogRule;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import com.xwiki.licensing.FileLicenseStoreReference;
 import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseMetadata;
 import com.xwiki.licensing.LicenseSerializer;
 import com.xwiki.licensing.LicenseStore;
 import com.xwiki.licensing.LicenseStoreReference;
@@ -42,10 +58,12 @@ import com.xwiki.licensing.test.LicensingComponentList;
 import com.xwiki.licensing.test.SignedLicenseTestUtils;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -302,4 +320,282 @@ public class FileSystemLicenseStoreTest
         verify(this.mockedStore.getMockedLogger()).warn(eq("Failed to read license file [{}]."), eq(invalidStoreFile),
             any(IllegalArgumentException.class));
     }
+
+    @Test
+    public void testStoreSkipsIdenticalRewrite() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        store.store(MULTI_STORE_REFERENCE, signedLicense);
+
+        File storeFile = new File(MULTI_STORE_DIR, signedLicense.getId() + ".license");
+        assertThat(storeFile.setLastModified(1000L), is(true));
+
+        store.store(MULTI_STORE_REFERENCE, signedLicense);
+
+        assertThat(storeFile.lastModified(), equalTo(1000L));
+        assertThat(FileUtils.readFileToByteArray(storeFile), equalTo(signedLicense.getEncoded()));
+        assertThat(MULTI_STORE_DIR.list((directory, name) -> name.endsWith(".tmp")).length, is(0));
+    }
+
+    @Test
+    public void testStoreOverwritesExternallyModifiedLicense() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        store.store(MULTI_STORE_REFERENCE, signedLicense);
+
+        // Same length, different content.
+        File storeFile = new File(MULTI_STORE_DIR, signedLicense.getId() + ".license");
+        FileUtils.writeByteArrayToFile(storeFile, new byte[signedLicense.getEncoded().length]);
+        assertThat(storeFile.setLastModified(1000L), is(true));
+
+        store.store(MULTI_STORE_REFERENCE, signedLicense);
+
+        assertThat(FileUtils.readFileToByteArray(storeFile), equalTo(signedLicense.getEncoded()));
+    }
+
+    @Test
+    public void testStoreOverwritesChangedLicense() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        MULTI_STORE_DIR.mkdir();
+        File storeFile = new File(MULTI_STORE_DIR, signedLicense.getId() + ".license");
+        FileUtils.writeStringToFile(storeFile, "truncated", UTF8);
+
+        store.store(MULTI_STORE_REFERENCE, signedLicense);
+
+        assertThat(FileUtils.readFileToByteArray(storeFile), equalTo(signedLicense.getEncoded()));
+    }
+
+    @Test
+    public void testStoreBatchOfLicenses() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+        LicenseSerializer serializer = mockedStore.getInstance(LicenseSerializer.TYPE_STRING, "xml");
+        when(serializer.serialize(testLicense)).thenReturn(xmlLicense);
+
+        store.store(MULTI_STORE_REFERENCE, Arrays.asList(signedLicense, testLicense));
+
+        assertThat(FileUtils.readFileToByteArray(new File(MULTI_STORE_DIR, signedLicense.getId() + ".license")),
+            equalTo(signedLicense.getEncoded()));
+        assertThat(FileUtils.readFileToString(new File(MULTI_STORE_DIR, testLicense.getId() + ".license"), UTF8),
+            equalTo(xmlLicense));
+    }
+
+    @Test
+    public void testIterateOverLicenseStoreWithPrefetch() throws Exception
+    {
+        ConfigurationSource configuration = mockedStore.getInstance(ConfigurationSource.class);
+        when(configuration.getProperty("licensing.localStorePrefetch", Integer.class)).thenReturn(2);
+
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        MULTI_STORE_DIR.mkdir();
+        File invalidStoreFile = new File(MULTI_STORE_DIR, "11111111-1111-1111-1111-111111111111.license");
+        FileUtils.writeStringToFile(invalidStoreFile, "invalid license content", UTF8);
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, testLicense.getId() + ".license"), xmlLicense, UTF8);
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, signedLicense.getId() + ".license"),
+            signedLicense.getEncoded());
+        // Not a license file.
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, "readme.txt"), "test", UTF8);
+
+        List<License> licenses = new ArrayList<>();
+        store.getIterable(MULTI_STORE_REFERENCE).forEach(licenses::add);
+
+        assertThat(licenses.size(), is(2));
+        assertThat(licenses, hasItem(signedLicense));
+
+        verify(this.mockedStore.getMockedLogger()).warn(eq("Failed to read license file [{}]."), eq(invalidStoreFile),
+            any(IllegalArgumentException.class));
+    }
+
+    @Test
+    public void testParallelStreamOverLicenseStore() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        MULTI_STORE_DIR.mkdir();
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, "11111111-1111-1111-1111-111111111111.license"),
+            "invalid license content", UTF8);
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, testLicense.getId() + ".license"), xmlLicense, UTF8);
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, signedLicense.getId() + ".license"),
+            signedLicense.getEncoded());
+
+        List<License> licenses = StreamSupport.stream(store.getSpliterator(MULTI_STORE_REFERENCE), true)
+            .collect(Collectors.toList());
+
+        assertThat(licenses.size(), is(2));
+        assertThat(licenses, hasItem(signedLicense));
+    }
+
+    @Test
+    public void testCloseLicenseStoreIteratorBeforeTheEnd() throws Exception
+    {
+        ConfigurationSource configuration = mockedStore.getInstance(ConfigurationSource.class);
+        when(configuration.getProperty("licensing.localStorePrefetch", Integer.class)).thenReturn(2);
+
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        MULTI_STORE_DIR.mkdir();
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, testLicense.getId() + ".license"), xmlLicense, UTF8);
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, signedLicense.getId() + ".license"),
+            signedLicense.getEncoded());
+
+        Iterator<License> iterator = store.getIterable(MULTI_STORE_REFERENCE).iterator();
+        assertThat(iterator.next(), not(nullValue()));
+        assertThat(iterator, instanceOf(Closeable.class));
+        ((Closeable) iterator).close();
+        // The license decoded in advance is cancelled and the listing of the license files is closed.
+        assertThat(iterator.hasNext(), is(false));
+
+        Spliterator<License> spliterator = store.getSpliterator(MULTI_STORE_REFERENCE);
+        try (Stream<License> licenses = StreamSupport.stream(spliterator, false)
+            .onClose(() -> closeQuietly((Closeable) spliterator)))
+        {
+            assertThat(licenses.findFirst().isPresent(), is(true));
+        }
+        assertThat(spliterator.tryAdvance(license -> { }), is(false));
+    }
+
+    private void closeQuietly(Closeable closeable)
+    {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void testIterateOverMissingLicenseStore() throws Exception
+    {
+        assertThat(store.getIterable(MULTI_STORE_REFERENCE).iterator().hasNext(), is(false));
+    }
+
+    @Test
+    public void testQueryLicenseMetadata() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+        License license = new License();
+        license.setType(LicenseType.TRIAL);
+        license.setExpirationDate(1000L);
+        license.setMaxUserCount(10L);
+        license.setFeatureIds(Collections.singleton(new LicensedFeatureId("org.example:app", "[1.0,)")));
+        LicenseSerializer serializer = mockedStore.getInstance(LicenseSerializer.TYPE_STRING, "xml");
+        when(serializer.serialize(license)).thenReturn(xmlLicense);
+
+        store.store(MULTI_STORE_REFERENCE, Arrays.asList(signedLicense, license));
+
+        Collection<LicenseMetadata> expiring = store.getMetadata(MULTI_STORE_REFERENCE, m -> m.expiresBefore(2000L));
+        assertThat(expiring.size(), is(1));
+        LicenseMetadata metadata = expiring.iterator().next();
+        assertThat(metadata.getId(), equalTo(license.getId()));
+        assertThat(metadata.getType(), equalTo(LicenseType.TRIAL));
+        assertThat(metadata.getMaxUserCount(), equalTo(10L));
+        assertThat(metadata.isSigned(), is(false));
+        assertThat(metadata.getDigest(), not(nullValue()));
+
+        assertThat(store.getMetadata(MULTI_STORE_REFERENCE, m -> m.covers("org.example:app")).size(), is(1));
+
+        store.delete(MULTI_STORE_REFERENCE, license.getId());
+
+        assertThat(store.getMetadata(MULTI_STORE_REFERENCE, m -> m.expiresBefore(2000L)).isEmpty(), is(true));
+        assertThat(store.getMetadata(MULTI_STORE_REFERENCE, m -> true).size(), is(1));
+    }
+
+    @Test
+    public void testIndexLicenseWithoutType() throws Exception
+    {
+        License license = new License();
+        license.setType(null);
+        license.setFeatureIds(Collections.singleton(new LicensedFeatureId("org.example:app", null)));
+        LicenseSerializer serializer = mockedStore.getInstance(LicenseSerializer.TYPE_STRING, "xml");
+        when(serializer.serialize(license)).thenReturn(xmlLicense);
+
+        store.store(MULTI_STORE_REFERENCE, license);
+
+        // The metadata of the license is read back from the index file, instead of being indexed again.
+        LicenseMetadataIndex index = new LicenseMetadataIndex(MULTI_STORE_DIR);
+        index.load();
+        LicenseMetadata metadata = index.get(license.getId());
+        assertThat(metadata, not(nullValue()));
+        assertThat(metadata.getType(), nullValue());
+        assertThat(metadata.covers("org.example:app"), is(true));
+    }
+
+    @Test
+    public void testRebuildLicenseMetadataIndex() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        MULTI_STORE_DIR.mkdir();
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, "00000000-0000-0000-0000-000000000000.license"),
+            xmlLicense, UTF8);
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, signedLicense.getId() + ".license"),
+            signedLicense.getEncoded());
+        // Stale index entry, for a license that isn't stored anymore.
+        LicenseMetadata staleMetadata = new LicenseMetadata(new LicenseId("11111111-1111-1111-1111-111111111111"),
+            LicenseType.PAID, 0L, 0L, Collections.emptyList(), Collections.emptyList(), true, null);
+        FileUtils.writeLines(new File(MULTI_STORE_DIR, LicenseMetadataIndex.INDEX_FILE_NAME), UTF8.name(),
+            Arrays.asList("# XWiki license metadata index v1", LicenseMetadataIndex.format(staleMetadata)));
+
+        Collection<LicenseMetadata> metadata = store.getMetadata(MULTI_STORE_REFERENCE, m -> m.covers("test"));
+        assertThat(metadata.size(), is(1));
+        assertThat(metadata.iterator().next().getId(), equalTo(new LicenseId("00000000-0000-0000-0000-000000000000")));
+        assertThat(store.getMetadata(MULTI_STORE_REFERENCE, LicenseMetadata::isSigned).size(), is(1));
+
+        // The rebuilt index is persisted.
+        LicenseMetadataIndex index = new LicenseMetadataIndex(MULTI_STORE_DIR);
+        index.load();
+        assertThat(index.getAll().size(), is(2));
+        assertThat(index.contains(signedLicense.getId()), is(true));
+    }
+
+    @Test
+    public void testReindexReplacedLicenseFile() throws Exception
+    {
+        MULTI_STORE_DIR.mkdir();
+        LicenseId licenseId = new LicenseId("00000000-0000-0000-0000-000000000000");
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, licenseId + ".license"), xmlLicense, UTF8);
+        // Index entry saved before the license file has been replaced.
+        LicenseMetadata replacedMetadata = new LicenseMetadata(licenseId, LicenseType.PAID, 0L, 0L,
+            Collections.emptyList(), Collections.emptyList(), false, "replaced");
+        File indexFile = new File(MULTI_STORE_DIR, LicenseMetadataIndex.INDEX_FILE_NAME);
+        FileUtils.writeLines(indexFile, UTF8.name(),
+            Arrays.asList("# XWiki license metadata index v1", LicenseMetadataIndex.format(replacedMetadata)));
+        assertThat(indexFile.setLastModified(1000L), is(true));
+
+        Collection<LicenseMetadata> metadata = store.getMetadata(MULTI_STORE_REFERENCE, m -> true);
+        assertThat(metadata.size(), is(1));
+        assertThat(metadata.iterator().next().getType(), equalTo(LicenseType.FREE));
+        assertThat(metadata.iterator().next().getDigest(), not(equalTo("replaced")));
+    }
+
+    @Test
+    public void testStoreIdenticalLicenseKeepsIndex() throws Exception
+    {
+        SignedLicenseTestUtils utils = mockedStore.getInstance(SignedLicenseTestUtils.class);
+        SignedLicense signedLicense = utils.getSignedLicense();
+
+        store.store(MULTI_STORE_REFERENCE, signedLicense);
+
+        File indexFile = new File(MULTI_STORE_DIR, LicenseMetadataIndex.INDEX_FILE_NAME);
+        assertThat(indexFile.setLastModified(1000L), is(true));
+
+        store.store(MULTI_STORE_REFERENCE, signedLicense);
+        store.store(MULTI_STORE_REFERENCE, Collections.singletonList(signedLicense));
+
+        assertThat(indexFile.lastModified(), equalTo(1000L));
+    }
 }
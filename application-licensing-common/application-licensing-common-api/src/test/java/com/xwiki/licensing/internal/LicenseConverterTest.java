@@ -19,6 +19,7 @@
  */
 package com.xwiki.licensing.internal;
 
+import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -48,9 +49,9 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.eq;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -367,7 +368,26 @@ public class LicenseConverterTest
         assertEquals("user", license.getLicensee().get("firstName"));
 
         verify(this.mocker.getMockedLogger()).warn(
-            eq("The signed license [{}] will not be used because its signature is not trusted."), eq(license.getId()),
-            any(IllegalArgumentException.class));
+            "The signed license [{}] will not be used because its signature is not trusted.", license.getId());
+        // The signed data should be verified only once, even when falling back on a plain license.
+        verify(verifier, times(1)).verify(signedLicense);
+    }
+
+    @Test
+    public void convertCorruptedSignedLicense() throws Exception
+    {
+        byte[] signedLicense = new byte[] {1, 2, 3};
+
+        CMSSignedDataVerifier verifier = this.mocker.getInstance(CMSSignedDataVerifier.class);
+        when(verifier.verify(signedLicense)).thenThrow(new GeneralSecurityException("corrupted"));
+
+        try {
+            this.converter.convert(License.class, signedLicense);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Invalid signed license data received", expected.getMessage());
+        }
+
+        verify(verifier, times(1)).verify(signedLicense);
     }
 }
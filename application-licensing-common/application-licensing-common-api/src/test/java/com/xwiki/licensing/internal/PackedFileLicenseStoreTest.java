@@ -0,0 +1,240 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.AllLogRule;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xwiki.licensing.FileLicenseStoreReference;
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseSerializer;
+import com.xwiki.licensing.LicenseStore;
+import com.xwiki.licensing.LicenseStoreReference;
+import com.xwiki.licensing.SignedLicense;
+import com.xwiki.licensing.test.LicensingComponentList;
+import com.xwiki.licensing.test.SignedLicenseTestUtils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link PackedFileLicenseStore}.
+ *
+ * @version $Id$
+ */
+@LicensingComponentList
+public class PackedFileLicenseStoreTest
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public MockitoComponentMockingRule<LicenseStore> mockedStore =
+        new MockitoComponentMockingRule<>(PackedFileLicenseStore.class);
+
+    @Rule
+    public AllLogRule logRule = new AllLogRule();
+
+    private static final File TEST_DIR = new File("target/tmp");
+
+    private static final File MULTI_STORE_DIR = new File(TEST_DIR, "licenses");
+
+    private static final File SEGMENT_FILE = new File(MULTI_STORE_DIR, PackedFileLicenseStore.SEGMENT_FILE_NAME);
+
+    private static final LicenseStoreReference MULTI_STORE_REFERENCE =
+        new FileLicenseStoreReference(MULTI_STORE_DIR, true);
+
+    private static final String xmlLicense = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+        + "<license xmlns=\"http://www.xwiki.com/license\" id=\"00000000-0000-0000-0000-000000000000\">\n"
+        + "    <modelVersion>2.0.0</modelVersion>\n"
+        + "    <type>FREE</type>\n"
+        + "    <licensed>\n"
+        + "        <features>\n"
+        + "            <feature>\n"
+        + "                <id>test</id>\n"
+        + "                <version>1.0</version>\n"
+        + "            </feature>\n"
+        + "        </features>\n"
+        + "    </licensed>\n"
+        + "</license>\n";
+
+    private PackedFileLicenseStore store;
+
+    private SignedLicense signedLicense;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.store = (PackedFileLicenseStore) this.mockedStore.getComponentUnderTest();
+        this.signedLicense = this.mockedStore.<SignedLicenseTestUtils>getInstance(SignedLicenseTestUtils.class)
+            .getSignedLicense();
+        FileUtils.deleteDirectory(TEST_DIR);
+        TEST_DIR.mkdirs();
+    }
+
+    @After
+    public void deleteTestFiles() throws Exception
+    {
+        FileUtils.deleteDirectory(TEST_DIR);
+    }
+
+    @Test
+    public void storeAndRetrieveSignedLicense() throws Exception
+    {
+        this.store.store(MULTI_STORE_REFERENCE, this.signedLicense);
+
+        assertThat(SEGMENT_FILE.exists(), is(true));
+        assertThat(this.store.retrieve(MULTI_STORE_REFERENCE, this.signedLicense.getId()),
+            equalTo((License) this.signedLicense));
+        assertThat(this.store.retrieve(MULTI_STORE_REFERENCE, new LicenseId()), nullValue());
+    }
+
+    @Test
+    public void storeAndRetrieveUnsignedLicense() throws Exception
+    {
+        License license = new License();
+        license.setId(new LicenseId("00000000-0000-0000-0000-000000000000"));
+        LicenseSerializer<String> serializer = this.mockedStore.getInstance(LicenseSerializer.TYPE_STRING, "xml");
+        when(serializer.serialize(license)).thenReturn(xmlLicense);
+
+        this.store.store(MULTI_STORE_REFERENCE, license);
+
+        License retrievedLicense = this.store.retrieve(MULTI_STORE_REFERENCE, license.getId());
+        assertThat(retrievedLicense.getId(), equalTo(license.getId()));
+    }
+
+    @Test
+    public void compactDropsSupersededRecords() throws Exception
+    {
+        for (int i = 0; i < 5; i++) {
+            this.store.store(MULTI_STORE_REFERENCE, this.signedLicense);
+        }
+        long sizeBeforeCompaction = SEGMENT_FILE.length();
+
+        this.store.compact(MULTI_STORE_REFERENCE);
+
+        assertTrue(SEGMENT_FILE.length() < sizeBeforeCompaction);
+        assertThat(this.store.retrieve(MULTI_STORE_REFERENCE, this.signedLicense.getId()),
+            equalTo((License) this.signedLicense));
+    }
+
+    @Test
+    public void deleteLicense() throws Exception
+    {
+        this.store.store(MULTI_STORE_REFERENCE, this.signedLicense);
+
+        this.store.delete(MULTI_STORE_REFERENCE, this.signedLicense.getId());
+
+        assertThat(this.store.retrieve(MULTI_STORE_REFERENCE, this.signedLicense.getId()), nullValue());
+        assertThat(this.store.getIterable(MULTI_STORE_REFERENCE).iterator().hasNext(), is(false));
+    }
+
+    @Test
+    public void importLicenseFilesAndIterate() throws Exception
+    {
+        MULTI_STORE_DIR.mkdirs();
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, this.signedLicense.getId() + ".license"),
+            this.signedLicense.getEncoded());
+        FileUtils.writeStringToFile(new File(MULTI_STORE_DIR, "00000000-0000-0000-0000-000000000000.license"),
+            xmlLicense, UTF8);
+
+        int count = 0;
+        for (License license : this.store.getIterable(MULTI_STORE_REFERENCE)) {
+            count++;
+            if (license instanceof SignedLicense) {
+                assertThat(license, equalTo((License) this.signedLicense));
+            } else {
+                assertThat(license.getId(), equalTo(new LicenseId("00000000-0000-0000-0000-000000000000")));
+            }
+        }
+        assertThat(count, is(2));
+        assertThat(SEGMENT_FILE.exists(), is(true));
+    }
+
+    @Test
+    public void restartInterruptedImport() throws Exception
+    {
+        MULTI_STORE_DIR.mkdirs();
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, this.signedLicense.getId() + ".license"),
+            this.signedLicense.getEncoded());
+        // Simulate a crash in the middle of a previous import.
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, PackedFileLicenseStore.SEGMENT_FILE_NAME + ".tmp"),
+            new byte[] {1, 2, 3});
+
+        assertThat(this.store.retrieve(MULTI_STORE_REFERENCE, this.signedLicense.getId()),
+            equalTo((License) this.signedLicense));
+        assertThat(SEGMENT_FILE.exists(), is(true));
+        assertThat(new File(MULTI_STORE_DIR, PackedFileLicenseStore.SEGMENT_FILE_NAME + ".tmp").exists(), is(false));
+    }
+
+    @Test
+    public void deleteStoreAndReopen() throws Exception
+    {
+        MULTI_STORE_DIR.mkdirs();
+        FileUtils.writeByteArrayToFile(new File(MULTI_STORE_DIR, this.signedLicense.getId() + ".license"),
+            this.signedLicense.getEncoded());
+        assertThat(this.store.retrieve(MULTI_STORE_REFERENCE, this.signedLicense.getId()),
+            equalTo((License) this.signedLicense));
+
+        this.store.delete(MULTI_STORE_REFERENCE);
+
+        // The migrated license files are deleted too, so the deleted licenses are not imported again.
+        assertThat(MULTI_STORE_DIR.exists(), is(false));
+        assertThat(this.store.retrieve(MULTI_STORE_REFERENCE, this.signedLicense.getId()), nullValue());
+        assertThat(this.store.getIterable(MULTI_STORE_REFERENCE).iterator().hasNext(), is(false));
+    }
+
+    @Test
+    public void ignoreIncompleteTrailingRecord() throws Exception
+    {
+        this.store.store(MULTI_STORE_REFERENCE, this.signedLicense);
+
+        // Simulate a crash in the middle of a write, in a store that has not been loaded yet.
+        File otherStoreDir = new File(TEST_DIR, "other");
+        File otherSegmentFile = new File(otherStoreDir, PackedFileLicenseStore.SEGMENT_FILE_NAME);
+        FileUtils.copyFile(SEGMENT_FILE, otherSegmentFile);
+        try (RandomAccessFile file = new RandomAccessFile(otherSegmentFile, "rw")) {
+            file.seek(file.length());
+            file.writeInt(1000);
+            file.write(new byte[] {1, 2, 3});
+        }
+
+        LicenseStoreReference otherStore = new FileLicenseStoreReference(otherStoreDir, true);
+        assertThat(this.store.retrieve(otherStore, this.signedLicense.getId()),
+            equalTo((License) this.signedLicense));
+
+        // The next write drops the incomplete data.
+        this.store.store(otherStore, this.signedLicense);
+        assertThat(otherSegmentFile.length(), equalTo(2 * SEGMENT_FILE.length() - 8));
+    }
+}
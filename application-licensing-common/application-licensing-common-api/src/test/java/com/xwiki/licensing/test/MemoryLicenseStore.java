@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseStore;
+import com.xwiki.licensing.LicenseStoreReference;
+
+/**
+ * In-memory license store, to be used in tests instead of the stores persisting licenses on the file system or in the
+ * database.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component
+@Singleton
+@Named(MemoryLicenseStore.HINT)
+public class MemoryLicenseStore implements LicenseStore
+{
+    /**
+     * The component hint.
+     */
+    public static final String HINT = "Memory";
+
+    private final Map<LicenseStoreReference, License> singleStores = new ConcurrentHashMap<>();
+
+    private final Map<LicenseStoreReference, Map<LicenseId, License>> multiStores = new ConcurrentHashMap<>();
+
+    private Map<LicenseId, License> getMultiStore(LicenseStoreReference store)
+    {
+        return this.multiStores.computeIfAbsent(store, key -> Collections.synchronizedMap(new LinkedHashMap<>()));
+    }
+
+    @Override
+    public void store(LicenseStoreReference store, License license)
+    {
+        getMultiStore(store).put(license.getId(), license);
+    }
+
+    /**
+     * Store a license into a single license store.
+     *
+     * @param store the store where to store the license
+     * @param license the license to be stored
+     */
+    public void storeSingle(LicenseStoreReference store, License license)
+    {
+        this.singleStores.put(store, license);
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store)
+    {
+        return this.singleStores.get(store);
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store, LicenseId license)
+    {
+        return getMultiStore(store).get(license);
+    }
+
+    @Override
+    public void delete(LicenseStoreReference store)
+    {
+        this.singleStores.remove(store);
+        this.multiStores.remove(store);
+    }
+
+    @Override
+    public void delete(LicenseStoreReference store, LicenseId license)
+    {
+        getMultiStore(store).remove(license);
+    }
+
+    @Override
+    public Iterable<License> getIterable(LicenseStoreReference store)
+    {
+        Map<LicenseId, License> licenses = getMultiStore(store);
+        synchronized (licenses) {
+            return new ArrayList<>(licenses.values());
+        }
+    }
+}
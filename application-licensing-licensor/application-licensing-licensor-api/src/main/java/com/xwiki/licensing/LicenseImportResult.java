@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The result of the import of a license bundle entry.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Unstable
+public final class LicenseImportResult
+{
+    private final String entry;
+
+    private final License license;
+
+    private final LicenseImportStatus status;
+
+    private final String message;
+
+    /**
+     * @param entry the name of the bundle entry
+     * @param license the license read from the entry, {@code null} if the entry is not a license
+     * @param status the outcome of the import
+     * @param message the reason why the license has not been added, {@code null} if added
+     */
+    public LicenseImportResult(String entry, License license, LicenseImportStatus status, String message)
+    {
+        this.entry = entry;
+        this.license = license;
+        this.status = status;
+        this.message = message;
+    }
+
+    /**
+     * @return the name of the bundle entry: the archive entry name, or the line number for a text bundle
+     */
+    public String getEntry()
+    {
+        return this.entry;
+    }
+
+    /**
+     * @return the license read from the entry, {@code null} if the entry is not a license
+     */
+    public License getLicense()
+    {
+        return this.license;
+    }
+
+    /**
+     * @return the identifier of the license read from the entry, {@code null} if the entry is not a license
+     */
+    public LicenseId getLicenseId()
+    {
+        return this.license != null ? this.license.getId() : null;
+    }
+
+    /**
+     * @return the outcome of the import
+     */
+    public LicenseImportStatus getStatus()
+    {
+        return this.status;
+    }
+
+    /**
+     * @return the reason why the license has not been added, {@code null} if added
+     */
+    public String getMessage()
+    {
+        return this.message;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The outcome of the import of a license from a license bundle.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Unstable
+public enum LicenseImportStatus
+{
+    /**
+     * The license has been added.
+     */
+    ADDED,
+
+    /**
+     * The license is valid but it has not been added because it is not signed by a trusted authority, it is not
+     * applicable to this instance, or it doesn't improve the current licenses.
+     */
+    NOT_ADDED,
+
+    /**
+     * The bundle entry is not a license.
+     */
+    INVALID
+}
@@ -19,6 +19,7 @@
  */
 package com.xwiki.licensing;
 
+import java.util.ArrayList;
 import java.util.Collection;
 
 import org.xwiki.component.annotation.Role;
@@ -52,6 +53,25 @@ public interface LicenseManager
      */
     boolean add(License license);
 
+    /**
+     * Add several licenses at once to the current set of active licenses. Each license is checked the same way as in
+     * {@link #add(License)}, and the added licenses are persisted together.
+     *
+     * @param licenses the licenses to be added
+     * @return the licenses that have been actually added
+     * @since 1.32.1
+     */
+    default Collection<License> add(Collection<License> licenses)
+    {
+        Collection<License> addedLicenses = new ArrayList<>();
+        for (License license : licenses) {
+            if (add(license)) {
+                addedLicenses.add(license);
+            }
+        }
+        return addedLicenses;
+    }
+
     /**
      * Try to delete the given license from the persistence store. The license is not removed from the active set until
      * the next restart.
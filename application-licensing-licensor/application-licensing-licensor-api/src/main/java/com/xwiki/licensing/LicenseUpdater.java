@@ -19,6 +19,8 @@
  */
 package com.xwiki.licensing;
 
+import java.util.Collection;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.stability.Unstable;
@@ -41,6 +43,18 @@ public interface LicenseUpdater
      */
     void renewLicense(ExtensionId extensionId);
 
+    /**
+     * Renew the licenses of several extensions at once and update the renewed licenses locally as well, all together
+     * rather than one after the other.
+     *
+     * @param extensionIds the extensions for which the licenses need an update
+     * @since 1.32.1
+     */
+    default void renewLicenses(Collection<ExtensionId> extensionIds)
+    {
+        extensionIds.forEach(this::renewLicense);
+    }
+
     /**
      * Retrieve licenses updates from the XWiki Store.
      */
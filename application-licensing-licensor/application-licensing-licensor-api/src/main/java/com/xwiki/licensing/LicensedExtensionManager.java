@@ -70,6 +70,21 @@ public interface LicensedExtensionManager
      */
     Collection<ExtensionId> getMandatoryLicensedExtensions();
 
+    /**
+     * Check if a license is mandatory for the given extension, i.e. if it's one of the
+     * {@link #getMandatoryLicensedExtensions() mandatory licensed extensions}.
+     *
+     * @param extensionId an installed extension
+     * @return {@code true} if the given extension is a licensed extension that is not covered by the license of other
+     *     installed extensions, {@code false} otherwise
+     * @since 1.32.1
+     */
+    @Unstable
+    default boolean isMandatoryLicensedExtension(ExtensionId extensionId)
+    {
+        return getMandatoryLicensedExtensions().contains(extensionId);
+    }
+
     /**
      * Invalidate the cached list of mandatory licensed extensions.
      *
@@ -41,6 +41,30 @@ public interface LicensingConfiguration
      */
     File getLocalStorePath();
 
+    /**
+     * @return the hint of the {@link LicenseStore} component used to persist the licenses, e.g. {@code FileSystem}
+     *     (the default) to keep the licenses on the local file system, {@code PackedFile} to keep them in a single file
+     *     or {@code Database} to share them between all the members of a cluster
+     * @since 1.32.1
+     */
+    @Unstable
+    default String getStoreHint()
+    {
+        return "FileSystem";
+    }
+
+    /**
+     * @return {@code true} if the licensor must not contact the licensing store (e.g. for air-gapped instances), in
+     *     which case the licenses are neither updated, renewed nor generated automatically and have to be added
+     *     manually
+     * @since 1.32.1
+     */
+    @Unstable
+    default boolean isOffline()
+    {
+        return false;
+    }
+
     /**
      * Get the list of extensions that should be upgraded automatically.
      *
@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseMetadata;
+import com.xwiki.licensing.LicenseStore;
+import com.xwiki.licensing.LicenseStoreReference;
+import com.xwiki.licensing.LicensingConfiguration;
+
+/**
+ * License store delegating to the store implementation selected by {@link LicensingConfiguration#getStoreHint()}.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component
+@Singleton
+@Named(ConfiguredLicenseStore.HINT)
+public class ConfiguredLicenseStore implements LicenseStore
+{
+    /**
+     * The component hint.
+     */
+    public static final String HINT = "configured";
+
+    private static final String DEFAULT_STORE_HINT = "FileSystem";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private LicensingConfiguration configuration;
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    private volatile LicenseStore store;
+
+    private LicenseStore getStore()
+    {
+        if (this.store == null) {
+            String hint = this.configuration.getStoreHint();
+            try {
+                this.store = this.componentManagerProvider.get().getInstance(LicenseStore.class, hint);
+            } catch (ComponentLookupException e) {
+                this.logger.error("Failed to lookup the configured license store [{}], falling back on [{}].", hint,
+                    DEFAULT_STORE_HINT, e);
+                try {
+                    this.store = this.componentManagerProvider.get().getInstance(LicenseStore.class,
+                        DEFAULT_STORE_HINT);
+                } catch (ComponentLookupException e1) {
+                    throw new IllegalStateException("Failed to lookup the default license store.", e1);
+                }
+            }
+        }
+
+        return this.store;
+    }
+
+    @Override
+    public void store(LicenseStoreReference store, License license) throws IOException
+    {
+        getStore().store(store, license);
+    }
+
+    @Override
+    public void store(LicenseStoreReference store, Collection<License> licenses) throws IOException
+    {
+        getStore().store(store, licenses);
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store) throws IOException
+    {
+        return getStore().retrieve(store);
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store, LicenseId license) throws IOException
+    {
+        return getStore().retrieve(store, license);
+    }
+
+    @Override
+    public void delete(LicenseStoreReference store)
+    {
+        getStore().delete(store);
+    }
+
+    @Override
+    public void delete(LicenseStoreReference store, LicenseId license)
+    {
+        getStore().delete(store, license);
+    }
+
+    @Override
+    public Iterable<License> getIterable(LicenseStoreReference store)
+    {
+        return getStore().getIterable(store);
+    }
+
+    @Override
+    public Spliterator<License> getSpliterator(LicenseStoreReference store)
+    {
+        return getStore().getSpliterator(store);
+    }
+
+    @Override
+    public Collection<LicenseMetadata> getMetadata(LicenseStoreReference store, Predicate<LicenseMetadata> filter)
+    {
+        return getStore().getMetadata(store, filter);
+    }
+}
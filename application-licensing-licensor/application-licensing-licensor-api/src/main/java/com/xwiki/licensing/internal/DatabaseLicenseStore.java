@@ -0,0 +1,532 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.properties.converter.Converter;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.licensing.FileLicenseStoreReference;
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseMetadata;
+import com.xwiki.licensing.LicenseSerializer;
+import com.xwiki.licensing.LicenseStore;
+import com.xwiki.licensing.LicenseStoreReference;
+import com.xwiki.licensing.SignedLicense;
+
+/**
+ * License store persisting the licenses in the database of the main wiki, so that all the members of a cluster share
+ * the same licenses. Each license is saved in its own document, so that the members of the cluster never overwrite
+ * each other's licenses. The licenses are also kept in the local file system store, which is used for reading them and
+ * which is synchronized with the database when iterating over the stored licenses. The licenses that can't be stored
+ * in the database (e.g. before XWiki is initialized) are recorded as pending in the local store directory and they are
+ * uploaded by the next synchronization, while the other local licenses missing from the database are deleted. Single
+ * license stores are not shared and are handled by the local file system store only.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component
+@Singleton
+@Named(DatabaseLicenseStore.HINT)
+public class DatabaseLicenseStore implements LicenseStore
+{
+    /**
+     * The component hint.
+     */
+    public static final String HINT = "Database";
+
+    protected static final List<String> CODE_SPACE = Arrays.asList("Licenses", "Code");
+
+    /**
+     * The space holding one document for each stored license, named after the license identifier.
+     */
+    protected static final List<String> STORE_SPACE = Arrays.asList("Licenses", "Code", "LicenseStore");
+
+    protected static final LocalDocumentReference STORE_CLASS =
+        new LocalDocumentReference(CODE_SPACE, "LicenseStoreClass");
+
+    protected static final String LICENSE_ID = "licenseId";
+
+    protected static final String LICENSE = "license";
+
+    /**
+     * The name of the file listing the licenses that are stored locally but not in the database yet.
+     */
+    static final String PENDING_FILE_NAME = "licenses.pending";
+
+    /**
+     * The name of the file marking the local stores that have been synchronized with the database at least once.
+     */
+    static final String SYNCHRONIZED_FILE_NAME = "licenses.synchronized";
+
+    private static final String XML_PREFIX = "<?xml ";
+
+    private static final String VERSIONS_QUERY =
+        "select doc.name, doc.version from XWikiDocument doc where doc.space = :space";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("FileSystem")
+    private LicenseStore cache;
+
+    @Inject
+    @Named("xml")
+    private LicenseSerializer<String> serializer;
+
+    @Inject
+    private Converter<License> converter;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    /**
+     * The licenses that are stored locally but not in the database yet, by store.
+     */
+    private final Map<LicenseStoreReference, Set<LicenseId>> pendingLicenses = new ConcurrentHashMap<>();
+
+    /**
+     * The versions of the license documents with which the local licenses have been synchronized last, by store.
+     */
+    private final Map<LicenseStoreReference, Map<String, String>> synchronizedVersions = new ConcurrentHashMap<>();
+
+    @Override
+    public void store(LicenseStoreReference store, License license) throws IOException
+    {
+        store(store, Collections.singletonList(license));
+    }
+
+    @Override
+    public synchronized void store(LicenseStoreReference store, Collection<License> licenses) throws IOException
+    {
+        this.cache.store(store, licenses);
+
+        if (this.remoteObservationManagerContext.isRemoteState()) {
+            // The licenses received from another member of the cluster are stored in the database by that member.
+            return;
+        }
+
+        // The licenses are uploaded by the next synchronization if they can't be stored in the database now.
+        List<LicenseId> licenseIds = licenses.stream().map(License::getId).collect(Collectors.toList());
+        updatePendingLicenses(store, licenseIds, true);
+
+        XWikiContext xcontext = getXWikiContext();
+        if (xcontext == null) {
+            this.logger.debug("The database is not available yet, the licenses [{}] are stored locally only.",
+                licenseIds);
+            return;
+        }
+
+        try {
+            storeInDatabase(licenses, xcontext);
+        } catch (XWikiException e) {
+            throw new IOException("Failed to store the licenses in the database.", e);
+        }
+        updatePendingLicenses(store, licenseIds, false);
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store) throws IOException
+    {
+        return this.cache.retrieve(store);
+    }
+
+    @Override
+    public License retrieve(LicenseStoreReference store, LicenseId licenseId) throws IOException
+    {
+        License license = this.cache.retrieve(store, licenseId);
+        if (license == null) {
+            XWikiContext xcontext = getXWikiContext();
+            if (xcontext != null) {
+                try {
+                    BaseObject licenseObject = getLicenseDocument(licenseId, xcontext).getXObject(STORE_CLASS);
+                    if (licenseObject != null) {
+                        license = decode(licenseObject.getLargeStringValue(LICENSE));
+                        this.cache.store(store, license);
+                    }
+                } catch (XWikiException e) {
+                    throw new IOException(String.format("Failed to retrieve license [%s] from the database.",
+                        licenseId), e);
+                }
+            }
+        }
+        return license;
+    }
+
+    @Override
+    public void delete(LicenseStoreReference store)
+    {
+        this.cache.delete(store);
+    }
+
+    @Override
+    public synchronized void delete(LicenseStoreReference store, LicenseId licenseId)
+    {
+        this.cache.delete(store, licenseId);
+        updatePendingLicenses(store, Collections.singletonList(licenseId), false);
+
+        XWikiContext xcontext = getXWikiContext();
+        if (xcontext != null && !this.remoteObservationManagerContext.isRemoteState()) {
+            try {
+                XWikiDocument document = getLicenseDocument(licenseId, xcontext);
+                if (!document.isNew()) {
+                    xcontext.getWiki().deleteDocument(document, xcontext);
+                }
+            } catch (XWikiException e) {
+                this.logger.warn("Failed to delete license [{}] from the database. Root cause is [{}].", licenseId,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    @Override
+    public Iterable<License> getIterable(LicenseStoreReference store)
+    {
+        synchronizeCache(store);
+        return this.cache.getIterable(store);
+    }
+
+    @Override
+    public Spliterator<License> getSpliterator(LicenseStoreReference store)
+    {
+        synchronizeCache(store);
+        return this.cache.getSpliterator(store);
+    }
+
+    @Override
+    public Collection<LicenseMetadata> getMetadata(LicenseStoreReference store, Predicate<LicenseMetadata> filter)
+    {
+        synchronizeCache(store);
+        return this.cache.getMetadata(store, filter);
+    }
+
+    private XWikiContext getXWikiContext()
+    {
+        XWikiContext xcontext = this.contextProvider.get();
+        // The database is not available before XWiki is initialized, in which case only the local copy is used.
+        return xcontext != null && xcontext.getWiki() != null ? xcontext : null;
+    }
+
+    private XWikiDocument getLicenseDocument(LicenseId licenseId, XWikiContext xcontext) throws XWikiException
+    {
+        return xcontext.getWiki().getDocument(new DocumentReference(xcontext.getMainXWiki(), STORE_SPACE,
+            licenseId.toString()), xcontext);
+    }
+
+    private void storeInDatabase(Collection<License> licenses, XWikiContext xcontext)
+        throws XWikiException, IOException
+    {
+        for (License license : licenses) {
+            String content = encode(license);
+            XWikiDocument document = getLicenseDocument(license.getId(), xcontext).clone();
+            BaseObject licenseObject = document.getXObject(STORE_CLASS);
+            if (licenseObject == null) {
+                licenseObject = document.newXObject(STORE_CLASS, xcontext);
+                licenseObject.setStringValue(LICENSE_ID, license.getId().toString());
+            }
+            if (!content.equals(licenseObject.getLargeStringValue(LICENSE))) {
+                licenseObject.setLargeStringValue(LICENSE, content);
+                document.setHidden(true);
+                xcontext.getWiki().saveDocument(document, "Stored license.", true, xcontext);
+            }
+        }
+    }
+
+    /**
+     * @return the version of each license document, by license identifier
+     */
+    private Map<String, String> getDatabaseVersions(XWikiContext xcontext) throws QueryException
+    {
+        Query query = this.queryManager.createQuery(VERSIONS_QUERY, Query.HQL);
+        query.bindValue("space", String.join(".", STORE_SPACE)).setWiki(xcontext.getMainXWiki());
+        Map<String, String> versions = new HashMap<>();
+        for (Object[] result : query.<Object[]>execute()) {
+            versions.put((String) result[0], (String) result[1]);
+        }
+        return versions;
+    }
+
+    /**
+     * Update the local copy of the licenses from the database. Only the license documents that have been added or
+     * modified since the last synchronization are loaded, and nothing is done while no license document is modified and
+     * there are no pending licenses. The pending licenses are uploaded to the database, and the other local licenses
+     * that are missing from the database (i.e. deleted from the database) are deleted. The first time a local store is
+     * synchronized, all its licenses that are missing from the database are uploaded instead.
+     */
+    private synchronized void synchronizeCache(LicenseStoreReference store)
+    {
+        XWikiContext xcontext = getXWikiContext();
+        if (xcontext == null) {
+            this.logger.debug("The database is not available yet, using the local licenses.");
+            return;
+        }
+
+        try {
+            Map<String, String> versions = getDatabaseVersions(xcontext);
+            Set<LicenseId> pendingLicenseIds = getPendingLicenseIds(store);
+            boolean firstSynchronization = !isSynchronized(store);
+            if (firstSynchronization || !pendingLicenseIds.isEmpty()
+                || !versions.equals(this.synchronizedVersions.get(store)))
+            {
+                synchronizeCache(store, versions, pendingLicenseIds, firstSynchronization, xcontext);
+                updatePendingLicenses(store, pendingLicenseIds, false);
+                this.synchronizedVersions.put(store, versions);
+                if (firstSynchronization) {
+                    markSynchronized(store);
+                }
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to synchronize the local licenses with the database, using the local licenses. "
+                + "Root cause is [{}].", ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private void synchronizeCache(LicenseStoreReference store, Map<String, String> versions,
+        Set<LicenseId> pendingLicenseIds, boolean firstSynchronization, XWikiContext xcontext)
+        throws IOException, XWikiException
+    {
+        Map<LicenseId, String> localDigests = new HashMap<>();
+        for (LicenseMetadata metadata : this.cache.getMetadata(store, metadata -> true)) {
+            localDigests.put(metadata.getId(), metadata.getDigest());
+        }
+
+        Map<String, String> previousVersions = this.synchronizedVersions.getOrDefault(store, Collections.emptyMap());
+        Set<LicenseId> sharedLicenseIds = new HashSet<>();
+        List<License> modifiedLicenses = new ArrayList<>();
+        Set<LicenseId> unsharedLicenseIds = new HashSet<>();
+        for (Map.Entry<String, String> version : versions.entrySet()) {
+            LicenseId licenseId = new LicenseId(version.getKey());
+            sharedLicenseIds.add(licenseId);
+            if (!localDigests.containsKey(licenseId)
+                || !Objects.equals(version.getValue(), previousVersions.get(version.getKey())))
+            {
+                String content = getDatabaseContent(licenseId, xcontext);
+                if (content == null || DigestUtils.sha256Hex(getData(content)).equals(localDigests.get(licenseId))) {
+                    continue;
+                }
+                if (pendingLicenseIds.contains(licenseId) && localDigests.containsKey(licenseId)) {
+                    // The local license has been stored after the one from the database.
+                    unsharedLicenseIds.add(licenseId);
+                } else {
+                    modifiedLicenses.add(decode(content));
+                }
+            }
+        }
+
+        if (!modifiedLicenses.isEmpty()) {
+            this.cache.store(store, modifiedLicenses);
+        }
+        for (LicenseId licenseId : localDigests.keySet()) {
+            if (sharedLicenseIds.contains(licenseId)) {
+                continue;
+            }
+            if (firstSynchronization || pendingLicenseIds.contains(licenseId)) {
+                unsharedLicenseIds.add(licenseId);
+            } else {
+                // The license has been deleted from the database, e.g. by another member of the cluster.
+                this.cache.delete(store, licenseId);
+            }
+        }
+
+        uploadLocalLicenses(store, unsharedLicenseIds, xcontext);
+    }
+
+    private String getDatabaseContent(LicenseId licenseId, XWikiContext xcontext) throws XWikiException
+    {
+        BaseObject licenseObject = getLicenseDocument(licenseId, xcontext).getXObject(STORE_CLASS);
+        return licenseObject != null ? licenseObject.getLargeStringValue(LICENSE) : null;
+    }
+
+    private void uploadLocalLicenses(LicenseStoreReference store, Collection<LicenseId> licenseIds,
+        XWikiContext xcontext) throws IOException, XWikiException
+    {
+        List<License> licenses = new ArrayList<>();
+        for (LicenseId licenseId : licenseIds) {
+            License license = this.cache.retrieve(store, licenseId);
+            if (license != null) {
+                licenses.add(license);
+            }
+        }
+        if (!licenses.isEmpty()) {
+            storeInDatabase(licenses, xcontext);
+            this.logger.debug("Stored the local licenses [{}] in the database.", licenseIds);
+        }
+    }
+
+    private boolean isSynchronized(LicenseStoreReference store)
+    {
+        File synchronizedFile = getStoreFile(store, SYNCHRONIZED_FILE_NAME);
+        return this.synchronizedVersions.containsKey(store)
+            || (synchronizedFile != null && synchronizedFile.exists());
+    }
+
+    private void markSynchronized(LicenseStoreReference store)
+    {
+        File synchronizedFile = getStoreFile(store, SYNCHRONIZED_FILE_NAME);
+        if (synchronizedFile != null) {
+            try {
+                FileUtils.touch(synchronizedFile);
+            } catch (IOException e) {
+                this.logger.warn("Failed to mark the license store [{}] as synchronized with the database. "
+                    + "Root cause is [{}].", store, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the licenses of the given store that are not in the database yet
+     */
+    private Set<LicenseId> getPendingLicenseIds(LicenseStoreReference store)
+    {
+        Set<LicenseId> pendingLicenseIds = getPendingLicenses(store);
+        synchronized (pendingLicenseIds) {
+            return new HashSet<>(pendingLicenseIds);
+        }
+    }
+
+    private Set<LicenseId> getPendingLicenses(LicenseStoreReference store)
+    {
+        return this.pendingLicenses.computeIfAbsent(store, this::loadPendingLicenses);
+    }
+
+    private void updatePendingLicenses(LicenseStoreReference store, Collection<LicenseId> licenseIds, boolean pending)
+    {
+        Set<LicenseId> pendingLicenseIds = getPendingLicenses(store);
+        synchronized (pendingLicenseIds) {
+            if (pending ? pendingLicenseIds.addAll(licenseIds) : pendingLicenseIds.removeAll(licenseIds)) {
+                savePendingLicenses(store, pendingLicenseIds);
+            }
+        }
+    }
+
+    private Set<LicenseId> loadPendingLicenses(LicenseStoreReference store)
+    {
+        Set<LicenseId> pendingLicenseIds = new HashSet<>();
+        File pendingFile = getStoreFile(store, PENDING_FILE_NAME);
+        if (pendingFile != null && pendingFile.exists()) {
+            try {
+                for (String line : FileUtils.readLines(pendingFile, StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        pendingLicenseIds.add(new LicenseId(line.trim()));
+                    }
+                }
+            } catch (Exception e) {
+                this.logger.warn("Failed to read the licenses pending to be stored in the database from [{}]. "
+                    + "Root cause is [{}].", pendingFile, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        return pendingLicenseIds;
+    }
+
+    private void savePendingLicenses(LicenseStoreReference store, Set<LicenseId> pendingLicenseIds)
+    {
+        File pendingFile = getStoreFile(store, PENDING_FILE_NAME);
+        if (pendingFile == null) {
+            return;
+        }
+        try {
+            if (pendingLicenseIds.isEmpty()) {
+                Files.deleteIfExists(pendingFile.toPath());
+            } else {
+                FileUtils.writeLines(pendingFile, StandardCharsets.UTF_8.name(),
+                    pendingLicenseIds.stream().map(LicenseId::toString).collect(Collectors.toList()));
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the licenses pending to be stored in the database in [{}]. "
+                + "Root cause is [{}].", pendingFile, ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private File getStoreFile(LicenseStoreReference store, String fileName)
+    {
+        if (store instanceof FileLicenseStoreReference && ((FileLicenseStoreReference) store).isMulti()) {
+            return new File(((FileLicenseStoreReference) store).getFile(), fileName);
+        }
+        // The synchronization state of the other stores is kept in memory only.
+        return null;
+    }
+
+    private String encode(License license) throws IOException
+    {
+        if (license instanceof SignedLicense) {
+            return Base64.getEncoder().encodeToString(((SignedLicense) license).getEncoded());
+        } else {
+            return this.serializer.serialize(license);
+        }
+    }
+
+    private byte[] getData(String content)
+    {
+        return content.startsWith(XML_PREFIX) ? content.getBytes(StandardCharsets.UTF_8)
+            : Base64.getDecoder().decode(content);
+    }
+
+    private License decode(String content)
+    {
+        return this.converter.convert(License.class, content.startsWith(XML_PREFIX) ? content : getData(content));
+    }
+}
@@ -26,13 +26,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
@@ -43,19 +47,23 @@ import org.xwiki.extension.InstalledExtension;
 import org.xwiki.extension.repository.InstalledExtensionRepository;
 import org.xwiki.extension.xar.internal.handler.XarExtensionHandler;
 import org.xwiki.extension.xar.internal.repository.XarInstalledExtension;
+import org.xwiki.observation.ObservationManager;
 
 import com.xwiki.licensing.FileLicenseStoreReference;
 import com.xwiki.licensing.License;
 import com.xwiki.licensing.LicenseId;
 import com.xwiki.licensing.LicenseManager;
+import com.xwiki.licensing.LicenseMetadata;
 import com.xwiki.licensing.LicenseStore;
 import com.xwiki.licensing.LicenseStoreReference;
 import com.xwiki.licensing.LicenseValidator;
 import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensedFeatureId;
 import com.xwiki.licensing.LicensingConfiguration;
+import com.xwiki.licensing.SignedLicense;
 import com.xwiki.licensing.internal.enforcer.LicensingSecurityCacheRuleInvalidator;
 import com.xwiki.licensing.internal.enforcer.LicensingUtils;
+import com.xwiki.licensing.internal.event.LicenseAddedEvent;
 
 /**
  * Default implementation of the {@link LicenseManager} role.
@@ -78,7 +86,7 @@ public class DefaultLicenseManager implements LicenseManager, Initializable
             while (!Thread.interrupted() && registeredLicensesIterator.hasNext()) {
                 Map.Entry<LicensedFeatureId, License> entry = registeredLicensesIterator.next();
                 logger.debug("Associating license [{}] for feature [{}].", entry.getValue().getId(), entry.getKey());
-                linkLicenseToInstalledExtensions(entry.getKey(), entry.getValue());
+                linkLicenseToInstalledExtensions(entry.getKey(), entry.getValue(), true);
             }
 
             // The license manager component can be re-initialized at runtime (e.g. when the XWiki distribution is
@@ -99,7 +107,7 @@ public class DefaultLicenseManager implements LicenseManager, Initializable
     private LicensingConfiguration configuration;
 
     @Inject
-    @Named("FileSystem")
+    @Named(ConfiguredLicenseStore.HINT)
     private LicenseStore store;
 
     @Inject
@@ -115,6 +123,9 @@ public class DefaultLicenseManager implements LicenseManager, Initializable
     @Inject
     private LicensedExtensionManager licensedExtensionManager;
 
+    @Inject
+    private Provider<ObservationManager> observationManagerProvider;
+
     private final Map<LicenseId, License> licenses = new HashMap<>();
 
     private final Map<LicenseId, Integer> licensesUsage = new HashMap<>();
@@ -167,16 +178,21 @@ public class DefaultLicenseManager implements LicenseManager, Initializable
     }
 
     private Collection<ExtensionId> linkLicenseToInstalledExtensions(Collection<LicensedFeatureId> licIds,
-        License licenseTolink)
+        License licenseTolink, boolean clearSecurityCache)
     {
         Set<ExtensionId> extensionIds = new HashSet<>();
         for (LicensedFeatureId licId : licIds) {
-            extensionIds.addAll(linkLicenseToInstalledExtensions(licId, licenseTolink));
+            extensionIds.addAll(linkLicenseToInstalledExtensions(licId, licenseTolink, clearSecurityCache));
         }
         return extensionIds;
     }
 
-    private Collection<ExtensionId> linkLicenseToInstalledExtensions(LicensedFeatureId licId, License licenseTolink)
+    /**
+     * @param clearSecurityCache whether to clear the security cache of each extension whose license changed, or to
+     *     leave it to the caller, which can then clear it once after linking several licenses
+     */
+    private Collection<ExtensionId> linkLicenseToInstalledExtensions(LicensedFeatureId licId, License licenseTolink,
+        boolean clearSecurityCache)
     {
         Set<ExtensionId> extensionIds = new HashSet<>();
         License license = licenseTolink;
@@ -193,7 +209,10 @@ public class DefaultLicenseManager implements LicenseManager, Initializable
             if (license != existingLicense) {
                 logger.debug("Register license [{}] for extension [{}]", license.getId(), extensionId);
                 // Register the new license for this extension.
-                registerLicense(extensionId, license);
+                extensionToLicense.put(extensionId, license);
+                if (clearSecurityCache) {
+                    clearSecurityCacheForXarExtension(extensionId);
+                }
                 extensionIds.add(extensionId);
             }
         }
@@ -338,12 +357,56 @@ public class DefaultLicenseManager implements LicenseManager, Initializable
                 logger.warn("Licensor was unable to persist license [{}].", license.getId());
             }
 
-            linkLicenseToInstalledExtensions(licIds, license);
+            linkLicenseToInstalledExtensions(licIds, license, true);
+            shareLicense(license);
             return true;
         }
         return false;
     }
 
+    @Override
+    public Collection<License> add(Collection<License> licenses)
+    {
+        List<Pair<License, Collection<LicensedFeatureId>>> addedLicenses = new ArrayList<>();
+        for (License license : licenses) {
+            Collection<LicensedFeatureId> licIds = linkLicenseToLicensedFeature(license);
+            if (licIds.size() > 0) {
+                addedLicenses.add(Pair.of(license, licIds));
+            }
+        }
+        if (addedLicenses.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<License> result = addedLicenses.stream().map(Pair::getLeft).collect(Collectors.toList());
+        try {
+            // Persist all the licenses at once (e.g. a single document save for the database store).
+            store.store(storeReference, result);
+        } catch (IOException e) {
+            logger.warn("Licensor was unable to persist licenses [{}].",
+                result.stream().map(License::getId).collect(Collectors.toList()));
+        }
+
+        // Clear the security cache once for each extension whose license changed, even if it changed several times.
+        Set<ExtensionId> relicensedExtensions = new HashSet<>();
+        for (Pair<License, Collection<LicensedFeatureId>> addedLicense : addedLicenses) {
+            relicensedExtensions.addAll(
+                linkLicenseToInstalledExtensions(addedLicense.getRight(), addedLicense.getLeft(), false));
+            shareLicense(addedLicense.getLeft());
+        }
+        relicensedExtensions.forEach(this::clearSecurityCacheForXarExtension);
+        return result;
+    }
+
+    private void shareLicense(License license)
+    {
+        // Share the license with the other members of the cluster. Licenses are added only if signed.
+        if (license instanceof SignedLicense) {
+            this.observationManagerProvider.get().notify(
+                new LicenseAddedEvent(((SignedLicense) license).getEncoded()), null);
+        }
+    }
+
     private void clearSecurityCacheForXarExtension(ExtensionId extensionId)
     {
         // We need to clear the cache because its content might be wrong after a licensing state change
@@ -372,6 +435,25 @@ public class DefaultLicenseManager implements LicenseManager, Initializable
         return Collections.unmodifiableCollection(licensesUsage.keySet());
     }
 
+    /**
+     * @return the digests of the persisted licenses that are registered by this license manager, used to skip the
+     *     licenses that are received again from the licensing store
+     * @since 1.32.1
+     */
+    Set<String> getRegisteredLicenseDigests()
+    {
+        Set<LicenseId> registeredLicenses;
+        synchronized (this) {
+            registeredLicenses = new HashSet<>(this.licensesUsage.keySet());
+        }
+        Set<String> digests = new HashSet<>();
+        for (LicenseMetadata metadata : this.store.getMetadata(this.storeReference,
+            metadata -> metadata.getDigest() != null && registeredLicenses.contains(metadata.getId()))) {
+            digests.add(metadata.getDigest());
+        }
+        return digests;
+    }
+
     @Override
     public Collection<LicenseId> getUnusedPersistedLicenses()
     {
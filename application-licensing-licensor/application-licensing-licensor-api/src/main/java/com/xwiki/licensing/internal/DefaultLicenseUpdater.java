@@ -20,18 +20,26 @@
 package com.xwiki.licensing.internal;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.entity.UrlEncodedFormEntity;
@@ -46,9 +54,9 @@ import org.xwiki.extension.repository.InstalledExtensionRepository;
 import org.xwiki.instance.InstanceIdManager;
 import org.xwiki.properties.converter.Converter;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.xpn.xwiki.XWikiContext;
 import com.xwiki.licensing.License;
 import com.xwiki.licensing.LicenseManager;
 import com.xwiki.licensing.LicenseUpdater;
@@ -56,6 +64,8 @@ import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensingConfiguration;
 import com.xwiki.licensing.Licensor;
 import com.xwiki.licensing.internal.helpers.HttpClientUtils;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils.ConditionalResponse;
+import com.xwiki.licensing.internal.helpers.StoreUnavailableException;
 
 /**
  * Default implementation of {@link LicenseUpdater}.
@@ -80,6 +90,10 @@ public class DefaultLicenseUpdater implements LicenseUpdater
 
     private static final String INSTANCE_ID = "instanceId";
 
+    private static final String LICENSE = "license";
+
+    private static final String INVALID_UPDATE_RESPONSE = "The licenses update response is not a list of licenses.";
+
     @Inject
     private Logger logger;
 
@@ -92,9 +106,6 @@ public class DefaultLicenseUpdater implements LicenseUpdater
     @Inject
     private LicensingConfiguration licensingConfig;
 
-    @Inject
-    private Provider<XWikiContext> contextProvider;
-
     @Inject
     private Provider<InstanceIdManager> instanceIdManagerProvider;
 
@@ -114,17 +125,84 @@ public class DefaultLicenseUpdater implements LicenseUpdater
     @Inject
     private HttpClientUtils httpUtils;
 
+    private volatile LicensesUpdate lastLicensesUpdate;
+
+    @Inject
+    private LicenseVerificationExecutor verificationExecutor;
+
+    /**
+     * The licenses update request last served by the store, identified by the entity tag of its response.
+     */
+    private static final class LicensesUpdate
+    {
+        private final String url;
+
+        private final String entityTag;
+
+        LicensesUpdate(String url, String entityTag)
+        {
+            this.url = url;
+            this.entityTag = entityTag;
+        }
+    }
+
     @Override
     public void renewLicense(ExtensionId extensionId)
+    {
+        List<License> renewedLicenses = new ArrayList<>(1);
+        boolean update = requestLicenseRenew(extensionId, renewedLicenses);
+        renewedLicenses.forEach(renewedLicense -> licenseManagerProvider.get().add(renewedLicense));
+        if (update) {
+            updateLicenses();
+        }
+    }
+
+    @Override
+    public void renewLicenses(Collection<ExtensionId> extensionIds)
+    {
+        if (extensionIds.size() <= 1) {
+            extensionIds.forEach(this::renewLicense);
+            return;
+        }
+
+        // The store renews the license of a single extension per request, but the renewed licenses are added (and
+        // persisted) together, and all the licenses are updated at most once.
+        List<License> renewedLicenses = new ArrayList<>(extensionIds.size());
+        boolean update = false;
+        for (ExtensionId extensionId : extensionIds) {
+            update |= requestLicenseRenew(extensionId, renewedLicenses);
+        }
+        if (!renewedLicenses.isEmpty()) {
+            licenseManagerProvider.get().add(renewedLicenses);
+            logger.debug("Licenses renewed for [{}].", extensionIds);
+        }
+        if (update) {
+            updateLicenses();
+        }
+    }
+
+    /**
+     * Ask the store to renew the license of the given extension.
+     *
+     * @param extensionId the extension for which the license needs an update
+     * @param renewedLicenses where to add the renewed license
+     * @return {@code true} if the store didn't send the renewed license, in which case all the licenses should be
+     *     updated in case there might have been updates anyway
+     */
+    private boolean requestLicenseRenew(ExtensionId extensionId, Collection<License> renewedLicenses)
     {
         String errorMsg = String.format(ERROR, extensionId);
 
         try {
             logger.debug("Try renewing the license of [{}], in order to include new found changes.", extensionId);
 
-            JsonNode licenseRenewResponse = httpUtils.httpPost(initializeLicenseRenewPost(extensionId), errorMsg);
+            HttpPost licenseRenewPost = initializeLicenseRenewPost(extensionId);
+            if (licenseRenewPost == null) {
+                return false;
+            }
+            JsonNode licenseRenewResponse = httpUtils.httpPost(licenseRenewPost, errorMsg);
             if (licenseRenewResponse == null) {
-                return;
+                return false;
             }
 
             if (licenseRenewResponse.get("status").textValue().equals("error")) {
@@ -133,26 +211,26 @@ public class DefaultLicenseUpdater implements LicenseUpdater
                 logger.debug(
                     "Successful response from store after license renew. Trying to update local licenses too.");
 
-                String license = licenseRenewResponse.get("license").textValue();
+                String license = licenseRenewResponse.get(LICENSE).textValue();
                 if (license != null) {
                     License retrivedLicense = converter.convert(License.class, base64decoder.decode(license));
                     if (retrivedLicense != null) {
-                        licenseManagerProvider.get().add(retrivedLicense);
+                        renewedLicenses.add(retrivedLicense);
                         logger.debug("License renewed for [{}].", extensionId.getId());
                     }
                 } else {
                     logger.debug("No license received in store response. Updating all licenses in case there might "
                         + "have been updates anyway. Cause: [{}]", licenseRenewResponse.get(DATA));
-                    updateLicenses();
+                    return true;
                 }
             }
         } catch (Exception e) {
             logger.warn("{} Root cause is [{}]", errorMsg, ExceptionUtils.getRootCauseMessage(e));
         }
+        return false;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void updateLicenses()
     {
         try {
@@ -163,26 +241,99 @@ public class DefaultLicenseUpdater implements LicenseUpdater
                 return;
             }
 
-            XWikiContext xcontext = contextProvider.get();
-            String licensesUpdateResponse = xcontext.getWiki().getURLContent(licensesUpdateURL.toString(), xcontext);
-            ObjectMapper objectMapper = new ObjectMapper();
+            // Ask the store to send the licenses only if they changed since the last update made with the same request.
+            String updateURL = licensesUpdateURL.toString();
+            LicensesUpdate previousUpdate = this.lastLicensesUpdate;
+            String entityTag = previousUpdate != null && previousUpdate.url.equals(updateURL)
+                ? previousUpdate.entityTag : null;
+            ConditionalResponse<List<License>> licensesUpdateResponse =
+                httpUtils.httpGet(updateURL, entityTag, this::readLicenses);
+            if (licensesUpdateResponse.isNotModified()) {
+                logger.debug("The licenses didn't change since the last update.");
+                return;
+            }
 
-            List<String> retrievedLicenses =
-                (List<String>) objectMapper.readValue(licensesUpdateResponse, Object.class);
-            for (String license : retrievedLicenses) {
-                License retrivedLicense = converter.convert(License.class, base64decoder.decode(license));
-                if (retrivedLicense != null) {
-                    licenseManagerProvider.get().add(retrivedLicense);
-                }
+            List<License> retrievedLicenses = licensesUpdateResponse.getContent();
+            if (!retrievedLicenses.isEmpty()) {
+                licenseManagerProvider.get().add(retrievedLicenses);
             }
+
+            this.lastLicensesUpdate = licensesUpdateResponse.getEntityTag() != null
+                ? new LicensesUpdate(updateURL, licensesUpdateResponse.getEntityTag()) : null;
+        } catch (StoreUnavailableException e) {
+            logger.debug("Licenses not updated. Root cause [{}]", e.getMessage());
         } catch (URISyntaxException | IOException e) {
             logger.warn("Error while updating licenses. Root cause [{}]", ExceptionUtils.getRootCauseMessage(e));
         }
     }
 
+    /**
+     * Read the licenses from the licenses update response while it is received. Each license is verified by the
+     * verification pool as soon as it is parsed, so the licenses are verified in parallel, and while the rest of the
+     * response is received.
+     */
+    private List<License> readLicenses(InputStream content) throws IOException
+    {
+        Set<String> registeredLicenseDigests = getRegisteredLicenseDigests();
+        List<Future<License>> verifications = new ArrayList<>();
+        try (JsonParser parser = httpUtils.getJsonReader().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException(INVALID_UPDATE_RESPONSE);
+            }
+            while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                String license = parser.getText();
+                verifications.add(verificationExecutor.submit(() -> readLicense(license,
+                    registeredLicenseDigests)));
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new IOException(INVALID_UPDATE_RESPONSE);
+            }
+        } catch (IOException e) {
+            verifications.forEach(verification -> verification.cancel(true));
+            throw e;
+        }
+
+        List<License> licenses = new ArrayList<>();
+        for (Future<License> verification : verifications) {
+            try {
+                License license = verification.get();
+                if (license != null) {
+                    licenses.add(license);
+                }
+            } catch (ExecutionException e) {
+                logger.warn("Failed to read a license received from the store. Root cause is [{}].",
+                    ExceptionUtils.getRootCauseMessage(e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                verifications.forEach(pendingVerification -> pendingVerification.cancel(true));
+                throw new InterruptedIOException("Interrupted while verifying the licenses received from the store.");
+            }
+        }
+        return licenses;
+    }
+
+    private License readLicense(String license, Set<String> registeredLicenseDigests) throws IOException
+    {
+        byte[] licenseData = base64decoder.decode(license);
+        if (registeredLicenseDigests.contains(DigestUtils.sha256Hex(licenseData))) {
+            // Skip the verification of the licenses that didn't change.
+            return null;
+        }
+        return converter.convert(License.class, licenseData);
+    }
+
+    private Set<String> getRegisteredLicenseDigests()
+    {
+        LicenseManager licenseManager = licenseManagerProvider.get();
+        if (licenseManager instanceof DefaultLicenseManager) {
+            return ((DefaultLicenseManager) licenseManager).getRegisteredLicenseDigests();
+        }
+        return Collections.emptySet();
+    }
+
     private HttpPost initializeLicenseRenewPost(ExtensionId extensionId) throws Exception
     {
-        URI licenseRenewURL = getLicenseRenewURL(extensionId);
+        URI licenseRenewURL = getLicenseRenewURL();
         if (licenseRenewURL == null) {
             logger.warn("Failed to renew license for [{}] because the licensor configuration is not complete. "
                 + "Check your store license renew URL and owner details.", extensionId.getId());
@@ -190,18 +341,25 @@ public class DefaultLicenseUpdater implements LicenseUpdater
         }
 
         HttpPost httpPost = new HttpPost(licenseRenewURL);
-        List<NameValuePair> requestData =
-            Arrays.asList(new BasicNameValuePair("firstName", licensingConfig.getLicensingOwnerFirstName()),
-                new BasicNameValuePair("lastName", licensingConfig.getLicensingOwnerLastName()),
-                new BasicNameValuePair("email", licensingConfig.getLicensingOwnerEmail()),
-                new BasicNameValuePair(INSTANCE_ID, instanceIdManagerProvider.get().getInstanceId().toString()),
-                new BasicNameValuePair(FEATURE_ID, extensionId.getId()),
-                new BasicNameValuePair("extensionVersion", extensionId.getVersion().getValue()));
+        List<NameValuePair> requestData = getLicenseRenewRequestData();
+        requestData.add(new BasicNameValuePair(FEATURE_ID, extensionId.getId()));
+        requestData.add(new BasicNameValuePair("extensionVersion", extensionId.getVersion().getValue()));
         httpPost.setEntity(new UrlEncodedFormEntity(requestData));
         return httpPost;
     }
 
-    private URI getLicenseRenewURL(ExtensionId extensionId) throws Exception
+    private List<NameValuePair> getLicenseRenewRequestData()
+    {
+        List<NameValuePair> requestData = new ArrayList<>();
+        requestData.add(new BasicNameValuePair("firstName", licensingConfig.getLicensingOwnerFirstName()));
+        requestData.add(new BasicNameValuePair("lastName", licensingConfig.getLicensingOwnerLastName()));
+        requestData.add(new BasicNameValuePair("email", licensingConfig.getLicensingOwnerEmail()));
+        requestData.add(
+            new BasicNameValuePair(INSTANCE_ID, instanceIdManagerProvider.get().getInstanceId().toString()));
+        return requestData;
+    }
+
+    private URI getLicenseRenewURL() throws Exception
     {
         String storeLicenseRenewURL = licensingConfig.getStoreRenewURL();
         // In case the property has no filled value, the URL cannot be constructed.
@@ -22,11 +22,12 @@ package com.xwiki.licensing.internal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -60,11 +61,6 @@ public class DefaultLicensedExtensionManager implements LicensedExtensionManager
      */
     public static final String LICENSOR_EXTENSION_ID = "com.xwiki.licensing:application-licensing-licensor-api";
 
-    /**
-     * Cache the list of installed licensed extensions that are not covered by the license of another extension.
-     */
-    private Set<ExtensionId> cachedMandatoryLicensedExtensions;
-
     @Inject
     private Logger logger;
 
@@ -74,18 +70,84 @@ public class DefaultLicensedExtensionManager implements LicensedExtensionManager
     @Inject
     private LicensedDependenciesMap licensedDependenciesMap;
 
+    @Inject
+    private ExtensionDependencyGraph extensionDependencyGraph;
+
+    /**
+     * The installed licensed extensions, rebuilt only when the backward dependencies of the licensor API extension
+     * change. Read without locking.
+     */
+    private volatile LicensedExtensions licensedExtensions;
+
+    /**
+     * The last computed licensed extensions, reused when the licensed extensions are computed again without changes.
+     */
+    private LicensedExtensions lastLicensedExtensions;
+
+    /**
+     * Incremented each time the licensed extensions are invalidated, so that a snapshot computed concurrently with an
+     * invalidation is not kept.
+     */
+    private final AtomicLong licensedExtensionsVersion = new AtomicLong();
+
+    /**
+     * The licensed dependencies of the installed licensed extensions and the mandatory licensed extensions, rebuilt
+     * when the extension dependency graph or the licensed extensions change. Read without locking.
+     */
+    private volatile LicensedExtensionClosure licensedExtensionClosure;
+
+    /**
+     * Immutable snapshot of the installed licensed extensions.
+     */
+    private static final class LicensedExtensions
+    {
+        private final Map<String, Set<ExtensionId>> extensionsByNamespace;
+
+        private final Set<ExtensionId> extensions;
+
+        LicensedExtensions(Map<String, Collection<InstalledExtension>> licensorBackwardDependencies)
+        {
+            Map<String, Set<ExtensionId>> namespaceExtensions = new HashMap<>();
+            Set<ExtensionId> allExtensions = new HashSet<>();
+            for (Map.Entry<String, Collection<InstalledExtension>> entry : licensorBackwardDependencies.entrySet()) {
+                Set<ExtensionId> extensionIds =
+                    entry.getValue().stream().map(Extension::getId).collect(Collectors.toSet());
+                namespaceExtensions.put(entry.getKey(), Collections.unmodifiableSet(extensionIds));
+                allExtensions.addAll(extensionIds);
+            }
+            this.extensionsByNamespace = Collections.unmodifiableMap(namespaceExtensions);
+            this.extensions = Collections.unmodifiableSet(allExtensions);
+        }
+
+        Set<ExtensionId> get(String namespace)
+        {
+            return this.extensionsByNamespace.getOrDefault(namespace, Collections.emptySet());
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            return object instanceof LicensedExtensions
+                && this.extensionsByNamespace.equals(((LicensedExtensions) object).extensionsByNamespace);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.extensionsByNamespace.hashCode();
+        }
+    }
+
     @Override
     public Collection<ExtensionId> getLicensedExtensions()
     {
-        return getLicensorBackwardDependencies().values().stream().flatMap(Collection::stream).map(Extension::getId)
-            .collect(Collectors.toSet());
+        return getLicensedExtensionsSnapshot().extensions;
     }
 
     @Override
     public Collection<ExtensionId> getLicensedExtensions(String namespace)
     {
-        return Optional.ofNullable(getLicensorBackwardDependencies().get(namespace)).orElse(Collections.emptySet())
-            .stream().map(Extension::getId).collect(Collectors.toSet());
+        return getLicensedExtensionsSnapshot().get(namespace);
     }
 
     @Override
@@ -101,6 +163,54 @@ public class DefaultLicensedExtensionManager implements LicensedExtensionManager
         return coveredExtensions;
     }
 
+    private LicensedExtensions getLicensedExtensionsSnapshot()
+    {
+        LicensedExtensions snapshot = this.licensedExtensions;
+        return snapshot != null ? snapshot : computeLicensedExtensions();
+    }
+
+    private synchronized LicensedExtensions computeLicensedExtensions()
+    {
+        LicensedExtensions snapshot = this.licensedExtensions;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        long version = this.licensedExtensionsVersion.get();
+        Map<String, Collection<InstalledExtension>> licensorBackwardDependencies = getLicensorBackwardDependencies();
+        if (licensorBackwardDependencies == null) {
+            // Don't keep the result, the licensed extensions are detected again on the next call.
+            return new LicensedExtensions(Collections.emptyMap());
+        }
+
+        snapshot = new LicensedExtensions(licensorBackwardDependencies);
+        if (snapshot.equals(this.lastLicensedExtensions)) {
+            snapshot = this.lastLicensedExtensions;
+        }
+        if (version == this.licensedExtensionsVersion.get()) {
+            this.licensedExtensions = snapshot;
+            this.lastLicensedExtensions = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Called when an extension is installed, uninstalled or upgraded, to detect the licensed extensions again if the
+     * backward dependencies of the licensor API extension may have changed.
+     *
+     * @param installedExtension the extension that changed
+     */
+    void updateLicensedExtensions(InstalledExtension installedExtension)
+    {
+        boolean licensorDependency = LICENSOR_EXTENSION_ID.equals(installedExtension.getId().getId())
+            || installedExtension.getDependencies().stream()
+                .anyMatch(dependency -> LICENSOR_EXTENSION_ID.equals(dependency.getId()));
+        if (licensorDependency) {
+            this.licensedExtensionsVersion.incrementAndGet();
+            this.licensedExtensions = null;
+        }
+    }
+
     private Map<String, Collection<InstalledExtension>> getLicensorBackwardDependencies()
     {
         // The licensor API extension must be installed on the root namespace.
@@ -120,94 +230,68 @@ public class DefaultLicensedExtensionManager implements LicensedExtensionManager
                 + " Licensed extensions won't be detected correctly as a consequence.", LICENSOR_EXTENSION_ID);
         }
 
-        return Collections.emptyMap();
+        return null;
     }
 
     @Override
     public Set<ExtensionId> getMandatoryLicensedExtensions()
     {
-        Set<ExtensionId> mandatoryLicensedExtensions = this.cachedMandatoryLicensedExtensions;
-        if (mandatoryLicensedExtensions == null) {
-            mandatoryLicensedExtensions = computeMandatoryLicensedExtensions();
-            this.cachedMandatoryLicensedExtensions = mandatoryLicensedExtensions;
-        }
-        return Collections.unmodifiableSet(mandatoryLicensedExtensions);
+        return getLicensedExtensionClosure().getMandatoryLicensedExtensions();
     }
 
-    private synchronized Set<ExtensionId> computeMandatoryLicensedExtensions()
+    @Override
+    public boolean isMandatoryLicensedExtension(ExtensionId extensionId)
     {
-        Set<ExtensionId> mandatoryLicensedExtensions = this.cachedMandatoryLicensedExtensions;
-        if (mandatoryLicensedExtensions != null) {
-            return mandatoryLicensedExtensions;
-        }
-
-        Collection<ExtensionId> allLicensedExtensions = getLicensedExtensions();
-        // Extensions for which it was verified if the dependencies contain licensed extensions.
-        Set<ExtensionId> verifiedExtensions = new HashSet<ExtensionId>();
-        mandatoryLicensedExtensions = new HashSet<ExtensionId>(allLicensedExtensions);
-
-        for (ExtensionId extensionId : allLicensedExtensions) {
-            InstalledExtension installedExtension =
-                this.installedExtensionRepository.getInstalledExtension(extensionId);
-            if (installedExtension == null) {
-                continue;
-            }
+        return getLicensedExtensionClosure().isMandatory(extensionId);
+    }
 
-            verifiedExtensions.add(extensionId);
-            Collection<String> namespaces = installedExtension.getNamespaces();
-            if (namespaces == null) {
-                searchLicensedDependenciesRecursive(
-                    this.installedExtensionRepository.getInstalledExtension(extensionId.getId(), null), null,
-                    verifiedExtensions, mandatoryLicensedExtensions);
-            } else {
-                for (String namespace : namespaces) {
-                    searchLicensedDependenciesRecursive(
-                        this.installedExtensionRepository.getInstalledExtension(extensionId.getId(), namespace),
-                        namespace, verifiedExtensions, mandatoryLicensedExtensions);
-                }
-            }
+    /**
+     * @return the licensed dependencies of the installed licensed extensions, as an immutable index that is rebuilt
+     *     only when the extension dependency graph or the licensed extensions change
+     */
+    public LicensedExtensionClosure getLicensedExtensionClosure()
+    {
+        Collection<ExtensionId> extensions = getLicensedExtensions();
+        LicensedExtensionClosure closure = this.licensedExtensionClosure;
+        // The licensed extensions snapshot is reused as long as it doesn't change, so comparing the references is
+        // enough.
+        if (closure == null || closure.getLicensedExtensions() != extensions
+            || closure.getGraphVersion() != this.extensionDependencyGraph.getVersion())
+        {
+            closure = computeLicensedExtensionClosure(extensions);
         }
-
-        return mandatoryLicensedExtensions;
+        return closure;
     }
 
-    private void searchLicensedDependenciesRecursive(InstalledExtension installedExtension, String namespace,
-        Collection<ExtensionId> verifiedExtensions, Set<ExtensionId> mandatoryLicensedExtensions)
+    private synchronized LicensedExtensionClosure computeLicensedExtensionClosure(Collection<ExtensionId> extensions)
     {
-        Collection<ExtensionDependency> dependencies = installedExtension.getDependencies();
-        for (ExtensionDependency dependency : dependencies) {
-            InstalledExtension installedDependency =
-                this.installedExtensionRepository.getInstalledExtension(dependency.getId(), namespace);
-            if (installedDependency == null || dependency.isOptional()) {
-                continue;
-            }
-
-            ExtensionId dependencyId = installedDependency.getId();
-            mandatoryLicensedExtensions.remove(dependencyId);
-
-            if (verifiedExtensions.contains(dependencyId)) {
-                continue;
-            }
-            verifiedExtensions.add(dependencyId);
-            searchLicensedDependenciesRecursive(installedDependency, namespace, verifiedExtensions,
-                mandatoryLicensedExtensions);
+        LicensedExtensionClosure closure = this.licensedExtensionClosure;
+        if (closure == null || closure.getLicensedExtensions() != extensions
+            || closure.getGraphVersion() != this.extensionDependencyGraph.getVersion())
+        {
+            closure = this.extensionDependencyGraph.getLicensedExtensionClosure(extensions);
+            this.licensedExtensionClosure = closure;
         }
+        return closure;
     }
 
     @Override
     public void invalidateMandatoryLicensedExtensionsCache()
     {
-        this.cachedMandatoryLicensedExtensions = null;
+        this.licensedExtensionClosure = null;
     }
 
     @Override
     public Set<ExtensionId> getLicensedDependencies(InstalledExtension installedExtension, String namespace)
     {
-        Set<ExtensionId> licensedDependencies = new HashSet<>();
-        Set<ExtensionId> verifiedExtensions = new HashSet<>();
-
-        getLicensedDependencies(installedExtension, namespace, getLicensedExtensions(), licensedDependencies,
-            verifiedExtensions);
+        // The licensed dependencies of the installed licensed extensions are precomputed. The other extensions (e.g.
+        // the previous version of an upgraded extension) are resolved from the extension dependency graph.
+        Set<ExtensionId> licensedDependencies =
+            getLicensedExtensionClosure().getLicensedDependencies(installedExtension.getId(), namespace);
+        if (licensedDependencies == null) {
+            licensedDependencies = this.extensionDependencyGraph.getLicensedDependencies(
+                installedExtension.getDependencies(), namespace, getLicensedExtensions());
+        }
         logger.debug("Found licensed dependencies for extension [{}] : [{}]", installedExtension.getId(),
             licensedDependencies);
 
@@ -225,29 +309,4 @@ public class DefaultLicensedExtensionManager implements LicensedExtensionManager
     {
         this.licensedDependenciesMap.invalidateCache();
     }
-
-    private void getLicensedDependencies(InstalledExtension installedExtension, String namespace,
-        Collection<ExtensionId> installedLicensedExtensions, Set<ExtensionId> licensedDependencies,
-        Set<ExtensionId> verifiedExtensions)
-    {
-        Collection<ExtensionDependency> dependencies = installedExtension.getDependencies();
-
-        for (ExtensionDependency dep : dependencies) {
-            InstalledExtension installedDep =
-                installedExtensionRepository.getInstalledExtension(dep.getId(), namespace);
-            if (installedDep == null || licensedDependencies.contains(installedDep.getId())
-                || verifiedExtensions.contains(installedDep.getId()))
-            {
-                continue;
-            }
-
-            if (installedLicensedExtensions.contains(installedDep.getId()) && !dep.isOptional()) {
-                licensedDependencies.add(installedDep.getId());
-            }
-
-            verifiedExtensions.add(installedDep.getId());
-            getLicensedDependencies(installedDep, namespace, installedLicensedExtensions, licensedDependencies,
-                verifiedExtensions);
-        }
-    }
 }
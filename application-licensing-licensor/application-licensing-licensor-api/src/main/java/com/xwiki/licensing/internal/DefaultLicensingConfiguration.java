@@ -110,6 +110,18 @@ public class DefaultLicensingConfiguration implements LicensingConfiguration
         return this.localStorePath;
     }
 
+    @Override
+    public String getStoreHint()
+    {
+        return this.configuration.get().getProperty(CK_PREFIX + "store", "FileSystem");
+    }
+
+    @Override
+    public boolean isOffline()
+    {
+        return this.configuration.get().getProperty(CK_PREFIX + "offline", false);
+    }
+
     @Override
     public List<String> getAutoUpgradeAllowList()
     {
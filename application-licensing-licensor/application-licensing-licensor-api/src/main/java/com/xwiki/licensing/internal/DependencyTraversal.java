@@ -0,0 +1,165 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import org.xwiki.extension.ExtensionId;
+
+import com.xwiki.licensing.internal.ExtensionDependencyGraph.Dependency;
+import com.xwiki.licensing.internal.ExtensionDependencyGraph.Node;
+
+/**
+ * Traversal of the extension dependency graph, with an explicit stack instead of recursion so that long dependency
+ * chains can't overflow the call stack. Traversals of different namespaces are independent, so they can run in
+ * parallel.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+final class DependencyTraversal
+{
+    private static final Comparator<String> NAMESPACE_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private DependencyTraversal()
+    {
+    }
+
+    /**
+     * Visit, depth first and in declaration order, the extensions reached from the given dependencies. Each extension
+     * is visited at most once.
+     *
+     * @param dependencies the dependencies from where to start
+     * @param resolver resolves a dependency identifier to an installed extension, or {@code null} if not installed
+     * @param followOptional whether the optional dependencies are traversed or not
+     * @param visited the extensions already visited, updated by the traversal
+     * @param visitor called with each newly reached extension and the dependency through which it was reached, returns
+     *     {@code true} to traverse the dependencies of the extension
+     */
+    static void traverse(Collection<Dependency> dependencies, Function<String, Node> resolver, boolean followOptional,
+        Set<ExtensionId> visited, BiPredicate<Dependency, Node> visitor)
+    {
+        Deque<Iterator<Dependency>> stack = new ArrayDeque<>();
+        stack.push(dependencies.iterator());
+        while (!stack.isEmpty()) {
+            Iterator<Dependency> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                continue;
+            }
+
+            Dependency dependency = siblings.next();
+            if (dependency.isOptional() && !followOptional) {
+                continue;
+            }
+            Node node = resolver.apply(dependency.getId());
+            if (node != null && visited.add(node.getId()) && visitor.test(dependency, node)) {
+                stack.push(node.getDependencies().iterator());
+            }
+        }
+    }
+
+    /**
+     * Run a task for each namespace, in parallel on the given executor, and merge the results in namespace order (root
+     * namespace first) so that the result doesn't depend on the scheduling.
+     *
+     * @param <T> the type of work items
+     * @param <R> the type of result
+     * @param executor the executor running the tasks of the namespaces, when there's more than one namespace
+     * @param workByNamespace the work items of each namespace, {@code null} being the root namespace
+     * @param task computes the result of a namespace
+     * @param merge merges two results
+     * @param identity the result when there's no namespace
+     * @return the merged result
+     */
+    static <T, R> R forEachNamespace(ExecutorService executor, Map<String, List<T>> workByNamespace,
+        BiFunction<String, List<T>, R> task, BinaryOperator<R> merge, R identity)
+    {
+        Map<String, List<T>> sortedWork = new TreeMap<>(NAMESPACE_ORDER);
+        sortedWork.putAll(workByNamespace);
+
+        R result = identity;
+        if (sortedWork.size() == 1) {
+            Map.Entry<String, List<T>> work = sortedWork.entrySet().iterator().next();
+            result = merge.apply(result, task.apply(work.getKey(), work.getValue()));
+        } else {
+            List<Future<R>> tasks = new ArrayList<>(sortedWork.size());
+            try {
+                for (Map.Entry<String, List<T>> work : sortedWork.entrySet()) {
+                    tasks.add(executor.submit(() -> task.apply(work.getKey(), work.getValue())));
+                }
+                for (Future<R> namespaceTask : tasks) {
+                    result = merge.apply(result, getResult(namespaceTask));
+                }
+            } finally {
+                tasks.forEach(namespaceTask -> namespaceTask.cancel(true));
+            }
+        }
+        return result;
+    }
+
+    private static <R> R getResult(Future<R> task)
+    {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Failed to traverse the extension dependencies.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while traversing the extension dependencies.", e);
+        }
+    }
+
+    /**
+     * Merge two sets of extensions, reusing the first one when it can be modified.
+     *
+     * @param left the first set
+     * @param right the second set
+     * @return the union of the two sets
+     */
+    static Set<ExtensionId> union(Set<ExtensionId> left, Set<ExtensionId> right)
+    {
+        Set<ExtensionId> union = left instanceof HashSet ? left : new HashSet<>(left);
+        union.addAll(right);
+        return union;
+    }
+}
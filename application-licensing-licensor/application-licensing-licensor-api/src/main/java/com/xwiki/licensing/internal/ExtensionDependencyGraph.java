@@ -0,0 +1,588 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.extension.ExtensionDependency;
+import org.xwiki.extension.ExtensionId;
+import org.xwiki.extension.InstalledExtension;
+import org.xwiki.extension.repository.InstalledExtensionRepository;
+
+import com.xwiki.licensing.internal.LicensedDependenciesMap.LicensedExtensionParent;
+
+/**
+ * In-memory graph of the installed extensions and of their dependencies, per namespace, used to compute the licensed
+ * dependencies without walking the installed extension repository each time. The graph is populated lazily: an
+ * extension is resolved from the repository the first time it is reached from a namespace, and it is then kept until
+ * an extension event updates it.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component(roles = ExtensionDependencyGraph.class)
+@Singleton
+public class ExtensionDependencyGraph implements Disposable
+{
+    /**
+     * The maximum number of namespaces traversed in parallel.
+     */
+    private static final int MAX_TRAVERSAL_THREADS = 4;
+
+    private static final int TRAVERSAL_QUEUE_SIZE = 32;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private InstalledExtensionRepository installedExtensionRepository;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    private final NamespaceGraph rootGraph = new NamespaceGraph(null);
+
+    private final Map<String, NamespaceGraph> namespaceGraphs = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented each time the graph is updated, so that the data computed from the graph can be rebuilt.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private ExecutorService traversalExecutor;
+
+    /**
+     * An installed extension, as seen from a namespace.
+     */
+    public static final class Node
+    {
+        private final ExtensionId id;
+
+        private final String name;
+
+        private final List<Dependency> dependencies;
+
+        Node(InstalledExtension installedExtension)
+        {
+            this.id = installedExtension.getId();
+            this.name = installedExtension.getName();
+            List<Dependency> nodeDependencies = new ArrayList<>();
+            for (ExtensionDependency dependency : installedExtension.getDependencies()) {
+                nodeDependencies.add(new Dependency(dependency.getId(), dependency.isOptional()));
+            }
+            this.dependencies = Collections.unmodifiableList(nodeDependencies);
+        }
+
+        /**
+         * @return the identifier of the installed extension
+         */
+        public ExtensionId getId()
+        {
+            return this.id;
+        }
+
+        /**
+         * @return the name of the installed extension
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * @return the forward edges of this node
+         */
+        public List<Dependency> getDependencies()
+        {
+            return this.dependencies;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.id.toString();
+        }
+    }
+
+    /**
+     * A forward edge of the graph.
+     */
+    public static final class Dependency
+    {
+        private final String id;
+
+        private final boolean optional;
+
+        Dependency(String id, boolean optional)
+        {
+            this.id = id;
+            this.optional = optional;
+        }
+
+        /**
+         * @return the identifier (or the feature) of the dependency
+         */
+        public String getId()
+        {
+            return this.id;
+        }
+
+        /**
+         * @return {@code true} if the dependency is optional, {@code false} otherwise
+         */
+        public boolean isOptional()
+        {
+            return this.optional;
+        }
+    }
+
+    /**
+     * The extensions resolved from a namespace. An extension installed on the root namespace is also resolved from
+     * the other namespaces, like the installed extension repository does.
+     */
+    private final class NamespaceGraph
+    {
+        private final String namespace;
+
+        /**
+         * The resolved nodes, indexed by extension identifier (or feature). Empty values cache the missing extensions.
+         */
+        private final Map<String, Optional<Node>> nodes = new ConcurrentHashMap<>();
+
+        /**
+         * The backward edges: for each extension identifier, the identifiers of the resolved extensions depending on
+         * it.
+         */
+        private final Map<String, Set<String>> backwardDependencies = new ConcurrentHashMap<>();
+
+        NamespaceGraph(String namespace)
+        {
+            this.namespace = namespace;
+        }
+
+        Node getNode(String id)
+        {
+            Optional<Node> node = this.nodes.get(id);
+            if (node == null) {
+                // The extension is resolved while holding the lock of its entry, which is also taken by remove(), so
+                // that an update done meanwhile either waits for the node to be cached and then removes it, or is
+                // done before the extension is resolved. A stale node can't be cached after the update.
+                node = this.nodes.computeIfAbsent(id, this::resolve);
+            }
+            return node.orElse(null);
+        }
+
+        private Optional<Node> resolve(String id)
+        {
+            Optional<Node> node =
+                Optional.ofNullable(installedExtensionRepository.getInstalledExtension(id, this.namespace))
+                    .map(Node::new);
+            node.ifPresent(newNode -> addBackwardDependencies(id, newNode));
+            return node;
+        }
+
+        Set<String> getBackwardDependencies(String id)
+        {
+            Set<String> dependents = this.backwardDependencies.get(id);
+            return dependents != null ? Collections.unmodifiableSet(dependents) : Collections.emptySet();
+        }
+
+        void remove(String id)
+        {
+            Optional<Node> node = this.nodes.remove(id);
+            if (node != null && node.isPresent()) {
+                for (Dependency dependency : node.get().getDependencies()) {
+                    Set<String> dependents = this.backwardDependencies.get(dependency.getId());
+                    if (dependents != null) {
+                        dependents.remove(id);
+                    }
+                }
+            }
+        }
+
+        private void addBackwardDependencies(String id, Node node)
+        {
+            for (Dependency dependency : node.getDependencies()) {
+                this.backwardDependencies.computeIfAbsent(dependency.getId(), key -> ConcurrentHashMap.newKeySet())
+                    .add(id);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getTraversalExecutor()
+    {
+        if (this.traversalExecutor == null) {
+            int poolSize = Math.max(1, Math.min(MAX_TRAVERSAL_THREADS, Runtime.getRuntime().availableProcessors()));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(TRAVERSAL_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "XWiki License Dependency Traversal Thread");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            this.traversalExecutor = executor;
+        }
+        return this.traversalExecutor;
+    }
+
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.traversalExecutor != null) {
+            this.traversalExecutor.shutdownNow();
+            this.traversalExecutor = null;
+        }
+    }
+
+    private <T, R> R forEachNamespace(Map<String, List<T>> workByNamespace, BiFunction<String, List<T>, R> task,
+        BinaryOperator<R> merge, R identity)
+    {
+        return DependencyTraversal.forEachNamespace(getTraversalExecutor(), workByNamespace,
+            (namespace, work) -> runInExecutionContext(namespace, work, task), merge, identity);
+    }
+
+    private <T, R> R runInExecutionContext(String namespace, List<T> work, BiFunction<String, List<T>, R> task)
+    {
+        // The task is executed either by the caller thread (which already has an execution context) or by a pool
+        // thread, which needs its own execution context.
+        if (this.execution.getContext() != null) {
+            return task.apply(namespace, work);
+        }
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+        } catch (ExecutionContextException e) {
+            throw new IllegalStateException("Failed to initialize the execution context of the dependency traversal.",
+                e);
+        }
+        try {
+            return task.apply(namespace, work);
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private NamespaceGraph getGraph(String namespace)
+    {
+        return namespace == null ? this.rootGraph
+            : this.namespaceGraphs.computeIfAbsent(namespace, NamespaceGraph::new);
+    }
+
+    /**
+     * @param id an extension identifier (or feature)
+     * @param namespace the namespace from where to resolve the extension, {@code null} for the root namespace
+     * @return the installed extension, or {@code null} if the extension is not installed
+     */
+    public Node getNode(String id, String namespace)
+    {
+        return getGraph(namespace).getNode(id);
+    }
+
+    /**
+     * @param id an extension identifier (or feature)
+     * @param namespace the namespace where to look for backward dependencies, {@code null} for the root namespace
+     * @return the identifiers of the resolved extensions that depend on the given extension in the given namespace
+     */
+    public Set<String> getBackwardDependencies(String id, String namespace)
+    {
+        return getGraph(namespace).getBackwardDependencies(id);
+    }
+
+    /**
+     * Update the graph after an extension was installed, uninstalled or upgraded. Only the nodes of the given
+     * extension are removed, to be resolved again from the repository the next time they are reached.
+     *
+     * @param installedExtension the extension that changed
+     * @param namespace the namespace where the extension changed, {@code null} for the root namespace
+     */
+    public void update(InstalledExtension installedExtension, String namespace)
+    {
+        Set<String> ids = new HashSet<>();
+        ids.add(installedExtension.getId().getId());
+        Collection<ExtensionId> features = installedExtension.getExtensionFeatures();
+        if (features != null) {
+            features.forEach(feature -> ids.add(feature.getId()));
+        }
+
+        this.logger.debug("Updating the extension dependency graph for [{}] on namespace [{}].", ids, namespace);
+        List<NamespaceGraph> graphs = new ArrayList<>();
+        if (namespace == null) {
+            // Extensions installed on the root namespace are resolved from all the namespaces.
+            graphs.add(this.rootGraph);
+            graphs.addAll(this.namespaceGraphs.values());
+        } else {
+            graphs.add(getGraph(namespace));
+        }
+        for (NamespaceGraph graph : graphs) {
+            ids.forEach(graph::remove);
+        }
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * @return the version of the graph, incremented each time the graph is updated
+     */
+    public long getVersion()
+    {
+        return this.version.get();
+    }
+
+    /**
+     * @param dependencies the dependencies of an extension
+     * @param namespace the namespace where to look for the dependencies, {@code null} for the root namespace
+     * @param licensedExtensions all the installed licensed extensions
+     * @return the licensed extensions the given dependencies depend on, directly or transitively, skipping the
+     *     licensed extensions that are optional dependencies
+     */
+    public Set<ExtensionId> getLicensedDependencies(Collection<ExtensionDependency> dependencies, String namespace,
+        Collection<ExtensionId> licensedExtensions)
+    {
+        List<Dependency> edges = new ArrayList<>();
+        for (ExtensionDependency dependency : dependencies) {
+            edges.add(new Dependency(dependency.getId(), dependency.isOptional()));
+        }
+
+        return getLicensedDependencies(edges, getGraph(namespace), licensedExtensions);
+    }
+
+    private Set<ExtensionId> getLicensedDependencies(List<Dependency> edges, NamespaceGraph graph,
+        Collection<ExtensionId> licensedExtensions)
+    {
+        Set<ExtensionId> licensedDependencies = new HashSet<>();
+        DependencyTraversal.traverse(edges, graph::getNode, true, new HashSet<>(), (edge, node) -> {
+            // The optional dependencies are not covered by the license, but their own dependencies are.
+            if (!edge.isOptional() && licensedExtensions.contains(node.getId())) {
+                licensedDependencies.add(node.getId());
+            }
+            return true;
+        });
+
+        return licensedDependencies;
+    }
+
+    /**
+     * @param licensedExtensions all the installed licensed extensions
+     * @return the licensed extensions that are not mandatory dependencies of other licensed extensions, directly or
+     *     transitively
+     */
+    public Set<ExtensionId> getMandatoryLicensedExtensions(Collection<ExtensionId> licensedExtensions)
+    {
+        return getMandatoryLicensedExtensions(groupByNamespace(licensedExtensions), licensedExtensions);
+    }
+
+    private Set<ExtensionId> getMandatoryLicensedExtensions(
+        Map<String, List<ExtensionId>> licensedExtensionsByNamespace, Collection<ExtensionId> licensedExtensions)
+    {
+        Set<ExtensionId> dependencies = forEachNamespace(licensedExtensionsByNamespace,
+            (namespace, extensionIds) -> {
+                NamespaceGraph graph = getGraph(namespace);
+                Set<ExtensionId> namespaceDependencies = new HashSet<>();
+                // The licensed extensions reached from another licensed extension are dependencies, even when they
+                // have already been traversed, so they are not marked as verified when traversed as roots.
+                Set<ExtensionId> verifiedExtensions = new HashSet<>();
+                for (ExtensionId extensionId : extensionIds) {
+                    Node node = graph.getNode(extensionId.getId());
+                    if (node != null) {
+                        DependencyTraversal.traverse(node.getDependencies(), graph::getNode, false,
+                            verifiedExtensions, (edge, dependency) -> {
+                                namespaceDependencies.add(dependency.getId());
+                                return true;
+                            });
+                    }
+                }
+                return namespaceDependencies;
+            }, DependencyTraversal::union, Collections.emptySet());
+
+        Set<ExtensionId> mandatoryLicensedExtensions = new HashSet<>(licensedExtensions);
+        mandatoryLicensedExtensions.removeAll(dependencies);
+        return mandatoryLicensedExtensions;
+    }
+
+    /**
+     * Compute the licensed dependencies of all the installed licensed extensions, for each namespace where they are
+     * installed, along with the mandatory licensed extensions.
+     *
+     * @param licensedExtensions all the installed licensed extensions
+     * @return the index of the licensed dependencies
+     */
+    public LicensedExtensionClosure getLicensedExtensionClosure(Collection<ExtensionId> licensedExtensions)
+    {
+        // Read before the traversals, so that an update done meanwhile makes the index outdated.
+        long graphVersion = this.version.get();
+        Map<String, List<ExtensionId>> licensedExtensionsByNamespace = groupByNamespace(licensedExtensions);
+        Map<String, Map<ExtensionId, Set<ExtensionId>>> licensedDependencies =
+            forEachNamespace(licensedExtensionsByNamespace, (namespace, extensionIds) -> {
+                NamespaceGraph graph = getGraph(namespace);
+                Map<ExtensionId, Set<ExtensionId>> namespaceDependencies = new HashMap<>();
+                for (ExtensionId extensionId : extensionIds) {
+                    Node node = graph.getNode(extensionId.getId());
+                    // Another version of the extension may be installed on this namespace.
+                    if (node != null && node.getId().equals(extensionId)) {
+                        namespaceDependencies.put(extensionId,
+                            getLicensedDependencies(node.getDependencies(), graph, licensedExtensions));
+                    }
+                }
+                Map<String, Map<ExtensionId, Set<ExtensionId>>> result = new HashMap<>();
+                result.put(namespace, namespaceDependencies);
+                return result;
+            }, (left, right) -> {
+                left.putAll(right);
+                return left;
+            }, new HashMap<>());
+
+        return new LicensedExtensionClosure(graphVersion, licensedExtensions, licensedDependencies,
+            getMandatoryLicensedExtensions(licensedExtensionsByNamespace, licensedExtensions));
+    }
+
+    /**
+     * Compute, for each given licensed extension and for each namespace where it is installed, the closest licensed
+     * extensions it depends on (mandatory dependencies only). The licensed dependencies reached through another
+     * licensed extension are covered by the license of that extension, so they are not included.
+     *
+     * @param licensedExtensionsByNamespace the licensed extensions for which to compute the licensed dependencies,
+     *     grouped by namespace
+     * @param licensedExtensions all the installed licensed extensions
+     * @return the identifiers of the closest licensed dependencies, for each licensed extension and namespace
+     */
+    public Map<LicensedExtensionParent, Set<String>> getClosestLicensedDependencies(
+        Map<String, List<ExtensionId>> licensedExtensionsByNamespace, Collection<ExtensionId> licensedExtensions)
+    {
+        return forEachNamespace(licensedExtensionsByNamespace, (namespace, extensionIds) -> {
+            NamespaceGraph graph = getGraph(namespace);
+            Map<LicensedExtensionParent, Set<String>> namespaceDependencies = new LinkedHashMap<>();
+            for (ExtensionId extensionId : extensionIds) {
+                Node node = graph.getNode(extensionId.getId());
+                if (node == null) {
+                    continue;
+                }
+
+                Set<String> closestLicensedDependencies = new LinkedHashSet<>();
+                Set<ExtensionId> verifiedExtensions = new HashSet<>();
+                verifiedExtensions.add(node.getId());
+                DependencyTraversal.traverse(node.getDependencies(), graph::getNode, false, verifiedExtensions,
+                    (edge, dependency) -> {
+                        if (licensedExtensions.contains(dependency.getId())) {
+                            closestLicensedDependencies.add(dependency.getId().getId());
+                            return false;
+                        }
+                        return true;
+                    });
+                namespaceDependencies.put(
+                    new LicensedExtensionParent(node.getName(), node.getId().getId(), namespace),
+                    Collections.unmodifiableSet(closestLicensedDependencies));
+            }
+            return namespaceDependencies;
+        }, (left, right) -> {
+            left.putAll(right);
+            return left;
+        }, new LinkedHashMap<>());
+    }
+
+    /**
+     * @param extensionIds installed extensions
+     * @return the given extensions, grouped by the namespaces where they are installed ({@code null} for the root
+     *     namespace)
+     */
+    public Map<String, List<ExtensionId>> groupByNamespace(Collection<ExtensionId> extensionIds)
+    {
+        Map<String, List<ExtensionId>> extensionsByNamespace = new HashMap<>();
+        for (ExtensionId extensionId : extensionIds) {
+            for (String namespace : getNamespaces(extensionId)) {
+                extensionsByNamespace.computeIfAbsent(namespace, key -> new ArrayList<>()).add(extensionId);
+            }
+        }
+        return extensionsByNamespace;
+    }
+
+    /**
+     * @param ids extension identifiers (or features)
+     * @param namespace a namespace, {@code null} for the root namespace
+     * @return the identifiers of the resolved extensions that depend, directly or transitively, on the given
+     *     extensions in the given namespace, including the given identifiers
+     */
+    public Set<String> getDependents(Collection<String> ids, String namespace)
+    {
+        NamespaceGraph graph = getGraph(namespace);
+        Set<String> dependents = new HashSet<>(ids);
+        Deque<String> stack = new ArrayDeque<>(ids);
+        while (!stack.isEmpty()) {
+            for (String dependent : graph.getBackwardDependencies(stack.pop())) {
+                if (dependents.add(dependent)) {
+                    stack.push(dependent);
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * @return the namespaces from where extensions have been resolved, including the root namespace ({@code null})
+     */
+    public Collection<String> getNamespaces()
+    {
+        List<String> namespaces = new ArrayList<>();
+        namespaces.add(null);
+        namespaces.addAll(this.namespaceGraphs.keySet());
+        return namespaces;
+    }
+
+    private Collection<String> getNamespaces(ExtensionId extensionId)
+    {
+        InstalledExtension installedExtension = this.installedExtensionRepository.getInstalledExtension(extensionId);
+        if (installedExtension == null) {
+            return Collections.emptyList();
+        }
+        Collection<String> namespaces = installedExtension.getNamespaces();
+        return namespaces != null ? namespaces : Collections.singletonList(null);
+    }
+}
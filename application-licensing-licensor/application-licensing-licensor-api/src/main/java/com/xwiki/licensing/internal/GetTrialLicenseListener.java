@@ -21,15 +21,16 @@ package com.xwiki.licensing.internal;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Stack;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.extension.ExtensionDependency;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.extension.InstalledExtension;
 import org.xwiki.extension.repository.InstalledExtensionRepository;
@@ -37,8 +38,8 @@ import org.xwiki.job.event.JobFinishedEvent;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
 
-import com.xwiki.licensing.LicenseUpdater;
 import com.xwiki.licensing.LicensedExtensionManager;
+import com.xwiki.licensing.internal.ExtensionDependencyGraph.Node;
 
 /**
  * Generate a trial license for paid extensions after install or upgrade, if the data necessary for it is already filled
@@ -66,7 +67,13 @@ public class GetTrialLicenseListener implements EventListener
     private LicensedExtensionManager licensedExtensionManager;
 
     @Inject
-    private LicenseUpdater licenseUpdater;
+    private LicenseUpdateScheduler licenseUpdateScheduler;
+
+    @Inject
+    private ExtensionDependencyGraph extensionDependencyGraph;
+
+    @Inject
+    private LicensingWorkQueue workQueue;
 
     @Override
     public List<Event> getEvents()
@@ -85,62 +92,80 @@ public class GetTrialLicenseListener implements EventListener
     {
         List<ExtensionId> extensions = ((JobFinishedEvent) event).getRequest().getProperty("extensions");
 
+        // Generate the trial licenses in the background, after the pending licensing work (e.g. license renewals), so
+        // that the install job doesn't wait for the licensing store.
+        workQueue.submitAfterAll(NAME, String.format("Generate the trial licenses of [%s]", extensions),
+            () -> generateTrialLicenses(extensions));
+    }
+
+    private void generateTrialLicenses(List<ExtensionId> extensions)
+    {
         licensedExtensionManager.invalidateMandatoryLicensedExtensionsCache();
         // Retrieve license updates to be sure that we don't override an existing license.
-        licenseUpdater.updateLicenses();
-
+        // The updates requested while the extensions were installed are served by this update.
+        licenseUpdateScheduler.updateNow();
+
+        // Collect the extensions that need a trial license first, so that all the trial licenses are requested with a
+        // single store call, followed by a single licenses update. The extensions shared by the installed extensions
+        // are checked only once.
+        Set<ExtensionId> checkedExtensions = new HashSet<>();
+        Set<ExtensionId> trialExtensions = new LinkedHashSet<>();
         for (ExtensionId extensionId : extensions) {
-            InstalledExtension installedExtension = installedExtensionRepository.getInstalledExtension(extensionId);
-            Stack<ExtensionId> dependencyPath = new Stack<>();
-            dependencyPath.push(extensionId);
-            tryGenerateTrialLicenseRecursive(dependencyPath, installedExtension.getNamespaces());
+            if (checkedExtensions.add(extensionId)) {
+                InstalledExtension installedExtension =
+                    installedExtensionRepository.getInstalledExtension(extensionId);
+                collectTrialExtensions(extensionId, installedExtension.getNamespaces(), checkedExtensions,
+                    trialExtensions);
+            }
+        }
+
+        if (!trialExtensions.isEmpty()) {
+            trialLicenseGenerator.generateTrialLicenses(trialExtensions);
         }
     }
 
     /**
-     * Try to generate a trial license for the given extension. Since a free extension has no license to cover its
-     * dependencies, check also to see if there aren't any paid dependencies, direct or transitive, that need a trial
-     * license.
+     * Check if a trial license can be generated for the given extension. Since a free extension has no license to
+     * cover its dependencies, check also to see if there aren't any paid dependencies, direct or transitive, that need
+     * a trial license.
      *
-     * @param dependencyPath the extensions for which to generate a trial license
+     * @param extensionId the extension for which to generate a trial license
      * @param extensionNamespaces the namespaces where this extension is installed
+     * @param checkedExtensions the extensions already checked
+     * @param trialExtensions the extensions for which a trial license can be generated
      */
-    private void tryGenerateTrialLicenseRecursive(Stack<ExtensionId> dependencyPath,
-        Collection<String> extensionNamespaces)
+    private void collectTrialExtensions(ExtensionId extensionId, Collection<String> extensionNamespaces,
+        Set<ExtensionId> checkedExtensions, Set<ExtensionId> trialExtensions)
     {
-        ExtensionId extensionId = dependencyPath.peek();
         if (trialLicenseGenerator.canGenerateTrialLicense(extensionId)) {
-            trialLicenseGenerator.generateTrialLicense(extensionId);
+            trialExtensions.add(extensionId);
+        } else if (extensionNamespaces == null) {
+            collectTrialDependencies(extensionId, null, checkedExtensions, trialExtensions);
         } else {
-            if (extensionNamespaces == null) {
-                checkDependenciesForTrialLicense(extensionId, null, dependencyPath);
-            } else {
-                for (String namespace : extensionNamespaces) {
-                    checkDependenciesForTrialLicense(extensionId, namespace, dependencyPath);
-                }
+            for (String namespace : extensionNamespaces) {
+                collectTrialDependencies(extensionId, namespace, checkedExtensions, trialExtensions);
             }
         }
     }
 
-    private void checkDependenciesForTrialLicense(ExtensionId extensionId, String namespace,
-        Stack<ExtensionId> dependencyPath)
+    private void collectTrialDependencies(ExtensionId extensionId, String namespace,
+        Set<ExtensionId> checkedExtensions, Set<ExtensionId> trialExtensions)
     {
-        InstalledExtension installedExtension =
-            installedExtensionRepository.getInstalledExtension(extensionId.getId(), namespace);
-        if (installedExtension == null) {
+        Node node = extensionDependencyGraph.getNode(extensionId.getId(), namespace);
+        if (node == null) {
             return;
         }
 
-        Collection<ExtensionDependency> dependencies = installedExtension.getDependencies();
-
-        for (ExtensionDependency dependency : dependencies) {
-            InstalledExtension installedDependency =
-                installedExtensionRepository.getInstalledExtension(dependency.getId(), namespace);
-            if (installedDependency != null && dependencyPath.search(installedDependency.getId()) == -1) {
-                dependencyPath.push(installedDependency.getId());
-                tryGenerateTrialLicenseRecursive(dependencyPath,
-                    namespace != null ? Arrays.asList(namespace) : null);
-            }
-        }
+        // The dependencies are traversed with an explicit stack, and the traversal stops at the extensions for which
+        // a trial license can be generated.
+        DependencyTraversal.traverse(node.getDependencies(),
+            dependencyId -> extensionDependencyGraph.getNode(dependencyId, namespace), true, checkedExtensions,
+            (dependency, dependencyNode) -> {
+                if (trialLicenseGenerator.canGenerateTrialLicense(dependencyNode.getId())) {
+                    trialExtensions.add(dependencyNode.getId());
+                    return false;
+                }
+                return true;
+            });
     }
 }
@@ -0,0 +1,219 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.crypto.BinaryStringEncoder;
+import org.xwiki.properties.converter.Converter;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseImportResult;
+import com.xwiki.licensing.LicenseImportStatus;
+import com.xwiki.licensing.LicenseManager;
+import com.xwiki.licensing.SignedLicense;
+
+/**
+ * Import the licenses of a bundle at once, e.g. on an instance that has no access to the licensing store. A bundle is
+ * either a ZIP archive with one license per entry, binary or base 64 encoded, or a text with one base 64 encoded
+ * license per line (empty lines and lines starting with {@code #} are ignored). The bundle entries are read one by one
+ * and each license is verified by the verification pool as soon as it is read, so the licenses are verified in
+ * parallel, and while the rest of the bundle is read. All the valid licenses are then added with a single call to the
+ * license manager, so that they are persisted together and the security cache is cleared only once.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component(roles = LicenseBundleImporter.class)
+@Singleton
+public class LicenseBundleImporter
+{
+    /**
+     * The maximum size, in bytes, of a bundle entry, to reject the entries that can't be licenses without reading them
+     * in memory.
+     */
+    private static final int MAX_LICENSE_SIZE = 1024 * 1024;
+
+    private static final byte[] ZIP_SIGNATURE = {'P', 'K', 3, 4};
+
+    /**
+     * The first byte of a binary (DER encoded) signed license.
+     */
+    private static final byte DER_SEQUENCE = 0x30;
+
+    private static final String COMMENT = "#";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<LicenseManager> licenseManagerProvider;
+
+    @Inject
+    @Named("Base64")
+    private BinaryStringEncoder base64decoder;
+
+    @Inject
+    private Converter<License> converter;
+
+    @Inject
+    private LicenseVerificationExecutor verificationExecutor;
+
+    /**
+     * Import the licenses of the given bundle.
+     *
+     * @param bundle the bundle to import, closed by the caller
+     * @return the result of the import of each bundle entry, in bundle order
+     * @throws IOException if the bundle can't be read
+     */
+    public List<LicenseImportResult> importLicenses(InputStream bundle) throws IOException
+    {
+        List<String> entries = new ArrayList<>();
+        List<Future<License>> verifications = new ArrayList<>();
+        try {
+            readBundle(bundle, (entry, data) -> {
+                entries.add(entry);
+                verifications.add(this.verificationExecutor.submit(() -> readLicense(data)));
+            });
+        } catch (IOException e) {
+            verifications.forEach(verification -> verification.cancel(true));
+            throw e;
+        }
+
+        List<License> licenses = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (Future<License> verification : verifications) {
+            try {
+                licenses.add(verification.get());
+                errors.add(null);
+            } catch (ExecutionException e) {
+                licenses.add(null);
+                errors.add(ExceptionUtils.getRootCauseMessage(e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                verifications.forEach(pendingVerification -> pendingVerification.cancel(true));
+                throw new InterruptedIOException("Interrupted while verifying the licenses of the bundle.");
+            }
+        }
+
+        Set<License> addedLicenses = addLicenses(licenses);
+
+        List<LicenseImportResult> results = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            License license = licenses.get(i);
+            if (license == null) {
+                results.add(new LicenseImportResult(entries.get(i), null, LicenseImportStatus.INVALID, errors.get(i)));
+            } else if (addedLicenses.contains(license)) {
+                results.add(new LicenseImportResult(entries.get(i), license, LicenseImportStatus.ADDED, null));
+            } else {
+                results.add(new LicenseImportResult(entries.get(i), license, LicenseImportStatus.NOT_ADDED,
+                    license instanceof SignedLicense
+                        ? "The license is not applicable to this instance or it doesn't improve the current licenses."
+                        : "The license is not signed by a trusted authority."));
+            }
+        }
+        this.logger.debug("Imported [{}] licenses out of [{}] bundle entries.", addedLicenses.size(), results.size());
+        return results;
+    }
+
+    private Set<License> addLicenses(List<License> licenses)
+    {
+        List<License> validLicenses = new ArrayList<>(licenses);
+        validLicenses.removeIf(license -> license == null);
+        // The licenses are compared by identity because the same license can be found in several bundle entries.
+        Set<License> addedLicenses = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (!validLicenses.isEmpty()) {
+            Collection<License> added = this.licenseManagerProvider.get().add(validLicenses);
+            addedLicenses.addAll(added);
+        }
+        return addedLicenses;
+    }
+
+    private void readBundle(InputStream bundle, BiConsumer<String, byte[]> entryConsumer) throws IOException
+    {
+        BufferedInputStream input = new BufferedInputStream(bundle);
+        input.mark(ZIP_SIGNATURE.length);
+        byte[] signature = input.readNBytes(ZIP_SIGNATURE.length);
+        input.reset();
+
+        if (Arrays.equals(signature, ZIP_SIGNATURE)) {
+            ZipInputStream archive = new ZipInputStream(input);
+            for (ZipEntry entry = archive.getNextEntry(); entry != null; entry = archive.getNextEntry()) {
+                if (!entry.isDirectory()) {
+                    // Read one byte more than allowed, to detect the entries that are too large.
+                    entryConsumer.accept(entry.getName(), archive.readNBytes(MAX_LICENSE_SIZE + 1));
+                }
+            }
+        } else {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII));
+            int lineNumber = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                String license = line.trim();
+                if (!license.isEmpty() && !license.startsWith(COMMENT)) {
+                    entryConsumer.accept(String.format("line %d", lineNumber),
+                        license.getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        }
+    }
+
+    private License readLicense(byte[] data) throws IOException
+    {
+        if (data.length == 0 || data.length > MAX_LICENSE_SIZE) {
+            throw new IOException(String.format("The bundle entry size [%s] is not the size of a license.",
+                data.length > MAX_LICENSE_SIZE ? "> " + MAX_LICENSE_SIZE : data.length));
+        }
+        byte[] licenseData = data[0] == DER_SEQUENCE ? data
+            : this.base64decoder.decode(StringUtils.trim(new String(data, StandardCharsets.US_ASCII)));
+        License license = this.converter.convert(License.class, licenseData);
+        if (license == null) {
+            throw new IOException("The bundle entry is not a license.");
+        }
+        return license;
+    }
+}
@@ -67,6 +67,12 @@ public class LicenseManagerEventListener implements EventListener
     @Inject
     private LicensedExtensionManager licensedExtensionManager;
 
+    @Inject
+    private ExtensionDependencyGraph extensionDependencyGraph;
+
+    @Inject
+    private LicensedDependenciesMap licensedDependenciesMap;
+
     @Override
     public List<Event> getEvents()
     {
@@ -79,20 +85,25 @@ public class LicenseManagerEventListener implements EventListener
         return NAME;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
         ExtensionEvent extensionEvent = (ExtensionEvent) event;
         InstalledExtension installedExtension = (InstalledExtension) source;
+
+        // The licensing state is updated in memory right away, so that the extension is covered by its license as soon
+        // as it is installed. The side effects relying on the licensing store (license updates, renewals and trial
+        // licenses) are done in the background by the other listeners.
         DefaultLicenseManager licenseManager = (DefaultLicenseManager) licenseManagerProvider.get();
 
         // Any extension event could bring new dependencies.
-        licensedExtensionManager.invalidateLicensedDependenciesMap();
-        if (event instanceof ExtensionInstalledEvent) {
+        updateCaches(extensionEvent, installedExtension, data);
+        if (extensionEvent instanceof ExtensionInstalledEvent) {
             licenseManager.installExtensionLicense(extensionEvent.getNamespace(), installedExtension);
-        } else if (event instanceof ExtensionUninstalledEvent) {
+        } else if (extensionEvent instanceof ExtensionUninstalledEvent) {
             licenseManager.uninstallExtensionLicense(installedExtension);
-        } else if (event instanceof ExtensionUpgradedEvent) {
+        } else if (extensionEvent instanceof ExtensionUpgradedEvent) {
             Collection<InstalledExtension> previousExtensions = (Collection<InstalledExtension>) data;
             for (InstalledExtension previousExtension : previousExtensions) {
                 licenseManager.uninstallExtensionLicense(previousExtension);
@@ -100,4 +111,25 @@ public class LicenseManagerEventListener implements EventListener
             licenseManager.installExtensionLicense(extensionEvent.getNamespace(), installedExtension);
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private void updateCaches(ExtensionEvent event, InstalledExtension installedExtension, Object data)
+    {
+        List<InstalledExtension> changedExtensions = new ArrayList<>();
+        changedExtensions.add(installedExtension);
+        if (event instanceof ExtensionUpgradedEvent) {
+            // The previous versions may provide features that the new version doesn't provide anymore.
+            changedExtensions.addAll((Collection<InstalledExtension>) data);
+        }
+
+        for (InstalledExtension changedExtension : changedExtensions) {
+            this.extensionDependencyGraph.update(changedExtension, event.getNamespace());
+            if (this.licensedExtensionManager instanceof DefaultLicensedExtensionManager) {
+                ((DefaultLicensedExtensionManager) this.licensedExtensionManager)
+                    .updateLicensedExtensions(changedExtension);
+            }
+        }
+        this.licensedDependenciesMap.update(changedExtensions, event.getNamespace(),
+            this.licensedExtensionManager::getLicensedExtensions);
+    }
 }
@@ -19,10 +19,15 @@
  */
 package com.xwiki.licensing.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -31,6 +36,7 @@ import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.extension.ExtensionId;
@@ -67,6 +73,31 @@ public class LicenseRenewListener implements EventListener
     protected static final List<Event> EVENTS =
         Arrays.asList(new ExtensionInstalledEvent(), new ExtensionUpgradedEvent());
 
+    /**
+     * The license check of an installed or upgraded extension.
+     */
+    private static final class ExtensionCheck
+    {
+        private final Event event;
+
+        private final InstalledExtension installedExtension;
+
+        private final Object data;
+
+        ExtensionCheck(Event event, InstalledExtension installedExtension, Object data)
+        {
+            this.event = event;
+            this.installedExtension = installedExtension;
+            this.data = data;
+        }
+
+        @Override
+        public String toString()
+        {
+            return ((ExtensionEvent) this.event).getExtensionId().toString();
+        }
+    }
+
     @Inject
     private LicensedExtensionManager licensedExtensionManager;
 
@@ -79,9 +110,20 @@ public class LicenseRenewListener implements EventListener
     @Inject
     private LicenseUpdater licenseUpdater;
 
+    @Inject
+    private LicenseUpdateScheduler licenseUpdateScheduler;
+
+    @Inject
+    private LicensingWorkQueue workQueue;
+
     @Inject
     private Logger logger;
 
+    /**
+     * The license checks waiting for the completion of each scheduled license update.
+     */
+    private final Map<CompletableFuture<Void>, List<ExtensionCheck>> pendingChecks = new HashMap<>();
+
     @Override
     public List<Event> getEvents()
     {
@@ -97,29 +139,78 @@ public class LicenseRenewListener implements EventListener
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
-        // Retrieve license updates from store.
-        licenseUpdater.updateLicenses();
+        // Retrieve license updates from store. The updates requested by the extensions installed together are
+        // coalesced, so the license renew checks are done once the licenses are updated, and the needed license
+        // renewals are requested together.
+        CompletableFuture<Void> update = licenseUpdateScheduler.scheduleUpdate();
+        boolean firstCheck;
+        synchronized (this.pendingChecks) {
+            List<ExtensionCheck> checks = this.pendingChecks.get(update);
+            firstCheck = checks == null;
+            if (firstCheck) {
+                checks = new ArrayList<>();
+                this.pendingChecks.put(update, checks);
+            }
+            checks.add(new ExtensionCheck(event, (InstalledExtension) source, data));
+        }
+        if (firstCheck) {
+            // The checks rely on the licensing state updated by the other extension listeners, and renewing the
+            // licenses requires the licensing store, so they are done in the background.
+            update.whenComplete((result, error) -> workQueue.submitAfterAll(NAME,
+                "Check the licenses of the installed extensions", () -> checkLicenses(update, error)));
+        }
+    }
+
+    private void checkLicenses(CompletableFuture<Void> update, Throwable error)
+    {
+        List<ExtensionCheck> checks;
+        synchronized (this.pendingChecks) {
+            checks = this.pendingChecks.remove(update);
+        }
+        if (error != null) {
+            logger.debug("Failed to update the licenses before checking the licenses of [{}].", checks, error);
+        }
 
+        Set<ExtensionId> renewedExtensions = new LinkedHashSet<>();
+        for (ExtensionCheck check : checks) {
+            try {
+                if (checkLicense(check.event, check.installedExtension, check.data)) {
+                    renewedExtensions.add(check.installedExtension.getId());
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to check the license of [{}]. Root cause is [{}].", check,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        if (!renewedExtensions.isEmpty()) {
+            licenseUpdater.renewLicenses(renewedExtensions);
+        }
+    }
+
+    /**
+     * @return {@code true} if the license of the given extension needs to be renewed
+     */
+    private boolean checkLicense(Event event, InstalledExtension installedExtension, Object data)
+    {
         ExtensionEvent extensionEvent = (ExtensionEvent) event;
         // Only treat top level licensed extensions. If it's not a top level extension, then its license it's handled
         // by another extension's license.
         if (licensedExtensionManager.getLicensedExtensions().contains(extensionEvent.getExtensionId())
-            && isMandatoryLicensedExtension(extensionEvent.getExtensionId()))
+            && licensedExtensionManager.isMandatoryLicensedExtension(extensionEvent.getExtensionId()))
         {
-            InstalledExtension installedExtension = (InstalledExtension) source;
-
             License license = licensorProvider.get().getLicense(installedExtension.getId());
             boolean hasLicense = license != null && !License.UNLICENSED.equals(license);
 
             if (event instanceof ExtensionUpgradedEvent && hasLicense) {
-                extensionUpgraded(installedExtension, data, extensionEvent, license);
+                return extensionUpgraded(installedExtension, data, extensionEvent, license);
             } else if (event instanceof ExtensionInstalledEvent) {
-                extensionInstalled(installedExtension, extensionEvent, hasLicense);
+                return extensionInstalled(installedExtension, extensionEvent, hasLicense);
             }
         }
+        return false;
     }
 
-    private void extensionInstalled(InstalledExtension installedExtension, ExtensionEvent extensionEvent,
+    private boolean extensionInstalled(InstalledExtension installedExtension, ExtensionEvent extensionEvent,
         boolean hasLicense)
     {
         if (hasLicense) {
@@ -129,11 +220,12 @@ public class LicenseRenewListener implements EventListener
 
             // Since we don't have information on the old installed version, we trigger a license renew and let store
             // check if this license needs changes.
-            licenseUpdater.renewLicense(installedExtension.getId());
+            return true;
         }
+        return false;
     }
 
-    private void extensionUpgraded(InstalledExtension installedExtension, Object data, ExtensionEvent extensionEvent,
+    private boolean extensionUpgraded(InstalledExtension installedExtension, Object data, ExtensionEvent extensionEvent,
         License license)
     {
         InstalledExtension prevInstalledExtension =
@@ -147,7 +239,7 @@ public class LicenseRenewListener implements EventListener
         {
             logger.debug("The licensed extension [{}] has been downgraded. No license renew it's triggered.",
                 extensionEvent.getExtensionId());
-            return;
+            return false;
         }
 
         logger.debug("[{}] has been upgraded and it has a license associated to it. Checking if there are dependencies"
@@ -167,8 +259,9 @@ public class LicenseRenewListener implements EventListener
             licensedDependencies))
         {
             logger.debug("There are licensed dependencies changes between old and current extension version.");
-            licenseUpdater.renewLicense(installedExtension.getId());
+            return true;
         }
+        return false;
     }
 
     private boolean licensedFeatureIdsChanges(License license, InstalledExtension installedExtension,
@@ -199,10 +292,4 @@ public class LicenseRenewListener implements EventListener
         }
         return null;
     }
-
-    private boolean isMandatoryLicensedExtension(ExtensionId extensionId)
-    {
-        return licensedExtensionManager.getMandatoryLicensedExtensions().stream().map(ExtensionId::getId)
-            .collect(Collectors.toList()).contains(extensionId.getId());
-    }
 }
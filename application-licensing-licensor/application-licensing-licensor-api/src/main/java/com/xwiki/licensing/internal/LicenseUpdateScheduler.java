@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.job.JobContext;
+
+import com.xwiki.licensing.LicenseUpdater;
+
+/**
+ * Coalesce the license update requests, so that many triggers (e.g. the extension events of an install job) result in
+ * a single update call to the licensing store. An update requested with {@link #scheduleUpdate()} is executed in the
+ * background once no other update has been requested for a while, or when {@link #updateNow()} is called (e.g. when
+ * the install job is finished).
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component(roles = LicenseUpdateScheduler.class)
+@Singleton
+public class LicenseUpdateScheduler implements Disposable
+{
+    /**
+     * The delay, in seconds, without new requests after which the pending update is executed.
+     */
+    private static final long DEBOUNCE_DELAY = 5;
+
+    /**
+     * The delay, in seconds, used for the requests made from a running job. The pending update is normally executed
+     * when the job is finished, this is a safety net for the jobs that don't.
+     */
+    private static final long JOB_DEBOUNCE_DELAY = 60;
+
+    /**
+     * The maximum time, in seconds, a pending update can be postponed by new requests.
+     */
+    private static final long MAX_DEFERRAL = 300;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<LicenseUpdater> licenseUpdaterProvider;
+
+    @Inject
+    private JobContext jobContext;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    private CompletableFuture<Void> pendingUpdate;
+
+    private long pendingSince;
+
+    private ScheduledFuture<?> scheduledUpdate;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Request a license update. The update is delayed so that the requests made in a short interval of time, or
+     * during the same job, are served by a single update.
+     *
+     * @return a future completed when the licenses have been updated
+     */
+    public synchronized CompletableFuture<Void> scheduleUpdate()
+    {
+        long now = System.nanoTime();
+        if (this.pendingUpdate == null) {
+            this.pendingUpdate = new CompletableFuture<>();
+            this.pendingSince = now;
+        } else if (now - this.pendingSince >= TimeUnit.SECONDS.toNanos(MAX_DEFERRAL)) {
+            // Don't postpone the pending update anymore.
+            return this.pendingUpdate;
+        } else {
+            this.scheduledUpdate.cancel(false);
+        }
+
+        long delay = this.jobContext.getCurrentJob() != null ? JOB_DEBOUNCE_DELAY : DEBOUNCE_DELAY;
+        this.scheduledUpdate = getExecutor().schedule(this::runScheduledUpdate, delay, TimeUnit.SECONDS);
+        this.logger.debug("License update scheduled in [{}] seconds.", delay);
+        return this.pendingUpdate;
+    }
+
+    /**
+     * Update the licenses in the current thread, serving also the pending update requests.
+     *
+     * @return a future completed when the licenses have been updated (i.e. already completed)
+     */
+    public CompletableFuture<Void> updateNow()
+    {
+        CompletableFuture<Void> update = takePendingUpdate();
+        if (update == null) {
+            update = new CompletableFuture<>();
+        }
+        runUpdate(update);
+        return update;
+    }
+
+    private synchronized CompletableFuture<Void> takePendingUpdate()
+    {
+        CompletableFuture<Void> update = this.pendingUpdate;
+        if (this.scheduledUpdate != null) {
+            this.scheduledUpdate.cancel(false);
+            this.scheduledUpdate = null;
+        }
+        this.pendingUpdate = null;
+        return update;
+    }
+
+    private void runScheduledUpdate()
+    {
+        CompletableFuture<Void> update = takePendingUpdate();
+        if (update == null) {
+            // The update has been executed meanwhile.
+            return;
+        }
+
+        // The update is executed by the scheduler thread, which needs its own execution context.
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+        } catch (ExecutionContextException e) {
+            this.logger.warn("Failed to initialize the execution context of the license update. Root cause is [{}].",
+                ExceptionUtils.getRootCauseMessage(e));
+            update.completeExceptionally(e);
+            return;
+        }
+        try {
+            runUpdate(update);
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private void runUpdate(CompletableFuture<Void> update)
+    {
+        try {
+            this.licenseUpdaterProvider.get().updateLicenses();
+            update.complete(null);
+        } catch (Exception e) {
+            update.completeExceptionally(e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService getExecutor()
+    {
+        if (this.executor == null) {
+            this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "XWiki License Update Scheduler Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.executor;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+
+/**
+ * Pool of threads verifying the licenses (i.e. decoding them and checking their signature) while they are received,
+ * shared by the license updates and the license bundle imports. The pool is bounded: once its queue is full, the
+ * licenses are verified by the thread submitting them, which stops reading the licenses until the verification is
+ * done.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component(roles = LicenseVerificationExecutor.class)
+@Singleton
+public class LicenseVerificationExecutor implements Disposable
+{
+    private static final int MAX_VERIFICATION_THREADS = 4;
+
+    private static final int VERIFICATION_QUEUE_SIZE = 32;
+
+    private ExecutorService executor;
+
+    /**
+     * Submit the verification of a license.
+     *
+     * @param <T> the type of the verification result
+     * @param verification the license verification
+     * @return the pending result of the verification
+     */
+    public <T> Future<T> submit(Callable<T> verification)
+    {
+        return getExecutor().submit(verification);
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (this.executor == null) {
+            int poolSize = Math.max(1, Math.min(MAX_VERIFICATION_THREADS, Runtime.getRuntime().availableProcessors()));
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(VERIFICATION_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "XWiki License Verification Thread");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            this.executor = threadPoolExecutor;
+        }
+        return this.executor;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+}
@@ -19,22 +19,26 @@
  */
 package com.xwiki.licensing.internal;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.extension.ExtensionDependency;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.extension.InstalledExtension;
-import org.xwiki.extension.repository.InstalledExtensionRepository;
 
 /**
  * Get a dependency map for licensed applications. The scope is to know for licensed extensions that where installed as
@@ -51,9 +55,14 @@ public class LicensedDependenciesMap
 {
     /**
      * The cached map that includes licensed extensions that were installed as dependencies, and on which licensed
-     * extension they depend on.
+     * extension they depend on. Replaced atomically, so readers never see a partially computed map.
      */
-    private Map<String, Set<LicensedExtensionParent>> cachedLicensedDependenciesMap;
+    private volatile Snapshot cachedLicensedDependenciesMap;
+
+    /**
+     * The version of the last published map.
+     */
+    private long version;
 
     /**
      * Utility class for holding information about the top level licensed extension. Such an extension will have
@@ -104,13 +113,62 @@ public class LicensedDependenciesMap
         {
             return namespace;
         }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof LicensedExtensionParent)) {
+                return false;
+            }
+            LicensedExtensionParent otherParent = (LicensedExtensionParent) object;
+            return Objects.equals(this.extensionId, otherParent.extensionId)
+                && Objects.equals(this.namespace, otherParent.namespace);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.extensionId, this.namespace);
+        }
+    }
+
+    /**
+     * Immutable version of the licensed dependencies map, along with the closest licensed dependencies of each
+     * licensed extension, from which the map is built and patched.
+     */
+    private static final class Snapshot
+    {
+        private final long version;
+
+        private final Collection<ExtensionId> licensedExtensions;
+
+        private final Map<LicensedExtensionParent, Set<String>> licensedDependencies;
+
+        private final Map<String, Set<LicensedExtensionParent>> map;
+
+        Snapshot(long version, Collection<ExtensionId> licensedExtensions,
+            Map<LicensedExtensionParent, Set<String>> licensedDependencies)
+        {
+            this.version = version;
+            this.licensedExtensions = licensedExtensions;
+            this.licensedDependencies = Collections.unmodifiableMap(licensedDependencies);
+
+            Map<String, Set<LicensedExtensionParent>> parentsByDependency = new LinkedHashMap<>();
+            licensedDependencies.forEach((parent, dependencies) -> dependencies.forEach(dependency ->
+                parentsByDependency.computeIfAbsent(dependency, key -> new LinkedHashSet<>()).add(parent)));
+            parentsByDependency.replaceAll((dependency, parents) -> Collections.unmodifiableSet(parents));
+            this.map = Collections.unmodifiableMap(parentsByDependency);
+        }
     }
 
     @Inject
     private Logger logger;
 
     @Inject
-    private InstalledExtensionRepository installedExtensionRepository;
+    private ExtensionDependencyGraph extensionDependencyGraph;
 
     /**
      * @param licensedExtensions the list of all licensed extensions
@@ -118,115 +176,120 @@ public class LicensedDependenciesMap
      */
     public Map<String, Set<LicensedExtensionParent>> get(Collection<ExtensionId> licensedExtensions)
     {
-        if (this.cachedLicensedDependenciesMap == null) {
+        Snapshot snapshot = this.cachedLicensedDependenciesMap;
+        if (snapshot == null || !snapshot.licensedExtensions.equals(licensedExtensions)) {
             logger.debug("Licensed dependencies map is not cached, computing it.");
-            this.cachedLicensedDependenciesMap = computeLicensedDependenciesMap(licensedExtensions);
+            snapshot = computeLicensedDependenciesMap(licensedExtensions);
         } else {
             logger.debug("Licensed dependencies map is cached, returning it.");
         }
-        return this.cachedLicensedDependenciesMap;
+        return snapshot.map;
     }
 
     /**
-     * Invalidate the cached map of licensed dependencies.
+     * @return the version of the cached map, incremented each time a new map is computed or patched
+     * @since 1.32.1
      */
-    public void invalidateCache()
+    public long getVersion()
     {
-        logger.debug("Clear licensed dependency map cache.");
-        this.cachedLicensedDependenciesMap = null;
+        Snapshot snapshot = this.cachedLicensedDependenciesMap;
+        return snapshot != null ? snapshot.version : -1;
     }
 
-    private synchronized Map<String, Set<LicensedExtensionParent>> computeLicensedDependenciesMap(
-        Collection<ExtensionId> allLicensedExtensions)
+    /**
+     * Invalidate the cached map of licensed dependencies.
+     */
+    public synchronized void invalidateCache()
     {
-        Map<String, Set<LicensedExtensionParent>> licensedDependenciesMap = new HashMap<>();
-        // Extensions for which we already checked dependencies.
-        Set<ExtensionId> verifiedExtensions = new HashSet<ExtensionId>();
-
-        for (ExtensionId extensionId : allLicensedExtensions) {
-            InstalledExtension installedExtension =
-                this.installedExtensionRepository.getInstalledExtension(extensionId);
-            if (installedExtension == null) {
-                continue;
-            }
-
-            verifiedExtensions.add(extensionId);
-            Collection<String> namespaces = installedExtension.getNamespaces();
-            if (namespaces == null) {
-                logger.debug("Computing licensed dependencies map for [{}] on root namespace.", extensionId);
-                installedExtension = this.installedExtensionRepository.getInstalledExtension(extensionId.getId(), null);
-                getLicensedDependenciesMapRecursive(
-                    new LicensedExtensionParent(installedExtension.getName(), installedExtension.getId().getId(), null),
-                    installedExtension.getDependencies(), allLicensedExtensions, verifiedExtensions,
-                    licensedDependenciesMap);
-            } else {
-                for (String namespace : namespaces) {
-                    logger.debug("Computing licensed dependencies map for [{}] on namespace [{}]", extensionId,
-                        namespace);
-                    installedExtension =
-                        this.installedExtensionRepository.getInstalledExtension(extensionId.getId(), namespace);
-                    getLicensedDependenciesMapRecursive(
-                        new LicensedExtensionParent(installedExtension.getName(), installedExtension.getId().getId(),
-                            namespace), installedExtension.getDependencies(), allLicensedExtensions, verifiedExtensions,
-                        licensedDependenciesMap);
-                }
-            }
-        }
-
-        logger.debug("Computed map of licensed dependencies: [{}]", licensedDependenciesMap);
-        return licensedDependenciesMap;
+        logger.debug("Clear licensed dependency map cache.");
+        this.cachedLicensedDependenciesMap = null;
     }
 
     /**
-     * Traverse recursively the dependency tree in order to collect the backward dependency map.
+     * Update the cached map after some extensions have been installed, uninstalled or upgraded. Only the licensed
+     * extensions that depend on the changed extensions are traversed again, the other entries are kept. The
+     * extension dependency graph must be updated before.
      *
-     * @param licensedExtensionParent the licensed application that has the current extension as dependency
-     * @param dependencies dependency list to be checked
-     * @param installedLicensedExtensions list of all licensed extensions
-     * @param verifiedExtensions extensions whose dependencies were already checked
-     * @param licensedDependenciesChain a {@code Map} with found licensed dependencies and their parent
+     * @param changedExtensions the extensions that changed
+     * @param namespace the namespace where the extensions changed, {@code null} for the root namespace
+     * @param licensedExtensionsSupplier provides the list of all licensed extensions, after the change; called only
+     *            when there is a cached map to update
+     * @since 1.32.1
      */
-    private void getLicensedDependenciesMapRecursive(LicensedExtensionParent licensedExtensionParent,
-        Collection<ExtensionDependency> dependencies, Collection<ExtensionId> installedLicensedExtensions,
-        Set<ExtensionId> verifiedExtensions, Map<String, Set<LicensedExtensionParent>> licensedDependenciesChain)
+    public synchronized void update(Collection<InstalledExtension> changedExtensions, String namespace,
+        Supplier<Collection<ExtensionId>> licensedExtensionsSupplier)
     {
-        String namespace = licensedExtensionParent.getExtensionNamespace();
-        for (ExtensionDependency dep : dependencies) {
-            InstalledExtension installedDep =
-                installedExtensionRepository.getInstalledExtension(dep.getId(), namespace);
-            if (installedDep == null || dep.isOptional()) {
-                continue;
-            }
-
-            LicensedExtensionParent extensionParent = licensedExtensionParent;
-            if (installedLicensedExtensions.contains(installedDep.getId())) {
-                addBackwardDependency(licensedExtensionParent, licensedDependenciesChain, installedDep.getId().getId());
-                // If A->C and B->C, then save A,B. If A->B->C, keep only B.
-                // Only if it's mandatory? If A->B->C , and B is not mandatory, keep A or B? I would say only B, to
-                // be checked. Each extension to their own licensed parent.
-                extensionParent =
-                    new LicensedExtensionParent(installedDep.getName(), installedDep.getId().getId(), namespace);
-            }
+        Snapshot snapshot = this.cachedLicensedDependenciesMap;
+        if (snapshot == null) {
+            // Nothing to update, the map is computed on the next call.
+            return;
+        }
+        Collection<ExtensionId> licensedExtensions = licensedExtensionsSupplier.get();
 
-            // We already checked its dependencies, so stop here.
-            if (verifiedExtensions.contains(installedDep.getId())) {
-                continue;
+        Set<ExtensionId> changedExtensionIds = new HashSet<>();
+        Set<String> changedIds = new HashSet<>();
+        for (InstalledExtension changedExtension : changedExtensions) {
+            changedExtensionIds.add(changedExtension.getId());
+            changedIds.add(changedExtension.getId().getId());
+            Collection<ExtensionId> features = changedExtension.getExtensionFeatures();
+            if (features != null) {
+                features.forEach(feature -> changedIds.add(feature.getId()));
             }
+        }
+        Set<ExtensionId> licensedChanges = new HashSet<>(snapshot.licensedExtensions);
+        licensedChanges.addAll(licensedExtensions);
+        licensedChanges.removeIf(id -> snapshot.licensedExtensions.contains(id) && licensedExtensions.contains(id));
+        if (!changedExtensionIds.containsAll(licensedChanges)) {
+            // The licensed extensions changed for another reason, the map is computed again on the next call.
+            invalidateCache();
+            return;
+        }
 
-            verifiedExtensions.add(installedDep.getId());
-            getLicensedDependenciesMapRecursive(extensionParent, installedDep.getDependencies(),
-                installedLicensedExtensions, verifiedExtensions, licensedDependenciesChain);
+        // The licensed extensions whose closest licensed dependencies may have changed are those depending on the
+        // changed extensions, in the namespaces where the changed extensions are visible.
+        Collection<String> namespaces = namespace == null ? this.extensionDependencyGraph.getNamespaces()
+            : Collections.singletonList(namespace);
+        Map<String, Set<String>> dependentsByNamespace = new HashMap<>();
+        for (String dependentNamespace : namespaces) {
+            dependentsByNamespace.put(dependentNamespace,
+                this.extensionDependencyGraph.getDependents(changedIds, dependentNamespace));
         }
+
+        Map<LicensedExtensionParent, Set<String>> licensedDependencies =
+            new LinkedHashMap<>(snapshot.licensedDependencies);
+        licensedDependencies.keySet().removeIf(parent -> isDependent(parent.getExtensionId(),
+            parent.getExtensionNamespace(), dependentsByNamespace));
+        Map<String, List<ExtensionId>> affectedExtensions = new HashMap<>();
+        this.extensionDependencyGraph.groupByNamespace(licensedExtensions).forEach((extensionNamespace, extensionIds) ->
+            extensionIds.stream().filter(id -> isDependent(id.getId(), extensionNamespace, dependentsByNamespace))
+                .forEach(id -> affectedExtensions.computeIfAbsent(extensionNamespace, key -> new ArrayList<>())
+                    .add(id)));
+        licensedDependencies.putAll(
+            this.extensionDependencyGraph.getClosestLicensedDependencies(affectedExtensions, licensedExtensions));
+
+        this.cachedLicensedDependenciesMap = new Snapshot(++this.version, licensedExtensions, licensedDependencies);
+        logger.debug("Updated the licensed dependencies map for [{}], traversing again [{}].", changedExtensionIds,
+            affectedExtensions);
     }
 
-    private void addBackwardDependency(LicensedExtensionParent licensedExtensionParent,
-        Map<String, Set<LicensedExtensionParent>> licensedDependenciesMap, String installedDepId)
+    private boolean isDependent(String extensionId, String namespace, Map<String, Set<String>> dependentsByNamespace)
     {
-        if (licensedDependenciesMap.containsKey(installedDepId)) {
-            licensedDependenciesMap.get(installedDepId).add(licensedExtensionParent);
-        } else {
-            // An extension could be a dependency of multiple extensions.
-            licensedDependenciesMap.put(installedDepId, new HashSet<>(Arrays.asList(licensedExtensionParent)));
+        Set<String> dependents = dependentsByNamespace.get(namespace);
+        return dependents != null && dependents.contains(extensionId);
+    }
+
+    private synchronized Snapshot computeLicensedDependenciesMap(Collection<ExtensionId> allLicensedExtensions)
+    {
+        Snapshot snapshot = this.cachedLicensedDependenciesMap;
+        if (snapshot != null && snapshot.licensedExtensions.equals(allLicensedExtensions)) {
+            return snapshot;
         }
+
+        snapshot = new Snapshot(++this.version, allLicensedExtensions, this.extensionDependencyGraph
+            .getClosestLicensedDependencies(this.extensionDependencyGraph.groupByNamespace(allLicensedExtensions),
+                allLicensedExtensions));
+        this.cachedLicensedDependenciesMap = snapshot;
+        logger.debug("Computed map of licensed dependencies: [{}]", snapshot.map);
+        return snapshot;
     }
 }
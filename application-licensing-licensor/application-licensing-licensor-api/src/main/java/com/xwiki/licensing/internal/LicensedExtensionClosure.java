@@ -0,0 +1,164 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.extension.ExtensionId;
+
+/**
+ * Immutable index of the installed licensed extensions and of the licensed extensions they depend on, transitively.
+ * Each licensed extension is assigned a dense integer identifier so that its licensed dependencies are stored as a bit
+ * set, and the coverage questions are answered with bit tests instead of dependency graph walks. The index is built by
+ * {@link ExtensionDependencyGraph} and it is rebuilt only when the graph or the licensed extensions change.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+public final class LicensedExtensionClosure
+{
+    private final long graphVersion;
+
+    private final Collection<ExtensionId> licensedExtensions;
+
+    /**
+     * The licensed extensions, indexed by their dense identifier.
+     */
+    private final List<ExtensionId> extensions;
+
+    private final Map<ExtensionId, Integer> indexes;
+
+    /**
+     * The licensed dependencies (covered by the license) of each licensed extension, for each namespace where the
+     * licensed extension is installed. The entry of an extension that couldn't be resolved is {@code null}.
+     */
+    private final Map<String, BitSet[]> licensedDependencies;
+
+    private final BitSet mandatory;
+
+    private final Set<ExtensionId> mandatoryLicensedExtensions;
+
+    LicensedExtensionClosure(long graphVersion, Collection<ExtensionId> licensedExtensions,
+        Map<String, Map<ExtensionId, Set<ExtensionId>>> licensedDependencies,
+        Set<ExtensionId> mandatoryLicensedExtensions)
+    {
+        this.graphVersion = graphVersion;
+        this.licensedExtensions = licensedExtensions;
+        this.extensions = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(licensedExtensions)));
+        this.indexes = new HashMap<>();
+        for (int i = 0; i < this.extensions.size(); i++) {
+            this.indexes.put(this.extensions.get(i), i);
+        }
+
+        this.licensedDependencies = new HashMap<>();
+        licensedDependencies.forEach((namespace, dependenciesByExtension) -> {
+            BitSet[] namespaceDependencies = new BitSet[this.extensions.size()];
+            dependenciesByExtension.forEach((extensionId, dependencies) -> {
+                Integer index = this.indexes.get(extensionId);
+                if (index != null) {
+                    namespaceDependencies[index] = toBitSet(dependencies);
+                }
+            });
+            this.licensedDependencies.put(namespace, namespaceDependencies);
+        });
+
+        this.mandatory = toBitSet(mandatoryLicensedExtensions);
+        this.mandatoryLicensedExtensions = Collections.unmodifiableSet(toSet(this.mandatory));
+    }
+
+    private BitSet toBitSet(Collection<ExtensionId> extensionIds)
+    {
+        BitSet bits = new BitSet(this.extensions.size());
+        for (ExtensionId extensionId : extensionIds) {
+            Integer index = this.indexes.get(extensionId);
+            if (index != null) {
+                bits.set(index);
+            }
+        }
+        return bits;
+    }
+
+    private Set<ExtensionId> toSet(BitSet bits)
+    {
+        Set<ExtensionId> extensionIds = new HashSet<>(bits.cardinality());
+        bits.stream().forEach(index -> extensionIds.add(this.extensions.get(index)));
+        return extensionIds;
+    }
+
+    /**
+     * @return the version of the extension dependency graph from which this index was built
+     */
+    long getGraphVersion()
+    {
+        return this.graphVersion;
+    }
+
+    /**
+     * @return the licensed extensions from which this index was built
+     */
+    Collection<ExtensionId> getLicensedExtensions()
+    {
+        return this.licensedExtensions;
+    }
+
+    /**
+     * @param extensionId an installed extension
+     * @return {@code true} if the given extension requires a license and it's not covered by the license of another
+     *     installed licensed extension
+     */
+    public boolean isMandatory(ExtensionId extensionId)
+    {
+        Integer index = this.indexes.get(extensionId);
+        return index != null && this.mandatory.get(index);
+    }
+
+    /**
+     * @return the licensed extensions that are not covered by the license of another installed licensed extension
+     */
+    public Set<ExtensionId> getMandatoryLicensedExtensions()
+    {
+        return this.mandatoryLicensedExtensions;
+    }
+
+    /**
+     * @param extensionId an installed licensed extension
+     * @param namespace the namespace where the extension is installed, {@code null} for the root namespace
+     * @return the licensed dependencies of the given extension, on the given namespace, or {@code null} if the given
+     *     extension is not a licensed extension installed on the given namespace
+     */
+    public Set<ExtensionId> getLicensedDependencies(ExtensionId extensionId, String namespace)
+    {
+        Integer index = this.indexes.get(extensionId);
+        BitSet[] namespaceDependencies = this.licensedDependencies.get(namespace);
+        if (index == null || namespaceDependencies == null || namespaceDependencies[index] == null) {
+            return null;
+        }
+        return toSet(namespaceDependencies[index]);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.properties.converter.Converter;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseManager;
+import com.xwiki.licensing.internal.event.LicenseAddedEvent;
+import com.xwiki.licensing.internal.event.UserCountChangedEvent;
+import com.xwiki.licensing.internal.event.UserCountInvalidatedEvent;
+
+/**
+ * Applies the licensing state changes made by the other members of the cluster: user count changes and licenses
+ * added. Only the events coming from the remote members are handled, the local ones being already applied.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component
+@Singleton
+@Named(LicensingClusterListener.HINT)
+public class LicensingClusterListener extends AbstractEventListener
+{
+    /**
+     * The listener hint.
+     */
+    public static final String HINT = "com.xwiki.licensing.internal.LicensingClusterListener";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private UserCounter userCounter;
+
+    @Inject
+    private Provider<LicenseManager> licenseManagerProvider;
+
+    @Inject
+    private Converter<License> converter;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    /**
+     * Default constructor.
+     */
+    public LicensingClusterListener()
+    {
+        super(HINT, Arrays.asList(new UserCountChangedEvent(), new UserCountInvalidatedEvent(),
+            new LicenseAddedEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (!this.remoteObservationManagerContext.isRemoteState()) {
+            return;
+        }
+
+        if (event instanceof UserCountChangedEvent) {
+            UserCountChangedEvent userCountChangedEvent = (UserCountChangedEvent) event;
+            this.userCounter.updateUserCount(userCountChangedEvent.getWikiId(), userCountChangedEvent.getDelta());
+        } else if (event instanceof UserCountInvalidatedEvent) {
+            this.userCounter.invalidateLocally();
+        } else if (event instanceof LicenseAddedEvent) {
+            addLicense(((LicenseAddedEvent) event).getLicense());
+        }
+    }
+
+    private void addLicense(byte[] encodedLicense)
+    {
+        License license = this.converter.convert(License.class, encodedLicense);
+        if (license == null) {
+            this.logger.warn("Failed to decode the license added by another member of the cluster.");
+        } else if (!this.licenseManagerProvider.get().add(license)) {
+            this.logger.debug("The license [{}] added by another member of the cluster is not used.", license.getId());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+/**
+ * Run the licensing side effects of the extension events that rely on the licensing store (license updates and
+ * renewals, trial license generation) in the background, so that the extension jobs don't wait for them. The work
+ * submitted with the same key is executed in submission order, the work with different keys is executed concurrently
+ * by a bounded pool of threads.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+@Component(roles = LicensingWorkQueue.class)
+@Singleton
+public class LicensingWorkQueue implements Disposable
+{
+    private static final int MAX_THREADS = 2;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * The last work submitted for each key, until it is executed.
+     */
+    private final Map<String, CompletableFuture<Void>> lastWork = new HashMap<>();
+
+    /**
+     * The description of the work that is waiting or running, in submission order.
+     */
+    private final Set<String> pendingWork = new LinkedHashSet<>();
+
+    private long submittedWork;
+
+    private ExecutorService executor;
+
+    /**
+     * Submit some work to be executed after the work previously submitted with the same key.
+     *
+     * @param key the key used to order the work, e.g. the kind of work
+     * @param description the description of the work, used for logging and for listing the pending work
+     * @param work the work to execute
+     * @return a future completed when the work has been executed
+     */
+    public synchronized CompletableFuture<Void> submit(String key, String description, Runnable work)
+    {
+        return chain(key, description, this.lastWork.getOrDefault(key, CompletableFuture.completedFuture(null)),
+            work);
+    }
+
+    /**
+     * Submit some work to be executed after all the work previously submitted, whatever its key. This is used for
+     * work relying on the state updated by the previously submitted work (e.g. the licenses renewed before).
+     *
+     * @param key the key used to order the work
+     * @param description the description of the work, used for logging and for listing the pending work
+     * @param work the work to execute
+     * @return a future completed when the work has been executed
+     */
+    public synchronized CompletableFuture<Void> submitAfterAll(String key, String description, Runnable work)
+    {
+        return chain(key, description,
+            CompletableFuture.allOf(this.lastWork.values().toArray(new CompletableFuture<?>[0])), work);
+    }
+
+    /**
+     * @return a future completed when all the work submitted so far has been executed
+     */
+    public synchronized CompletableFuture<Void> whenIdle()
+    {
+        return CompletableFuture.allOf(this.lastWork.values().toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * @return the description of the work that is waiting or running, in submission order
+     */
+    public synchronized List<String> getPendingWork()
+    {
+        return new ArrayList<>(this.pendingWork);
+    }
+
+    private CompletableFuture<Void> chain(String key, String description, CompletableFuture<?> previous,
+        Runnable work)
+    {
+        // Make the description unique, the same work can be submitted several times.
+        String pendingDescription = String.format("%s (#%s)", description, ++this.submittedWork);
+        this.pendingWork.add(pendingDescription);
+        this.logger.debug("Licensing work [{}] submitted.", pendingDescription);
+
+        // The work is executed even if the previous work failed.
+        CompletableFuture<Void> next = previous.handle((result, error) -> null)
+            .thenRunAsync(() -> run(pendingDescription, work), getExecutor());
+        this.lastWork.put(key, next);
+        next.whenComplete((result, error) -> workDone(key, next));
+        return next;
+    }
+
+    private synchronized void workDone(String key, CompletableFuture<Void> work)
+    {
+        this.lastWork.remove(key, work);
+    }
+
+    private void run(String description, Runnable work)
+    {
+        // The work is executed by a pool thread, which needs its own execution context.
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+        } catch (ExecutionContextException e) {
+            removePendingWork(description);
+            throw new IllegalStateException(String.format(
+                "Failed to initialize the execution context of the licensing work [%s].", description), e);
+        }
+        try {
+            work.run();
+        } catch (RuntimeException e) {
+            this.logger.warn("Failed to execute the licensing work [{}]. Root cause is [{}].", description,
+                ExceptionUtils.getRootCauseMessage(e));
+            throw e;
+        } finally {
+            this.execution.removeContext();
+            removePendingWork(description);
+        }
+    }
+
+    private synchronized void removePendingWork(String description)
+    {
+        this.pendingWork.remove(description);
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(MAX_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "XWiki Licensing Work Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.executor;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+}
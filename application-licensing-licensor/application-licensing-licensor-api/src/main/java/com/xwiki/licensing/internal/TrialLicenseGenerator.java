@@ -20,6 +20,7 @@
 package com.xwiki.licensing.internal;
 
 import java.net.URL;
+import java.util.Collection;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -33,12 +34,13 @@ import org.xwiki.component.annotation.Component;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.instance.InstanceIdManager;
 
-import com.xpn.xwiki.XWikiContext;
 import com.xwiki.licensing.License;
 import com.xwiki.licensing.LicenseUpdater;
 import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensingConfiguration;
 import com.xwiki.licensing.Licensor;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils;
+import com.xwiki.licensing.internal.helpers.StoreUnavailableException;
 
 /**
  * Helper methods for generating a trial license and updating it.
@@ -54,6 +56,10 @@ public class TrialLicenseGenerator
 
     private static final String INSTANCE_ID = "instanceId";
 
+    private static final String EXTENSION_VERSION = "extensionVersion";
+
+    private static final String ERROR = "error";
+
     @Inject
     private Logger logger;
 
@@ -73,7 +79,7 @@ public class TrialLicenseGenerator
     private Provider<Licensor> licensorProvider;
 
     @Inject
-    private Provider<XWikiContext> contextProvider;
+    private HttpClientUtils httpUtils;
 
     @Inject
     private LicenseUpdater licenseUpdater;
@@ -84,28 +90,61 @@ public class TrialLicenseGenerator
      * @param extensionId the extension for which to generate a trial license
      */
     public void generateTrialLicense(ExtensionId extensionId)
+    {
+        if (requestTrialLicense(extensionId)) {
+            licenseUpdater.updateLicenses();
+        }
+    }
+
+    /**
+     * Generate trial licenses for the given extensions, and update the licenses once all the trial licenses have been
+     * generated. The store generates the trial license of a single extension per request.
+     *
+     * @param extensionIds the extensions for which to generate a trial license
+     * @since 1.32.1
+     */
+    public void generateTrialLicenses(Collection<ExtensionId> extensionIds)
+    {
+        boolean generated = false;
+        for (ExtensionId extensionId : extensionIds) {
+            generated |= requestTrialLicense(extensionId);
+        }
+        if (generated) {
+            licenseUpdater.updateLicenses();
+        }
+    }
+
+    /**
+     * Ask the store to generate a trial license for the given extension.
+     *
+     * @param extensionId the extension for which to generate a trial license
+     * @return {@code true} if the trial license was generated, {@code false} otherwise
+     */
+    private boolean requestTrialLicense(ExtensionId extensionId)
     {
         try {
             URL trialURL = getTrialURL(extensionId);
             if (trialURL == null) {
                 logger.warn("Failed to add trial license for [{}] because the licensor configuration is not complete. "
                     + "Check your store trial URL and owner details.", extensionId.getId());
-                return;
+                return false;
             }
 
-            XWikiContext xcontext = contextProvider.get();
-            String getTrialResponse = xcontext.getWiki().getURLContent(trialURL.toString(), xcontext);
+            String getTrialResponse = httpUtils.httpGet(trialURL.toString());
 
-            if (getTrialResponse.contains("error")) {
+            if (getTrialResponse.contains(ERROR)) {
                 logger.warn("Failed to generate trial license for [{}] on store.", extensionId.getId());
             } else {
                 logger.debug("Trial license added for [{}]", extensionId.getId());
-                licenseUpdater.updateLicenses();
+                return true;
             }
+        } catch (StoreUnavailableException e) {
+            logger.debug("Trial license not generated for [{}]. Root cause is [{}]", extensionId, e.getMessage());
         } catch (Exception e) {
             logger.warn("Failed to get trial license for [{}]. Root cause is [{}]", extensionId,
                 ExceptionUtils.getRootCauseMessage(e));
         }
+        return false;
     }
 
     /**
@@ -130,8 +169,21 @@ public class TrialLicenseGenerator
      */
     private URL getTrialURL(ExtensionId extensionId) throws Exception
     {
-        String storeTrialURL = licensingConfig.getStoreTrialURL();
+        URIBuilder builder = getTrialURIBuilder();
         // In case the property has no filled value, the URL cannot be constructed.
+        if (builder == null) {
+            return null;
+        }
+
+        builder.addParameter(FEATURE_ID, extensionId.getId());
+        builder.addParameter(EXTENSION_VERSION, extensionId.getVersion().getValue());
+
+        return addTrialParameters(builder).build().toURL();
+    }
+
+    private URIBuilder getTrialURIBuilder() throws Exception
+    {
+        String storeTrialURL = licensingConfig.getStoreTrialURL();
         if (storeTrialURL == null) {
             return null;
         }
@@ -142,12 +194,15 @@ public class TrialLicenseGenerator
         builder.addParameter("lastName", licensingConfig.getLicensingOwnerLastName());
         builder.addParameter("email", licensingConfig.getLicensingOwnerEmail());
         builder.addParameter(INSTANCE_ID, instanceIdManagerProvider.get().getInstanceId().toString());
-        builder.addParameter(FEATURE_ID, extensionId.getId());
-        builder.addParameter("extensionVersion", extensionId.getVersion().getValue());
+
+        return builder;
+    }
+
+    private URIBuilder addTrialParameters(URIBuilder builder)
+    {
         builder.addParameter("licenseType", "TRIAL");
         builder.addParameter("userCount", String.valueOf(userCounter.getUserCount()));
-
-        return builder.build().toURL();
+        return builder;
     }
 
     /**
@@ -159,7 +214,7 @@ public class TrialLicenseGenerator
      */
     private Boolean isMandatoryLicensedExtension(ExtensionId extensionId)
     {
-        return licensedExtensionManager.getMandatoryLicensedExtensions().contains(extensionId);
+        return licensedExtensionManager.isMandatoryLicensedExtension(extensionId);
     }
 
     /**
@@ -20,20 +20,42 @@
 package com.xwiki.licensing.internal;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
 import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryFilter;
@@ -43,6 +65,8 @@ import org.xwiki.wiki.manager.WikiManagerException;
 
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.licensing.internal.event.UserCountChangedEvent;
+import com.xwiki.licensing.internal.event.UserCountInvalidatedEvent;
 
 /**
  * Component used to count the existing active users.
@@ -52,7 +76,7 @@ import com.xpn.xwiki.objects.BaseObject;
  */
 @Component(roles = UserCounter.class)
 @Singleton
-public class UserCounter
+public class UserCounter implements Disposable
 {
     @Inject
     private Logger logger;
@@ -71,11 +95,47 @@ public class UserCounter
     @Named("unique")
     private QueryFilter uniqueFilter;
 
-    private Long cachedUserCount;
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    /**
+     * Used to notify the user count changes to the other members of the cluster. Lazily loaded to avoid a cycle
+     * between the observation manager and the user listener.
+     */
+    @Inject
+    private Provider<ObservationManager> observationManagerProvider;
+
+    /**
+     * The maximum amount of time, in milliseconds, the user counts are maintained from the document events before
+     * being recomputed from the database, in order to fix any drift.
+     */
+    protected static final long RECONCILIATION_PERIOD = TimeUnit.HOURS.toMillis(1);
 
     /**
-     * Event listener that invalidates the cached user count when an user is added, deleted or the active property's
-     * value is changed.
+     * The maximum number of wikis whose users are counted in parallel.
+     */
+    private static final int MAX_COUNTING_THREADS = 8;
+
+    /**
+     * The number of active users on each wiki, or {@code null} if the users have not been counted yet.
+     */
+    private volatile Map<String, AtomicLong> userCountByWiki;
+
+    private volatile long lastFullCount;
+
+    private final AtomicReference<CompletableFuture<Map<String, AtomicLong>>> runningCount = new AtomicReference<>();
+
+    private ExecutorService countingExecutor;
+
+    /**
+     * Event listener that updates the user counts when an user is added, deleted or the active property's value is
+     * changed.
      * 
      * @version $Id$
      * @since 1.6
@@ -97,21 +157,49 @@ public class UserCounter
         @Inject
         private UserCounter userCounter;
 
+        private final Map<String, DocumentReference> userClassReferences = new ConcurrentHashMap<>();
+
+        private final AtomicLong droppedEventCount = new AtomicLong();
+
+        private final AtomicLong handledEventCount = new AtomicLong();
+
         /**
          * Default constructor.
          */
         public UserListener()
         {
-            super(HINT,
-                Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent()));
+            super(HINT, Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+                new DocumentDeletedEvent(), new WikiDeletedEvent()));
         }
 
         @Override
         public void onEvent(Event event, Object source, Object data)
         {
+            if (event instanceof WikiDeletedEvent) {
+                this.userCounter.removeWiki(((WikiDeletedEvent) event).getWikiId());
+                return;
+            }
+
+            if (this.userCounter.isRemoteState()) {
+                // The other cluster members send their user count changes directly (see UserCountChangedEvent),
+                // which is cheaper than loading the user documents.
+                return;
+            }
+
             XWikiDocument newDocument = (XWikiDocument) source;
             XWikiDocument oldDocument = newDocument.getOriginalDocument();
 
+            // Most of the saved documents are not users so reject them first, with a lookup in the map of objects
+            // (indexed by class reference) of the documents.
+            String wikiId = newDocument.getDocumentReference().getWikiReference().getName();
+            DocumentReference userClass = this.userClassReferences.computeIfAbsent(wikiId,
+                key -> new DocumentReference(USER_CLASS, new WikiReference(key)));
+            if (!hasXObjects(newDocument, userClass) && !hasXObjects(oldDocument, userClass)) {
+                this.droppedEventCount.incrementAndGet();
+                return;
+            }
+            this.handledEventCount.incrementAndGet();
+
             BaseObject newObject = newDocument.getXObject(USER_CLASS);
             BaseObject oldObject = oldDocument.getXObject(USER_CLASS);
 
@@ -122,11 +210,91 @@ public class UserCounter
             int newActive = newDocumentIsUser ? newObject.getIntValue(ACTIVE) : -1;
             int oldActive = oldDocumentIsUser ? oldObject.getIntValue(ACTIVE) : -1;
 
-            if (newDocumentIsUser != oldDocumentIsUser || newActive != oldActive) {
-                // The user object is either added/removed or set to active/inactive. Invalidate the cached user count.
-                this.userCounter.cachedUserCount = null;
+            // Only active users are counted.
+            int delta = (newActive == 1 ? 1 : 0) - (oldActive == 1 ? 1 : 0);
+            if (delta != 0) {
+                // An active user has been either added/removed or set to active/inactive.
+                this.userCounter.updateUserCount(wikiId, delta);
+                this.userCounter.getObservationManager().notify(new UserCountChangedEvent(wikiId, delta), null);
             }
         }
+
+        private boolean hasXObjects(XWikiDocument document, DocumentReference classReference)
+        {
+            if (document == null) {
+                return false;
+            }
+            List<BaseObject> xobjects = document.getXObjects().get(classReference);
+            return xobjects != null && !xobjects.isEmpty();
+        }
+
+        /**
+         * @return the number of events about documents that are not users, ignored by this listener
+         * @since 1.32.1
+         */
+        public long getDroppedEventCount()
+        {
+            return this.droppedEventCount.get();
+        }
+
+        /**
+         * @return the number of events about user documents, handled by this listener
+         * @since 1.32.1
+         */
+        public long getHandledEventCount()
+        {
+            return this.handledEventCount.get();
+        }
+    }
+
+    void updateUserCount(String wikiId, long delta)
+    {
+        Map<String, AtomicLong> counts = this.userCountByWiki;
+        // Nothing to do if the users haven't been counted yet, the next count will take the change into account.
+        if (counts != null) {
+            long userCount = counts.computeIfAbsent(wikiId, key -> new AtomicLong()).addAndGet(delta);
+            this.logger.debug("User count on wiki [{}] is [{}].", wikiId, userCount);
+        }
+    }
+
+    private void removeWiki(String wikiId)
+    {
+        Map<String, AtomicLong> counts = this.userCountByWiki;
+        if (counts != null) {
+            counts.remove(wikiId);
+        }
+    }
+
+    /**
+     * Force the users to be counted again from the database on the next call to {@link #getUserCount()}, on all the
+     * members of the cluster.
+     *
+     * @since 1.32.1
+     */
+    public void invalidate()
+    {
+        invalidateLocally();
+        getObservationManager().notify(new UserCountInvalidatedEvent(), null);
+    }
+
+    void invalidateLocally()
+    {
+        this.lastFullCount = 0;
+    }
+
+    boolean isRemoteState()
+    {
+        return this.remoteObservationManagerContext.isRemoteState();
+    }
+
+    ObservationManager getObservationManager()
+    {
+        return this.observationManagerProvider.get();
+    }
+
+    private boolean isReconciliationNeeded()
+    {
+        return System.currentTimeMillis() - this.lastFullCount >= RECONCILIATION_PERIOD;
     }
 
     /**
@@ -137,23 +305,99 @@ public class UserCounter
      */
     public long getUserCount() throws Exception
     {
-        if (cachedUserCount == null) {
-            try {
-                long userCount = 0;
-                for (String wikiId : this.wikiDescriptorManager.getAllIds()) {
-                    userCount += getUserCountOnWiki(wikiId);
+        Map<String, AtomicLong> counts = this.userCountByWiki;
+        if (counts == null || isReconciliationNeeded()) {
+            CompletableFuture<Map<String, AtomicLong>> count = new CompletableFuture<>();
+            CompletableFuture<Map<String, AtomicLong>> runningCount = this.runningCount.compareAndExchange(null, count);
+            if (runningCount == null) {
+                // Only one thread counts the users at a time. The others wait for the result if the users have never
+                // been counted, or use the last known counts otherwise.
+                try {
+                    counts = countUsers();
+                    count.complete(counts);
+                } catch (Exception e) {
+                    count.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    this.runningCount.set(null);
                 }
-                this.logger.debug("User count is [{}].", userCount);
-                this.cachedUserCount = userCount;
-            } catch (WikiManagerException | QueryException e) {
-                throw new Exception("Failed to count the users.", e);
+            } else if (counts == null) {
+                counts = waitFor(runningCount);
+            }
+        }
+
+        return counts.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    private Map<String, AtomicLong> waitFor(CompletableFuture<Map<String, AtomicLong>> runningCount) throws Exception
+    {
+        try {
+            return runningCount.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private Map<String, AtomicLong> countUsers() throws Exception
+    {
+        Map<String, Future<Long>> results = new LinkedHashMap<>();
+        try {
+            // The queries are created by the current thread and executed in parallel, one per wiki.
+            for (String wikiId : this.wikiDescriptorManager.getAllIds()) {
+                Query query = createUserCountQuery(wikiId);
+                results.put(wikiId, getCountingExecutor().submit(() -> executeUserCountQuery(query)));
+            }
+
+            Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+            for (Map.Entry<String, Future<Long>> result : results.entrySet()) {
+                counts.put(result.getKey(), new AtomicLong(getResult(result.getValue())));
             }
+            this.logger.debug("User count is [{}].", counts);
+            this.userCountByWiki = counts;
+            this.lastFullCount = System.currentTimeMillis();
+            return counts;
+        } catch (WikiManagerException | QueryException e) {
+            throw new Exception("Failed to count the users.", e);
+        } finally {
+            results.values().forEach(result -> result.cancel(true));
+        }
+    }
+
+    private long getResult(Future<Long> result) throws Exception
+    {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Exception("Interrupted while counting the users.", e);
+        }
+    }
+
+    private synchronized ExecutorService getCountingExecutor()
+    {
+        if (this.countingExecutor == null) {
+            int poolSize = Math.max(1, Math.min(MAX_COUNTING_THREADS, Runtime.getRuntime().availableProcessors()));
+            this.countingExecutor = Executors.newFixedThreadPool(poolSize, runnable -> {
+                Thread thread = new Thread(runnable, "XWiki License User Counter Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return this.countingExecutor;
+    }
 
-        return cachedUserCount;
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.countingExecutor != null) {
+            this.countingExecutor.shutdownNow();
+            this.countingExecutor = null;
+        }
     }
 
-    private long getUserCountOnWiki(String wikiId) throws QueryException
+    private Query createUserCountQuery(String wikiId) throws QueryException
     {
         StringBuilder statement = new StringBuilder(", BaseObject as obj, IntegerProperty as prop ");
         statement.append("where doc.fullName = obj.name and obj.className = 'XWiki.XWikiUsers' and ");
@@ -161,7 +405,18 @@ public class UserCounter
 
         Query query = this.queryManager.createQuery(statement.toString(), Query.HQL);
         query.addFilter(this.uniqueFilter).addFilter(this.countFilter).setWiki(wikiId);
-        List<Long> results = query.execute();
-        return results.get(0);
+        return query;
+    }
+
+    private long executeUserCountQuery(Query query) throws Exception
+    {
+        // The query is executed by a pool thread, which needs its own execution context.
+        this.executionContextManager.initialize(new ExecutionContext());
+        try {
+            List<Long> results = query.execute();
+            return results.get(0);
+        } finally {
+            this.execution.removeContext();
+        }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal.event;
+
+import java.io.Serializable;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Event sent when a signed license has been added to the license manager, so that the other members of the cluster
+ * can add it too without reading it from the license store.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+public class LicenseAddedEvent implements Event, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] license;
+
+    /**
+     * Listen to all the added licenses.
+     */
+    public LicenseAddedEvent()
+    {
+        this(null);
+    }
+
+    /**
+     * @param license the encoded signed license that has been added
+     */
+    public LicenseAddedEvent(byte[] license)
+    {
+        this.license = license;
+    }
+
+    /**
+     * @return the encoded signed license that has been added
+     */
+    public byte[] getLicense()
+    {
+        return this.license;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof LicenseAddedEvent;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal.event;
+
+import java.io.Serializable;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Event sent when the number of active users of a wiki changes, so that the other members of the cluster can update
+ * their user count without counting the users again.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+public class UserCountChangedEvent implements Event, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String wikiId;
+
+    private final long delta;
+
+    /**
+     * Listen to all the user count changes.
+     */
+    public UserCountChangedEvent()
+    {
+        this(null, 0);
+    }
+
+    /**
+     * @param wikiId the wiki where the number of active users changed
+     * @param delta the number of active users added (or removed, if negative)
+     */
+    public UserCountChangedEvent(String wikiId, long delta)
+    {
+        this.wikiId = wikiId;
+        this.delta = delta;
+    }
+
+    /**
+     * @return the wiki where the number of active users changed
+     */
+    public String getWikiId()
+    {
+        return this.wikiId;
+    }
+
+    /**
+     * @return the number of active users added (or removed, if negative)
+     */
+    public long getDelta()
+    {
+        return this.delta;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof UserCountChangedEvent;
+    }
+}
@@ -21,35 +21,269 @@ package com.xwiki.licensing.internal.helpers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultHttpRequestRetryStrategy;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.xwiki.licensing.LicensingConfiguration;
 
 /**
- * Provide various tools to handle HTTP methods usage.
+ * Provide various tools to handle HTTP methods usage. All the requests sent to the licensing store go through a single
+ * HTTP client, whose pooled connections are kept alive and reused between calls, so that the TLS handshake is not done
+ * again for each request. The requests are not sent when the licensor is configured to work offline, or while the
+ * store is considered unavailable after repeated failures (see {@link #getStoreStatus()}).
  *
  * @version $Id$
  * @since 1.27
  */
 @Component(roles = HttpClientUtils.class)
 @Singleton
-public class HttpClientUtils
+public class HttpClientUtils implements Initializable, Disposable
 {
+    private static final Timeout CONNECT_TIMEOUT = Timeout.ofSeconds(10);
+
+    private static final Timeout SOCKET_TIMEOUT = Timeout.ofSeconds(30);
+
+    private static final Timeout CONNECTION_REQUEST_TIMEOUT = Timeout.ofSeconds(30);
+
+    private static final TimeValue CONNECTION_TIME_TO_LIVE = TimeValue.ofMinutes(5);
+
+    private static final TimeValue MAX_IDLE_TIME = TimeValue.ofSeconds(30);
+
+    private static final int MAX_CONNECTIONS = 10;
+
+    private static final int MAX_RETRIES = 3;
+
+    private static final TimeValue RETRY_INTERVAL = TimeValue.ofSeconds(1);
+
+    private static final TimeValue MAX_RETRY_INTERVAL = TimeValue.ofSeconds(10);
+
+    /**
+     * The number of consecutive failed requests after which the store is considered unavailable.
+     */
+    private static final int FAILURE_THRESHOLD = 5;
+
+    /**
+     * The time, in milliseconds, during which the store is not contacted once considered unavailable.
+     */
+    private static final long UNAVAILABILITY_DURATION = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The JSON reader, thread safe and shared by all the requests.
+     */
+    private static final ObjectReader JSON_READER = new ObjectMapper().reader();
+
     @Inject
     private Logger logger;
 
+    @Inject
+    private LicensingConfiguration licensingConfig;
+
+    /**
+     * The availability of the licensing store, as seen by the licensor.
+     *
+     * @version $Id$
+     * @since 1.32.1
+     */
+    public enum StoreStatus
+    {
+        /**
+         * The requests are sent to the store.
+         */
+        ONLINE,
+
+        /**
+         * The store is considered unavailable after repeated failures, the requests fail fast until the store is
+         * probed again.
+         */
+        UNAVAILABLE,
+
+        /**
+         * The licensor is configured to work offline, the requests are never sent.
+         */
+        OFFLINE
+    }
+
+    /**
+     * Read the content of a HTTP response while it is received.
+     *
+     * @param <T> the type of the value read from the content
+     * @version $Id$
+     * @since 1.32.1
+     */
+    @FunctionalInterface
+    public interface ContentReader<T>
+    {
+        /**
+         * @param content the content of the response, closed once read
+         * @return the value read from the content
+         * @throws IOException if the content can't be read
+         */
+        T read(InputStream content) throws IOException;
+    }
+
+    /**
+     * The response of a conditional HTTP GET request.
+     *
+     * @param <T> the type of the value read from the content of the response
+     * @version $Id$
+     * @since 1.32.1
+     */
+    public static final class ConditionalResponse<T>
+    {
+        private final T content;
+
+        private final String entityTag;
+
+        /**
+         * @param content the value read from the content of the response, {@code null} if not modified
+         * @param entityTag the entity tag of the response
+         */
+        public ConditionalResponse(T content, String entityTag)
+        {
+            this.content = content;
+            this.entityTag = entityTag;
+        }
+
+        /**
+         * @return {@code true} if the content didn't change since the previous response
+         */
+        public boolean isNotModified()
+        {
+            return this.content == null;
+        }
+
+        /**
+         * @return the value read from the content of the response, {@code null} if not modified
+         */
+        public T getContent()
+        {
+            return this.content;
+        }
+
+        /**
+         * @return the entity tag identifying the content, to be sent with the next request, or {@code null} if the
+         *     server doesn't support conditional requests
+         */
+        public String getEntityTag()
+        {
+            return this.entityTag;
+        }
+    }
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    private CloseableHttpClient client;
+
+    private final StoreCircuitBreaker circuitBreaker =
+        new StoreCircuitBreaker(FAILURE_THRESHOLD, UNAVAILABILITY_DURATION, System::nanoTime);
+
+    /**
+     * Retry the requests that failed because of an I/O error or because the store is temporarily unavailable, waiting
+     * twice as long before each new attempt, unless the store asks for a specific delay. The delay is never longer
+     * than {@link #MAX_RETRY_INTERVAL}, so that a request is not held by a large Retry-After value.
+     */
+    static final class BackoffRetryStrategy extends DefaultHttpRequestRetryStrategy
+    {
+        BackoffRetryStrategy()
+        {
+            super(MAX_RETRIES, RETRY_INTERVAL);
+        }
+
+        @Override
+        public TimeValue getRetryInterval(HttpRequest request, IOException exception, int execCount,
+            HttpContext context)
+        {
+            return getBackoffInterval(execCount);
+        }
+
+        @Override
+        public TimeValue getRetryInterval(HttpResponse response, int execCount, HttpContext context)
+        {
+            TimeValue retryAfter = super.getRetryInterval(response, execCount, context);
+            if (!RETRY_INTERVAL.equals(retryAfter)) {
+                // The store specified the delay (Retry-After header).
+                return retryAfter.compareTo(MAX_RETRY_INTERVAL) > 0 ? MAX_RETRY_INTERVAL : retryAfter;
+            }
+            return getBackoffInterval(execCount);
+        }
+
+        private TimeValue getBackoffInterval(int execCount)
+        {
+            return TimeValue.ofMilliseconds(RETRY_INTERVAL.toMilliseconds() << Math.min(execCount - 1, MAX_RETRIES));
+        }
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+            .useSystemProperties()
+            .setMaxConnTotal(MAX_CONNECTIONS)
+            .setMaxConnPerRoute(MAX_CONNECTIONS)
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setSocketTimeout(SOCKET_TIMEOUT)
+                .setTimeToLive(CONNECTION_TIME_TO_LIVE)
+                .build())
+            .build();
+        this.client = HttpClients.custom()
+            .useSystemProperties()
+            .setConnectionManager(this.connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT)
+                .setResponseTimeout(SOCKET_TIMEOUT)
+                .build())
+            .setRetryStrategy(new BackoffRetryStrategy())
+            .evictExpiredConnections()
+            .evictIdleConnections(MAX_IDLE_TIME)
+            .build();
+    }
+
+    @Override
+    public void dispose()
+    {
+        try {
+            this.client.close();
+        } catch (IOException e) {
+            this.logger.debug("Failed to close the licensing store HTTP client.", e);
+        }
+        this.connectionManager.close(CloseMode.GRACEFUL);
+    }
+
     /**
      * Execute a HttpPost and parse its response in JSON format.
      *
@@ -59,22 +293,149 @@ public class HttpClientUtils
      */
     public JsonNode httpPost(HttpPost httpPost, String errorMsg)
     {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            JsonFactory jsonFactory = new JsonFactory();
-            ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
-
-            return client.execute(httpPost, response -> {
+        try {
+            return execute(httpPost, response -> {
                 final HttpEntity responseEntity = response.getEntity();
                 if (responseEntity == null) {
                     return null;
                 }
                 try (InputStream inputStream = responseEntity.getContent()) {
-                    return objectMapper.readTree(inputStream);
+                    return JSON_READER.readTree(inputStream);
                 }
             });
+        } catch (StoreUnavailableException e) {
+            logger.debug("{} Root cause: [{}]", errorMsg, e.getMessage());
         } catch (IOException e) {
             logger.error("{} Root cause: [{}]", errorMsg, ExceptionUtils.getRootCauseMessage(e));
         }
         return null;
     }
+
+    /**
+     * Execute a HTTP GET request and return the content of the response.
+     *
+     * @param url the URL to get
+     * @return the content of the response
+     * @throws IOException if the request fails or if the response status is not successful
+     * @since 1.32.1
+     */
+    public String httpGet(String url) throws IOException
+    {
+        return httpGet(url, null).getContent();
+    }
+
+    /**
+     * Execute a conditional HTTP GET request: the server doesn't send the content again if it didn't change since the
+     * response identified by the given entity tag.
+     *
+     * @param url the URL to get
+     * @param entityTag the entity tag of the previous response, or {@code null} to always get the content
+     * @return the response
+     * @throws IOException if the request fails or if the response status is not successful
+     * @since 1.32.1
+     */
+    public ConditionalResponse<String> httpGet(String url, String entityTag) throws IOException
+    {
+        return httpGet(url, entityTag, content -> new String(content.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Execute a conditional HTTP GET request and read the content of the response while it is received, instead of
+     * buffering it.
+     *
+     * @param <T> the type of the value read from the content of the response
+     * @param url the URL to get
+     * @param entityTag the entity tag of the previous response, or {@code null} to always get the content
+     * @param contentReader the reader of the content of the response, not called if the content was not modified
+     * @return the response
+     * @throws IOException if the request fails, if the response status is not successful or if the content can't be
+     *     read
+     * @since 1.32.1
+     */
+    public <T> ConditionalResponse<T> httpGet(String url, String entityTag, ContentReader<T> contentReader)
+        throws IOException
+    {
+        HttpGet httpGet = new HttpGet(url);
+        if (entityTag != null) {
+            httpGet.setHeader(HttpHeaders.IF_NONE_MATCH, entityTag);
+        }
+        return execute(httpGet, response -> {
+            HttpEntity responseEntity = response.getEntity();
+            if (response.getCode() == HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consume(responseEntity);
+                return new ConditionalResponse<>(null, entityTag);
+            } else if (response.getCode() >= HttpStatus.SC_REDIRECTION) {
+                EntityUtils.consume(responseEntity);
+                throw new IOException(String.format("Unexpected response status [%s] from [%s].", response.getCode(),
+                    url));
+            }
+            Header entityTagHeader = response.getFirstHeader(HttpHeaders.ETAG);
+            T content;
+            try (InputStream inputStream =
+                responseEntity != null ? responseEntity.getContent() : InputStream.nullInputStream()) {
+                content = contentReader.read(inputStream);
+            }
+            return new ConditionalResponse<>(content, entityTagHeader != null ? entityTagHeader.getValue() : null);
+        });
+    }
+
+    /**
+     * @return the availability of the licensing store
+     * @since 1.32.1
+     */
+    public StoreStatus getStoreStatus()
+    {
+        if (this.licensingConfig.isOffline()) {
+            return StoreStatus.OFFLINE;
+        }
+        return this.circuitBreaker.getState() == StoreCircuitBreaker.State.CLOSED ? StoreStatus.ONLINE
+            : StoreStatus.UNAVAILABLE;
+    }
+
+    private <T> T execute(ClassicHttpRequest request, HttpClientResponseHandler<T> responseHandler)
+        throws IOException
+    {
+        if (this.licensingConfig.isOffline()) {
+            throw new StoreUnavailableException(
+                "The licensing store is not contacted because the licensor is configured to work offline.");
+        } else if (!this.circuitBreaker.tryAcquire()) {
+            throw new StoreUnavailableException(String.format("The licensing store is considered unavailable after "
+                + "repeated failures, it will be contacted again in [%s] seconds.",
+                TimeUnit.MILLISECONDS.toSeconds(this.circuitBreaker.getRetryDelay())));
+        }
+
+        int[] status = new int[1];
+        try {
+            T result = this.client.execute(request, response -> {
+                status[0] = response.getCode();
+                return responseHandler.handleResponse(response);
+            });
+            recordResult(status[0]);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            recordResult(status[0]);
+            throw e;
+        }
+    }
+
+    private void recordResult(int status)
+    {
+        // The store is available if it answered with anything else than a server error, even if the response was not
+        // the expected one.
+        if (status > 0 && status < HttpStatus.SC_SERVER_ERROR) {
+            this.circuitBreaker.onSuccess();
+        } else if (this.circuitBreaker.onFailure()) {
+            this.logger.warn("The licensing store is unavailable, it will not be contacted for [{}] seconds.",
+                TimeUnit.MILLISECONDS.toSeconds(UNAVAILABILITY_DURATION));
+        }
+    }
+
+    /**
+     * @return the JSON reader shared by the licensing store calls
+     * @since 1.32.1
+     */
+    public ObjectReader getJsonReader()
+    {
+        return JSON_READER;
+    }
 }
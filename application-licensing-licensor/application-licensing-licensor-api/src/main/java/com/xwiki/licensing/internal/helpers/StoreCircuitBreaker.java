@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal.helpers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker protecting the licensing store calls: after a number of consecutive failures the circuit is opened
+ * and the calls fail fast, without contacting the store. Once the open duration has elapsed, a single probe call is
+ * let through (half-open state): the circuit is closed again if it succeeds, and opened again if it fails.
+ *
+ * @version $Id$
+ * @since 1.32.1
+ */
+class StoreCircuitBreaker
+{
+    /**
+     * The state of the circuit.
+     */
+    enum State
+    {
+        /**
+         * The calls are let through.
+         */
+        CLOSED,
+
+        /**
+         * The calls fail fast.
+         */
+        OPEN,
+
+        /**
+         * A probe call is in progress, the other calls fail fast.
+         */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openDuration;
+
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openedAt;
+
+    /**
+     * @param failureThreshold the number of consecutive failures after which the circuit is opened
+     * @param openDuration the time, in milliseconds, during which the calls fail fast once the circuit is opened
+     * @param clock the clock used to measure the open duration, in nanoseconds
+     */
+    StoreCircuitBreaker(int failureThreshold, long openDuration, LongSupplier clock)
+    {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = TimeUnit.MILLISECONDS.toNanos(openDuration);
+        this.clock = clock;
+    }
+
+    /**
+     * @return {@code true} if the call can be made, {@code false} if it has to fail fast
+     */
+    synchronized boolean tryAcquire()
+    {
+        if (this.state == State.CLOSED) {
+            return true;
+        } else if (this.state == State.OPEN && this.clock.getAsLong() - this.openedAt >= this.openDuration) {
+            // Let a single call probe the store.
+            this.state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a successful call.
+     */
+    synchronized void onSuccess()
+    {
+        this.state = State.CLOSED;
+        this.failures = 0;
+    }
+
+    /**
+     * Record a failed call.
+     *
+     * @return {@code true} if the circuit has been opened by this failure
+     */
+    synchronized boolean onFailure()
+    {
+        this.failures++;
+        if (this.state == State.HALF_OPEN || (this.state == State.CLOSED && this.failures >= this.failureThreshold)) {
+            this.state = State.OPEN;
+            this.openedAt = this.clock.getAsLong();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    synchronized State getState()
+    {
+        return this.state;
+    }
+
+    /**
+     * @return the time, in milliseconds, until the next probe call can be made, {@code 0} if the circuit is not open
+     */
+    synchronized long getRetryDelay()
+    {
+        if (this.state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.openDuration - (this.clock.getAsLong() - this.openedAt)));
+    }
+}
@@ -19,7 +19,10 @@
  */
 package com.xwiki.licensing.script;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -49,12 +52,15 @@ import org.xwiki.sheet.SheetManager;
 import org.xwiki.stability.Unstable;
 
 import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseImportResult;
 import com.xwiki.licensing.LicenseManager;
 import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensingConfiguration;
 import com.xwiki.licensing.Licensor;
+import com.xwiki.licensing.internal.LicenseBundleImporter;
 import com.xwiki.licensing.internal.UserCounter;
 import com.xwiki.licensing.internal.enforcer.LicensingUtils;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils;
 
 /**
  * Script service for the licensor.
@@ -103,6 +109,12 @@ public class LicensorScriptService implements ScriptService, Initializable
     @Inject
     private LicensingConfiguration licensingConfig;
 
+    @Inject
+    private HttpClientUtils httpUtils;
+
+    @Inject
+    private LicenseBundleImporter licenseBundleImporter;
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -274,6 +286,43 @@ public class LicensorScriptService implements ScriptService, Initializable
         return licenseManager.add(converter.convert(License.class, license));
     }
 
+    /**
+     * Import all the licenses of a bundle at once, e.g. on a wiki instance that has no access to the licensing store.
+     * Each license of the bundle is checked like with {@link #addLicense(String)}, and all the licenses that improve
+     * the licensing state of this wiki are added together.
+     *
+     * @param bundle a ZIP archive with one license per entry, binary or base 64 encoded, or a text with one base 64
+     *     encoded license per line
+     * @return the outcome of the import of each license of the bundle, in bundle order
+     * @throws AccessDeniedException if the user does not have admin rights on the main wiki
+     * @throws IOException if the bundle can't be read
+     * @since 1.32.1
+     */
+    @Unstable
+    public List<LicenseImportResult> importLicenses(InputStream bundle) throws AccessDeniedException, IOException
+    {
+        contextualAuthorizationManager.checkAccess(Right.ADMIN,
+            entityReferenceProvider.getDefaultReference(EntityType.WIKI));
+        return this.licenseBundleImporter.importLicenses(bundle);
+    }
+
+    /**
+     * Import all the licenses of a text bundle at once, e.g. on a wiki instance that has no access to the licensing
+     * store. Each license of the bundle is checked like with {@link #addLicense(String)}, and all the licenses that
+     * improve the licensing state of this wiki are added together.
+     *
+     * @param bundle one base 64 representation of a license per line
+     * @return the outcome of the import of each license of the bundle, in bundle order
+     * @throws AccessDeniedException if the user does not have admin rights on the main wiki
+     * @throws IOException if the bundle can't be read
+     * @since 1.32.1
+     */
+    @Unstable
+    public List<LicenseImportResult> importLicenses(String bundle) throws AccessDeniedException, IOException
+    {
+        return importLicenses(new ByteArrayInputStream(bundle.getBytes(StandardCharsets.US_ASCII)));
+    }
+
     /**
      * Check that a valid license is covering the current document and redirect to an information page if not.
      */
@@ -284,6 +333,17 @@ public class LicensorScriptService implements ScriptService, Initializable
         }
     }
 
+    /**
+     * @return the availability of the licensing store: {@code ONLINE}, {@code UNAVAILABLE} when the store is not
+     *     contacted anymore after repeated failures, or {@code OFFLINE} when the licensor is configured to work offline
+     * @since 1.32.1
+     */
+    @Unstable
+    public String getStoreStatus()
+    {
+        return this.httpUtils.getStoreStatus().name();
+    }
+
     /**
      * @return the user count
      * @since 1.6
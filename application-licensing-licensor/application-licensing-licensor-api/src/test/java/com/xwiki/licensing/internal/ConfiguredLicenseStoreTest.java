@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.File;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.xwiki.licensing.FileLicenseStoreReference;
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseStoreReference;
+import com.xwiki.licensing.LicensingConfiguration;
+import com.xwiki.licensing.test.MemoryLicenseStore;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ConfiguredLicenseStore}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList(MemoryLicenseStore.class)
+class ConfiguredLicenseStoreTest
+{
+    private static final LicenseStoreReference STORE_REFERENCE =
+        new FileLicenseStoreReference(new File("licenses"), true);
+
+    @InjectMockComponents
+    private ConfiguredLicenseStore store;
+
+    @MockComponent
+    private LicensingConfiguration configuration;
+
+    @MockComponent
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
+    @BeforeEach
+    void configure()
+    {
+        when(this.componentManagerProvider.get()).thenReturn(this.componentManager);
+        when(this.configuration.getStoreHint()).thenReturn(MemoryLicenseStore.HINT);
+    }
+
+    @Test
+    void delegateToConfiguredStore() throws Exception
+    {
+        License license = new License();
+
+        this.store.store(STORE_REFERENCE, license);
+
+        assertSame(license, this.store.retrieve(STORE_REFERENCE, license.getId()));
+        assertSame(license, this.store.getIterable(STORE_REFERENCE).iterator().next());
+
+        this.store.delete(STORE_REFERENCE, license.getId());
+
+        assertFalse(this.store.getIterable(STORE_REFERENCE).iterator().hasNext());
+    }
+}
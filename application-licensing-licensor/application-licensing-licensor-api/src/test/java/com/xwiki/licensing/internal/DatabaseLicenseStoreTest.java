@@ -0,0 +1,290 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.properties.converter.Converter;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.XWikiTempDir;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.licensing.FileLicenseStoreReference;
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseMetadata;
+import com.xwiki.licensing.LicenseSerializer;
+import com.xwiki.licensing.LicenseStore;
+import com.xwiki.licensing.LicenseStoreReference;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DatabaseLicenseStore}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class DatabaseLicenseStoreTest
+{
+    private static final String XML_LICENSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><license/>";
+
+    @XWikiTempDir
+    private File tmpDir;
+
+    @InjectMockComponents
+    private DatabaseLicenseStore store;
+
+    @MockComponent
+    @Named("FileSystem")
+    private LicenseStore cache;
+
+    @MockComponent
+    @Named("xml")
+    private LicenseSerializer<String> serializer;
+
+    @MockComponent
+    private Converter<License> converter;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    @Mock
+    private XWikiContext xcontext;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiDocument licenseDocument;
+
+    @Mock
+    private BaseObject licenseObject;
+
+    @Mock
+    private Query versionsQuery;
+
+    private License license = new License();
+
+    private LicenseStoreReference storeReference;
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        when(this.xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+        when(this.xcontext.getMainXWiki()).thenReturn("xwiki");
+        when(this.xwiki.getDocument(new DocumentReference("xwiki", Arrays.asList("Licenses", "Code", "LicenseStore"),
+            this.license.getId().toString()), this.xcontext)).thenReturn(this.licenseDocument);
+        when(this.licenseDocument.clone()).thenReturn(this.licenseDocument);
+        when(this.licenseDocument.newXObject(DatabaseLicenseStore.STORE_CLASS, this.xcontext))
+            .thenReturn(this.licenseObject);
+        when(this.serializer.serialize(this.license)).thenReturn(XML_LICENSE);
+
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.versionsQuery);
+        when(this.versionsQuery.bindValue("space", "Licenses.Code.LicenseStore")).thenReturn(this.versionsQuery);
+        when(this.versionsQuery.setWiki("xwiki")).thenReturn(this.versionsQuery);
+        when(this.versionsQuery.execute()).thenReturn(Collections.emptyList());
+
+        this.storeReference = new FileLicenseStoreReference(this.tmpDir, true);
+    }
+
+    private void storeLicenseInDatabase(String version) throws Exception
+    {
+        when(this.licenseDocument.getXObject(DatabaseLicenseStore.STORE_CLASS)).thenReturn(this.licenseObject);
+        when(this.licenseObject.getLargeStringValue(DatabaseLicenseStore.LICENSE)).thenReturn(XML_LICENSE);
+        when(this.versionsQuery.execute()).thenReturn(
+            Collections.<Object>singletonList(new Object[] {this.license.getId().toString(), version}));
+    }
+
+    private void markSynchronized() throws Exception
+    {
+        new File(this.tmpDir, DatabaseLicenseStore.SYNCHRONIZED_FILE_NAME).createNewFile();
+    }
+
+    @Test
+    void storeLicense() throws Exception
+    {
+        this.store.store(this.storeReference, this.license);
+
+        verify(this.cache).store(this.storeReference, Collections.singletonList(this.license));
+        verify(this.licenseObject).setStringValue(DatabaseLicenseStore.LICENSE_ID, this.license.getId().toString());
+        verify(this.licenseObject).setLargeStringValue(DatabaseLicenseStore.LICENSE, XML_LICENSE);
+        verify(this.licenseDocument).setHidden(true);
+        verify(this.xwiki).saveDocument(this.licenseDocument, "Stored license.", true, this.xcontext);
+        assertFalse(new File(this.tmpDir, DatabaseLicenseStore.PENDING_FILE_NAME).exists());
+    }
+
+    @Test
+    void storeUnchangedLicense() throws Exception
+    {
+        storeLicenseInDatabase("1.1");
+
+        this.store.store(this.storeReference, this.license);
+
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), any(String.class), any(Boolean.class),
+            any(XWikiContext.class));
+    }
+
+    @Test
+    void storeLicenseReceivedFromAnotherClusterMember() throws Exception
+    {
+        when(this.remoteObservationManagerContext.isRemoteState()).thenReturn(true);
+
+        this.store.store(this.storeReference, this.license);
+
+        verify(this.cache).store(this.storeReference, Collections.singletonList(this.license));
+        verify(this.xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+        assertFalse(new File(this.tmpDir, DatabaseLicenseStore.PENDING_FILE_NAME).exists());
+    }
+
+    @Test
+    void deleteLicense() throws Exception
+    {
+        storeLicenseInDatabase("1.1");
+
+        this.store.delete(this.storeReference, this.license.getId());
+
+        verify(this.cache).delete(this.storeReference, this.license.getId());
+        verify(this.xwiki).deleteDocument(this.licenseDocument, this.xcontext);
+    }
+
+    @Test
+    void synchronizeLocalLicensesWithDatabase() throws Exception
+    {
+        markSynchronized();
+        storeLicenseInDatabase("1.1");
+        when(this.converter.convert(License.class, XML_LICENSE)).thenReturn(this.license);
+
+        License deletedLicense = new License();
+        when(this.cache.getMetadata(eq(this.storeReference), any()))
+            .thenReturn(Collections.singletonList(new LicenseMetadata(deletedLicense, "digest")));
+
+        this.store.getIterable(this.storeReference);
+
+        verify(this.cache).store(this.storeReference, Collections.singletonList(this.license));
+        verify(this.cache).delete(this.storeReference, deletedLicense.getId());
+        verify(this.cache).getIterable(this.storeReference);
+    }
+
+    @Test
+    void copyLocalLicensesToDatabaseOnFirstSynchronization() throws Exception
+    {
+        when(this.cache.getMetadata(eq(this.storeReference), any()))
+            .thenReturn(Collections.singletonList(new LicenseMetadata(this.license, "digest")));
+        when(this.cache.retrieve(this.storeReference, this.license.getId())).thenReturn(this.license);
+
+        this.store.getIterable(this.storeReference);
+
+        verify(this.cache, never()).delete(this.storeReference, this.license.getId());
+        verify(this.licenseObject).setLargeStringValue(DatabaseLicenseStore.LICENSE, XML_LICENSE);
+        verify(this.xwiki).saveDocument(this.licenseDocument, "Stored license.", true, this.xcontext);
+        assertTrue(new File(this.tmpDir, DatabaseLicenseStore.SYNCHRONIZED_FILE_NAME).exists());
+    }
+
+    @Test
+    void useLocalLicensesBeforeXWikiIsInitialized() throws Exception
+    {
+        when(this.xcontextProvider.get()).thenReturn(null);
+        LicenseId licenseId = new LicenseId();
+
+        this.store.retrieve(this.storeReference, licenseId);
+        this.store.getIterable(this.storeReference);
+        this.store.store(this.storeReference, this.license);
+
+        verify(this.cache).retrieve(this.storeReference, licenseId);
+        verify(this.cache).getIterable(this.storeReference);
+        verify(this.cache).store(this.storeReference, Collections.singletonList(this.license));
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), any(String.class), any(Boolean.class),
+            any(XWikiContext.class));
+    }
+
+    @Test
+    void uploadPendingLicenses() throws Exception
+    {
+        markSynchronized();
+
+        // The license is stored before XWiki is initialized.
+        when(this.xcontextProvider.get()).thenReturn(null);
+        this.store.store(this.storeReference, this.license);
+        assertTrue(new File(this.tmpDir, DatabaseLicenseStore.PENDING_FILE_NAME).exists());
+
+        when(this.xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.cache.getMetadata(eq(this.storeReference), any()))
+            .thenReturn(Collections.singletonList(new LicenseMetadata(this.license, "digest")));
+        when(this.cache.retrieve(this.storeReference, this.license.getId())).thenReturn(this.license);
+
+        this.store.getIterable(this.storeReference);
+
+        // The pending license is uploaded instead of being deleted.
+        verify(this.cache, never()).delete(this.storeReference, this.license.getId());
+        verify(this.licenseObject).setLargeStringValue(DatabaseLicenseStore.LICENSE, XML_LICENSE);
+        verify(this.xwiki).saveDocument(this.licenseDocument, "Stored license.", true, this.xcontext);
+        assertFalse(new File(this.tmpDir, DatabaseLicenseStore.PENDING_FILE_NAME).exists());
+    }
+
+    @Test
+    void skipSynchronizationWhenLicenseDocumentsAreUnchanged() throws Exception
+    {
+        markSynchronized();
+        storeLicenseInDatabase("1.1");
+
+        this.store.getIterable(this.storeReference);
+        this.store.getIterable(this.storeReference);
+
+        verify(this.cache, times(1)).getMetadata(eq(this.storeReference), any());
+
+        storeLicenseInDatabase("2.1");
+        this.store.getIterable(this.storeReference);
+
+        verify(this.cache, times(2)).getMetadata(eq(this.storeReference), any());
+    }
+}
@@ -21,6 +21,7 @@ package com.xwiki.licensing.internal;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -30,6 +31,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.xwiki.extension.ExtensionId;
+import org.xwiki.extension.repository.InstalledExtensionRepository;
+import org.xwiki.extension.xar.internal.handler.XarExtensionHandler;
+import org.xwiki.extension.xar.internal.repository.XarInstalledExtension;
 import org.xwiki.instance.InstanceId;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -43,11 +47,18 @@ import com.xwiki.licensing.LicenseValidator;
 import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensedFeatureId;
 import com.xwiki.licensing.LicensingConfiguration;
+import com.xwiki.licensing.internal.enforcer.LicensingSecurityCacheRuleInvalidator;
 import com.xwiki.licensing.internal.test.LicenseValidatorWrapper;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -68,6 +79,8 @@ public class DefaultLicenseManagerTest
 
     private License validLicense = new License();
 
+    private LicenseValidator licenseValidator;
+
     private ExtensionId testAppId = new ExtensionId("com.xwiki.test:application-test", "1.0");
 
     @Before
@@ -87,15 +100,15 @@ public class DefaultLicenseManagerTest
         File licenseStorePath = this.tempFolder.newFolder("licenses");
         when(configuration.getLocalStorePath()).thenReturn(licenseStorePath);
 
-        LicenseStore store = this.mocker.getInstance(LicenseStore.class, "FileSystem");
+        LicenseStore store = this.mocker.getInstance(LicenseStore.class, ConfiguredLicenseStore.HINT);
         FileLicenseStoreReference storeReference = new FileLicenseStoreReference(licenseStorePath, true);
         when(store.getIterable(storeReference)).thenReturn(this.licenses);
 
-        LicenseValidator licenseValidator = mock(LicenseValidator.class);
-        this.mocker.registerComponent(LicenseValidator.class, new LicenseValidatorWrapper(licenseValidator));
-        when(licenseValidator.isApplicable(this.validLicense)).thenReturn(true);
-        when(licenseValidator.isSigned(this.validLicense)).thenReturn(true);
-        when(licenseValidator.isValid(this.validLicense)).thenReturn(true);
+        this.licenseValidator = mock(LicenseValidator.class);
+        this.mocker.registerComponent(LicenseValidator.class, new LicenseValidatorWrapper(this.licenseValidator));
+        when(this.licenseValidator.isApplicable(this.validLicense)).thenReturn(true);
+        when(this.licenseValidator.isSigned(this.validLicense)).thenReturn(true);
+        when(this.licenseValidator.isValid(this.validLicense)).thenReturn(true);
 
         LicensedExtensionManager licensedExtensionManager = this.mocker.getInstance(LicensedExtensionManager.class);
         when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Collections.singleton(testAppId));
@@ -120,4 +133,66 @@ public class DefaultLicenseManagerTest
         assertTrue(CollectionUtils.isEqualCollection(Collections.singletonList(this.validLicense),
             licenseManager.getUsedLicenses()));
     }
+
+    @Test
+    public void addLicenses() throws Exception
+    {
+        LicenseManager licenseManager = this.mocker.getComponentUnderTest();
+
+        LicensedFeatureId otherFeatureId = new LicensedFeatureId("com.xwiki.test:application-other");
+        License otherLicense = new License();
+        otherLicense.setId(new LicenseId());
+        otherLicense.setType(LicenseType.PAID);
+        otherLicense.addFeatureId(otherFeatureId);
+        when(this.licenseValidator.isApplicable(otherLicense)).thenReturn(true);
+        when(this.licenseValidator.isSigned(otherLicense)).thenReturn(true);
+        License notApplicableLicense = new License();
+        notApplicableLicense.setId(new LicenseId());
+        notApplicableLicense.setType(LicenseType.PAID);
+        notApplicableLicense.addFeatureId(otherFeatureId);
+
+        assertEquals(Collections.singletonList(otherLicense),
+            licenseManager.add(Arrays.asList(otherLicense, notApplicableLicense)));
+
+        // The added licenses are persisted together.
+        LicenseStore store = this.mocker.getInstance(LicenseStore.class, ConfiguredLicenseStore.HINT);
+        verify(store).store(any(), eq(Collections.singletonList(otherLicense)));
+        verify(store, never()).store(any(), any(License.class));
+    }
+
+    @Test
+    public void addLicensesClearsSecurityCacheOnce() throws Exception
+    {
+        LicenseManager licenseManager = this.mocker.getComponentUnderTest();
+
+        LicensedFeatureId otherFeatureId = new LicensedFeatureId("com.xwiki.test:application-other");
+        ExtensionId otherAppId = new ExtensionId(otherFeatureId.getId(), "1.0");
+        LicensedExtensionManager licensedExtensionManager = this.mocker.getInstance(LicensedExtensionManager.class);
+        when(licensedExtensionManager.getLicensedExtensions(otherFeatureId))
+            .thenReturn(Collections.singleton(otherAppId));
+        InstalledExtensionRepository xarRepository =
+            this.mocker.getInstance(InstalledExtensionRepository.class, XarExtensionHandler.TYPE);
+        XarInstalledExtension otherApp = mock(XarInstalledExtension.class);
+        when(xarRepository.getInstalledExtension(otherAppId)).thenReturn(otherApp);
+
+        // The second license is better than the first one, so both licenses are linked to the same extension.
+        List<License> otherLicenses = new ArrayList<>();
+        for (long expirationDate : new long[] {1000L, 2000L}) {
+            License otherLicense = new License();
+            otherLicense.setId(new LicenseId());
+            otherLicense.setType(LicenseType.PAID);
+            otherLicense.setExpirationDate(expirationDate);
+            otherLicense.addFeatureId(otherFeatureId);
+            when(this.licenseValidator.isApplicable(otherLicense)).thenReturn(true);
+            when(this.licenseValidator.isSigned(otherLicense)).thenReturn(true);
+            otherLicenses.add(otherLicense);
+        }
+
+        assertEquals(otherLicenses, licenseManager.add(otherLicenses));
+        assertSame(otherLicenses.get(1), licenseManager.get(otherAppId));
+
+        LicensingSecurityCacheRuleInvalidator invalidator =
+            this.mocker.getInstance(LicensingSecurityCacheRuleInvalidator.class);
+        verify(invalidator, times(1)).invalidate(otherApp);
+    }
 }
@@ -19,14 +19,20 @@
  */
 package com.xwiki.licensing.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -38,6 +44,7 @@ import org.xwiki.instance.InstanceId;
 import org.xwiki.instance.InstanceIdManager;
 import org.xwiki.properties.converter.Converter;
 import org.xwiki.test.LogLevel;
+import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.junit5.LogCaptureExtension;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
@@ -45,22 +52,28 @@ import org.xwiki.test.junit5.mockito.MockComponent;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.xpn.xwiki.XWiki;
-import com.xpn.xwiki.XWikiContext;
 import com.xwiki.licensing.License;
 import com.xwiki.licensing.LicenseManager;
 import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensingConfiguration;
 import com.xwiki.licensing.Licensor;
 import com.xwiki.licensing.internal.helpers.HttpClientUtils;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils.ConditionalResponse;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils.ContentReader;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ComponentTest
+@ComponentList(LicenseVerificationExecutor.class)
 public class DefaultLicenseUpdaterTest
 {
     @RegisterExtension
@@ -78,9 +91,6 @@ public class DefaultLicenseUpdaterTest
     @MockComponent
     private LicensingConfiguration licensingConfig;
 
-    @MockComponent
-    private Provider<XWikiContext> contextProvider;
-
     @MockComponent
     private Provider<InstanceIdManager> instanceIdManagerProvider;
 
@@ -100,12 +110,6 @@ public class DefaultLicenseUpdaterTest
     @MockComponent
     private HttpClientUtils httpUtils;
 
-    @Mock
-    private XWiki xwiki;
-
-    @Mock
-    private XWikiContext xcontext;
-
     @Mock
     private LicenseManager licenseManager;
 
@@ -121,8 +125,7 @@ public class DefaultLicenseUpdaterTest
     @BeforeEach
     void configure()
     {
-        when(contextProvider.get()).thenReturn(xcontext);
-        when(xcontext.getWiki()).thenReturn(xwiki);
+        when(httpUtils.getJsonReader()).thenReturn(new ObjectMapper().reader());
         when(licenseManagerProvider.get()).thenReturn(licenseManager);
         when(instanceIdManagerProvider.get()).thenReturn(instanceIdManager);
         when(instanceIdManager.getInstanceId()).thenReturn(new InstanceId("7237b65d-e5d6-4249-aa4f-7c732cba27e2"));
@@ -166,6 +169,41 @@ public class DefaultLicenseUpdaterTest
         verify(licenseManager).add(license);
     }
 
+    @Test
+    void renewLicensesWithSuccessAndReturnedLicenses() throws Exception
+    {
+        when(licensingConfig.getStoreRenewURL()).thenReturn("https://storeRenew.com");
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<String> requests = new ArrayList<>();
+        when(httpUtils.httpPost(any(HttpPost.class), any(String.class))).then(invocation -> {
+            String request = EntityUtils.toString(invocation.<HttpPost>getArgument(0).getEntity());
+            requests.add(request);
+            ObjectNode objectNode = objectMapper.createObjectNode();
+            objectNode.put("status", "success");
+            objectNode.put("license", request.contains("featureId=application-test&") ? "license" : "otherLicense");
+            return objectNode;
+        });
+
+        byte[] licenseBytes = "license".getBytes();
+        when(base64decoder.decode("license")).thenReturn(licenseBytes);
+        when(converter.convert(License.class, licenseBytes)).thenReturn(license);
+        byte[] otherLicenseBytes = "otherLicense".getBytes();
+        when(base64decoder.decode("otherLicense")).thenReturn(otherLicenseBytes);
+        License otherLicense = new License();
+        when(converter.convert(License.class, otherLicenseBytes)).thenReturn(otherLicense);
+
+        licenseUpdater.renewLicenses(
+            Arrays.asList(new ExtensionId("application-test", "1.0"), new ExtensionId("application-other", "2.0")));
+
+        // The store renews one license per request, but the renewed licenses are added together.
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(0).endsWith("&featureId=application-test&extensionVersion=1.0"));
+        assertTrue(requests.get(1).endsWith("&featureId=application-other&extensionVersion=2.0"));
+        verify(licenseManager).add(Arrays.asList(license, otherLicense));
+        verify(licenseManager, never()).add(any(License.class));
+    }
+
     @Test
     void renewLicenseWithError() throws Exception
     {
@@ -206,7 +244,7 @@ public class DefaultLicenseUpdaterTest
             "https://storeUpdate.com?instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&outputSyntax=plain&featureId"
                 + "=application-test&expirationDate%3Aapplication-test=12";
         String licenseResponse = "[\"license\"]";
-        when(xwiki.getURLContent(updateURL, xcontext)).thenReturn(licenseResponse);
+        mockUpdateResponse(updateURL, null, licenseResponse, null);
 
         ExtensionId licensedExtension = new ExtensionId("application-test", "1.0");
         List<ExtensionId> mandatoryExtensions = Collections.singletonList(licensedExtension);
@@ -221,7 +259,7 @@ public class DefaultLicenseUpdaterTest
 
         licenseUpdater.updateLicenses();
 
-        verify(licenseManager).add(convertedLicense);
+        verify(licenseManager).add(Collections.singletonList(convertedLicense));
     }
 
     @Test
@@ -233,7 +271,7 @@ public class DefaultLicenseUpdaterTest
             "https://storeUpdate.com?instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&outputSyntax=plain&featureId"
                 + "=application-test&expirationDate%3Aapplication-test=12";
         String licenseResponse = "[]";
-        when(xwiki.getURLContent(updateURL, xcontext)).thenReturn(licenseResponse);
+        mockUpdateResponse(updateURL, null, licenseResponse, null);
 
         ExtensionId licensedExtension = new ExtensionId("application-test", "1.0");
         List<ExtensionId> mandatoryExtensions = Collections.singletonList(licensedExtension);
@@ -245,4 +283,91 @@ public class DefaultLicenseUpdaterTest
 
         verify(licenseManager, times(0)).add(any(License.class));
     }
+
+    @Test
+    void updateLicensesConditionally() throws Exception
+    {
+        DefaultLicenseManager defaultLicenseManager = mock(DefaultLicenseManager.class);
+        when(licenseManagerProvider.get()).thenReturn(defaultLicenseManager);
+        when(licensingConfig.getStoreUpdateURL()).thenReturn("https://storeUpdate.com");
+        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.emptyList());
+
+        String updateURL = "https://storeUpdate.com?instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&outputSyntax=plain";
+        mockUpdateResponse(updateURL, null, "[\"license\", \"otherLicense\"]", "\"v1\"");
+        when(httpUtils.httpGet(eq(updateURL), eq("\"v1\""), any()))
+            .thenReturn(new ConditionalResponse<>(null, "\"v1\""));
+
+        // The first license is already registered so it doesn't have to be verified again.
+        byte[] licenseBytes = "license".getBytes();
+        when(base64decoder.decode("license")).thenReturn(licenseBytes);
+        when(defaultLicenseManager.getRegisteredLicenseDigests())
+            .thenReturn(Collections.singleton(DigestUtils.sha256Hex(licenseBytes)));
+        byte[] otherLicenseBytes = "otherLicense".getBytes();
+        when(base64decoder.decode("otherLicense")).thenReturn(otherLicenseBytes);
+        License otherLicense = new License();
+        when(converter.convert(License.class, otherLicenseBytes)).thenReturn(otherLicense);
+
+        licenseUpdater.updateLicenses();
+
+        verify(converter, never()).convert(License.class, licenseBytes);
+        verify(defaultLicenseManager).add(Collections.singletonList(otherLicense));
+
+        // The licenses didn't change since the previous update.
+        licenseUpdater.updateLicenses();
+
+        verify(httpUtils).httpGet(eq(updateURL), eq("\"v1\""), any());
+        verify(defaultLicenseManager, times(1)).add(anyCollection());
+    }
+
+    @Test
+    void updateLicensesWithInvalidLicense() throws Exception
+    {
+        when(licensingConfig.getStoreUpdateURL()).thenReturn("https://storeUpdate.com");
+        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.emptyList());
+
+        String updateURL = "https://storeUpdate.com?instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&outputSyntax=plain";
+        mockUpdateResponse(updateURL, null, "[\"invalidLicense\", \"license\"]", null);
+
+        byte[] invalidLicenseBytes = "invalidLicense".getBytes();
+        when(base64decoder.decode("invalidLicense")).thenReturn(invalidLicenseBytes);
+        when(converter.convert(License.class, invalidLicenseBytes))
+            .thenThrow(new IllegalArgumentException("Invalid signed license data received"));
+        byte[] licenseBytes = "license".getBytes();
+        when(base64decoder.decode("license")).thenReturn(licenseBytes);
+        when(converter.convert(License.class, licenseBytes)).thenReturn(license);
+
+        licenseUpdater.updateLicenses();
+
+        // The invalid license doesn't prevent the other licenses from being added.
+        verify(licenseManager).add(Collections.singletonList(license));
+        assertEquals("Failed to read a license received from the store. Root cause is "
+            + "[IllegalArgumentException: Invalid signed license data received].", logCaptureWarn.getMessage(0));
+    }
+
+    @Test
+    void updateLicensesWithInvalidResponse() throws Exception
+    {
+        when(licensingConfig.getStoreUpdateURL()).thenReturn("https://storeUpdate.com");
+        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.emptyList());
+
+        String updateURL = "https://storeUpdate.com?instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&outputSyntax=plain";
+        mockUpdateResponse(updateURL, null, "{\"error\": \"unknown instance\"}", null);
+
+        licenseUpdater.updateLicenses();
+
+        verify(licenseManager, never()).add(anyCollection());
+        assertEquals("Error while updating licenses. Root cause [IOException: The licenses update response is not a "
+            + "list of licenses.]", logCaptureWarn.getMessage(0));
+    }
+
+    private void mockUpdateResponse(String updateURL, String entityTag, String content, String responseEntityTag)
+        throws IOException
+    {
+        when(httpUtils.httpGet(eq(updateURL), eq(entityTag), any())).then(invocation -> {
+            ContentReader<?> contentReader = invocation.getArgument(2);
+            return new ConditionalResponse<>(
+                contentReader.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))),
+                responseEntityTag);
+        });
+    }
 }
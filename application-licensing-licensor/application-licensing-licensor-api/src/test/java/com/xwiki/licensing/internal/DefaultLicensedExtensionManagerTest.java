@@ -30,16 +30,23 @@ import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.extension.ExtensionDependency;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.extension.InstalledExtension;
 import org.xwiki.extension.repository.InstalledExtensionRepository;
+import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 import org.xwiki.test.mockito.MockitoComponentManager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -50,6 +57,7 @@ import static org.mockito.Mockito.when;
  * @version $Id$
  */
 @ComponentTest
+@ComponentList(ExtensionDependencyGraph.class)
 class DefaultLicensedExtensionManagerTest
 {
     public static final String MAIN = "main";
@@ -60,6 +68,13 @@ class DefaultLicensedExtensionManagerTest
     @MockComponent
     InstalledExtensionRepository installedExtensionRepository;
 
+    // Used by the extension dependency graph to run the traversals of the namespaces in parallel.
+    @MockComponent
+    Execution execution;
+
+    @MockComponent
+    ExecutionContextManager executionContextManager;
+
     @MockComponent
     InstalledExtension licensorExtension;
 
@@ -154,6 +169,8 @@ class DefaultLicensedExtensionManagerTest
         Set<ExtensionId> result = this.licensedExtensionManager.getMandatoryLicensedExtensions();
 
         assertEquals(expected, result);
+        assertTrue(this.licensedExtensionManager.isMandatoryLicensedExtension(this.pollsExtension.getId()));
+        assertFalse(this.licensedExtensionManager.isMandatoryLicensedExtension(this.flashV1Extension.getId()));
     }
 
     @Test
@@ -260,10 +277,45 @@ class DefaultLicensedExtensionManagerTest
         this.licensedExtensionManager.invalidateMandatoryLicensedExtensionsCache();
         assertEquals(expected, this.licensedExtensionManager.getMandatoryLicensedExtensions());
 
-        verify(this.installedExtensionRepository, times(2)).getInstalledExtension(
+        verify(this.installedExtensionRepository, times(2)).getInstalledExtension(this.pollsExtension.getId());
+        // The licensed extensions didn't change.
+        verify(this.installedExtensionRepository, times(1)).getInstalledExtension(
             DefaultLicensedExtensionManager.LICENSOR_EXTENSION_ID, null);
     }
 
+    @Test
+    public void getLicensedExtensionsIsRebuiltOnlyWhenLicensorBackwardDependenciesChange() throws Exception
+    {
+        this.licensorDependencies.put(MAIN, Arrays.asList(this.pollsExtension));
+        when(this.installedExtensionRepository.getBackwardDependencies(this.licensorExtension.getId())).thenReturn(
+            this.licensorDependencies);
+
+        Collection<ExtensionId> licensedExtensions = this.licensedExtensionManager.getLicensedExtensions();
+        assertEquals(Collections.singleton(this.pollsExtension.getId()), licensedExtensions);
+        assertEquals(Collections.singleton(this.pollsExtension.getId()),
+            this.licensedExtensionManager.getLicensedExtensions(MAIN));
+        assertEquals(Collections.emptySet(), this.licensedExtensionManager.getLicensedExtensions("other"));
+
+        // The free extension doesn't depend on the licensor API.
+        this.licensedExtensionManager.updateLicensedExtensions(this.freeExtension);
+        assertSame(licensedExtensions, this.licensedExtensionManager.getLicensedExtensions());
+        verify(this.installedExtensionRepository, times(1)).getBackwardDependencies(this.licensorExtension.getId());
+
+        // A licensed extension is upgraded without changing the licensed extensions.
+        ExtensionDependency licensorDependency = mock(ExtensionDependency.class);
+        when(licensorDependency.getId()).thenReturn(DefaultLicensedExtensionManager.LICENSOR_EXTENSION_ID);
+        when(this.ideasExtension.getDependencies()).thenReturn(Collections.singletonList(licensorDependency));
+        this.licensedExtensionManager.updateLicensedExtensions(this.ideasExtension);
+        assertSame(licensedExtensions, this.licensedExtensionManager.getLicensedExtensions());
+        verify(this.installedExtensionRepository, times(2)).getBackwardDependencies(this.licensorExtension.getId());
+
+        // A licensed extension is installed.
+        this.licensorDependencies.put(MAIN, Arrays.asList(this.pollsExtension, this.ideasExtension));
+        this.licensedExtensionManager.updateLicensedExtensions(this.ideasExtension);
+        assertEquals(new HashSet<>(Arrays.asList(this.pollsExtension.getId(), this.ideasExtension.getId())),
+            this.licensedExtensionManager.getLicensedExtensions(MAIN));
+    }
+
     @Test
     public void getLicensedDependencies() throws Exception
     {
@@ -42,6 +42,8 @@ import org.xwiki.test.junit5.mockito.MockComponent;
 import com.xwiki.licensing.internal.helpers.LicensingNotificationConfigurationSource;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.Mockito.when;
 
@@ -181,4 +183,14 @@ class DefaultLicensingConfigurationTest
 
         assertEquals(storeFile, this.licensingConfiguration.getLocalStorePath());
     }
+
+    @Test
+    void isOffline()
+    {
+        when(this.configurationSource.getProperty("licensing.offline", false)).thenReturn(false);
+        assertFalse(this.licensingConfiguration.isOffline());
+
+        when(this.configurationSource.getProperty("licensing.offline", false)).thenReturn(true);
+        assertTrue(this.licensingConfiguration.isOffline());
+    }
 }
@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.extension.ExtensionDependency;
+import org.xwiki.extension.ExtensionId;
+import org.xwiki.extension.InstalledExtension;
+import org.xwiki.extension.repository.InstalledExtensionRepository;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.licensing.internal.LicensedDependenciesMap.LicensedExtensionParent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ExtensionDependencyGraph}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ExtensionDependencyGraphTest
+{
+    private static final String WIKI = "wiki:xwiki";
+
+    @InjectMockComponents
+    private ExtensionDependencyGraph graph;
+
+    @MockComponent
+    private InstalledExtensionRepository installedExtensionRepository;
+
+    @Mock
+    private InstalledExtension appExtension;
+
+    @Mock
+    private InstalledExtension freeExtension;
+
+    @Mock
+    private ExtensionDependency freeDependency;
+
+    @Mock
+    private InstalledExtension proExtension;
+
+    @Mock
+    private ExtensionDependency proDependency;
+
+    private ExtensionId app = new ExtensionId("app", "1.0");
+
+    private ExtensionId free = new ExtensionId("free", "1.0");
+
+    private ExtensionId pro = new ExtensionId("pro", "1.0");
+
+    @BeforeEach
+    void configure()
+    {
+        // app -> free -> pro
+        when(this.appExtension.getId()).thenReturn(this.app);
+        when(this.appExtension.getDependencies()).thenReturn(List.of(this.freeDependency));
+        when(this.appExtension.getNamespaces()).thenReturn(Collections.singletonList(WIKI));
+        when(this.installedExtensionRepository.getInstalledExtension(this.app)).thenReturn(this.appExtension);
+        when(this.installedExtensionRepository.getInstalledExtension(this.app.getId(), WIKI))
+            .thenReturn(this.appExtension);
+
+        when(this.freeExtension.getId()).thenReturn(this.free);
+        when(this.freeExtension.getDependencies()).thenReturn(List.of(this.proDependency));
+        when(this.freeDependency.getId()).thenReturn(this.free.getId());
+        when(this.installedExtensionRepository.getInstalledExtension(this.free.getId(), WIKI))
+            .thenReturn(this.freeExtension);
+
+        // The pro extension is installed on the root namespace.
+        when(this.proExtension.getId()).thenReturn(this.pro);
+        when(this.proDependency.getId()).thenReturn(this.pro.getId());
+        when(this.proExtension.getNamespaces()).thenReturn(null);
+        when(this.installedExtensionRepository.getInstalledExtension(this.pro)).thenReturn(this.proExtension);
+        when(this.installedExtensionRepository.getInstalledExtension(this.pro.getId(), null))
+            .thenReturn(this.proExtension);
+        when(this.installedExtensionRepository.getInstalledExtension(this.pro.getId(), WIKI))
+            .thenReturn(this.proExtension);
+    }
+
+    @Test
+    void graphQueries()
+    {
+        List<ExtensionId> licensedExtensions = Arrays.asList(this.app, this.pro);
+
+        assertEquals(Set.of(this.pro), this.graph.getLicensedDependencies(List.of(this.freeDependency), WIKI,
+            licensedExtensions));
+        assertEquals(Set.of(this.app), this.graph.getMandatoryLicensedExtensions(licensedExtensions));
+        assertEquals(Map.of(new LicensedExtensionParent(null, this.app.getId(), WIKI), Set.of(this.pro.getId()),
+            new LicensedExtensionParent(null, this.pro.getId(), null), Set.of()),
+            this.graph.getClosestLicensedDependencies(this.graph.groupByNamespace(licensedExtensions),
+                licensedExtensions));
+        assertEquals(Set.of(this.app.getId(), this.free.getId()),
+            this.graph.getDependents(List.of(this.free.getId()), WIKI));
+        assertEquals(Set.of(this.app.getId()), this.graph.getBackwardDependencies(this.free.getId(), WIKI));
+        assertEquals(Set.of(this.free.getId()), this.graph.getBackwardDependencies(this.pro.getId(), WIKI));
+
+        // Each extension is resolved only once from each namespace.
+        verify(this.installedExtensionRepository, times(1)).getInstalledExtension(this.free.getId(), WIKI);
+        verify(this.installedExtensionRepository, times(1)).getInstalledExtension(this.pro.getId(), WIKI);
+    }
+
+    @Test
+    void licensedExtensionClosure()
+    {
+        List<ExtensionId> licensedExtensions = Arrays.asList(this.app, this.pro);
+        LicensedExtensionClosure closure = this.graph.getLicensedExtensionClosure(licensedExtensions);
+
+        assertEquals(this.graph.getVersion(), closure.getGraphVersion());
+        assertTrue(closure.isMandatory(this.app));
+        assertFalse(closure.isMandatory(this.pro));
+        assertFalse(closure.isMandatory(this.free));
+        assertEquals(Set.of(this.app), closure.getMandatoryLicensedExtensions());
+        assertEquals(Set.of(this.pro), closure.getLicensedDependencies(this.app, WIKI));
+        assertEquals(Set.of(), closure.getLicensedDependencies(this.pro, null));
+        // The app extension is not installed on the root namespace.
+        assertNull(closure.getLicensedDependencies(this.app, null));
+
+        this.graph.update(this.freeExtension, WIKI);
+        assertEquals(closure.getGraphVersion() + 1, this.graph.getVersion());
+    }
+
+    @Test
+    void updateOnlyTheChangedExtension()
+    {
+        List<ExtensionId> licensedExtensions = Arrays.asList(this.app, this.pro);
+        assertEquals(Set.of(this.app), this.graph.getMandatoryLicensedExtensions(licensedExtensions));
+
+        // The free extension is uninstalled.
+        when(this.installedExtensionRepository.getInstalledExtension(this.free.getId(), WIKI)).thenReturn(null);
+        this.graph.update(this.freeExtension, WIKI);
+
+        assertNull(this.graph.getNode(this.free.getId(), WIKI));
+        assertEquals(Set.of(), this.graph.getBackwardDependencies(this.pro.getId(), WIKI));
+        assertEquals(Set.of(this.app, this.pro), this.graph.getMandatoryLicensedExtensions(licensedExtensions));
+
+        verify(this.installedExtensionRepository, times(2)).getInstalledExtension(this.free.getId(), WIKI);
+        verify(this.installedExtensionRepository, times(1)).getInstalledExtension(this.app.getId(), WIKI);
+        verify(this.installedExtensionRepository, times(1)).getInstalledExtension(this.pro.getId(), WIKI);
+    }
+
+    @Test
+    void updateWhileResolvingExtension() throws Exception
+    {
+        // The free extension is uninstalled while it is being resolved, after its previous version was read.
+        AtomicInteger resolutions = new AtomicInteger();
+        Thread updateThread = new Thread(() -> this.graph.update(this.freeExtension, WIKI));
+        when(this.installedExtensionRepository.getInstalledExtension(this.free.getId(), WIKI)).then(invocation -> {
+            if (resolutions.getAndIncrement() > 0) {
+                return null;
+            }
+            updateThread.start();
+            // Give the update a chance to be done before the resolved node is cached.
+            updateThread.join(100);
+            return this.freeExtension;
+        });
+
+        assertEquals(this.free, this.graph.getNode(this.free.getId(), WIKI).getId());
+        updateThread.join();
+
+        // The update is done after the node was cached, so the stale node is removed.
+        assertNull(this.graph.getNode(this.free.getId(), WIKI));
+        assertEquals(Set.of(), this.graph.getBackwardDependencies(this.pro.getId(), WIKI));
+    }
+
+    @Test
+    void traverseLongDependencyChain()
+    {
+        // chain-0 -> chain-1 -> ... -> chain-N, where only the last extension is licensed.
+        int length = 10000;
+        when(this.installedExtensionRepository.getInstalledExtension(startsWith("chain-"), eq(WIKI)))
+            .then(invocation -> {
+                String id = invocation.getArgument(0);
+                int index = Integer.parseInt(id.substring("chain-".length()));
+                InstalledExtension extension = mock(InstalledExtension.class);
+                when(extension.getId()).thenReturn(new ExtensionId(id, "1.0"));
+                if (index < length) {
+                    ExtensionDependency dependency = mock(ExtensionDependency.class);
+                    when(dependency.getId()).thenReturn("chain-" + (index + 1));
+                    when(extension.getDependencies()).thenReturn(List.of(dependency));
+                }
+                return extension;
+            });
+        ExtensionDependency first = mock(ExtensionDependency.class);
+        when(first.getId()).thenReturn("chain-0");
+        ExtensionId last = new ExtensionId("chain-" + length, "1.0");
+
+        assertEquals(Set.of(last), this.graph.getLicensedDependencies(List.of(first), WIKI, Set.of(last)));
+    }
+}
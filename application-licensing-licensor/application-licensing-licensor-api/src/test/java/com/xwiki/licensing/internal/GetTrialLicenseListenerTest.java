@@ -19,6 +19,7 @@
  */
 package com.xwiki.licensing.internal;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -27,11 +28,16 @@ import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.extension.ExtensionDependency;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.extension.InstalledExtension;
@@ -40,6 +46,8 @@ import org.xwiki.extension.repository.internal.installed.DefaultInstalledExtensi
 import org.xwiki.extension.version.Version;
 import org.xwiki.job.Request;
 import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 /**
@@ -47,11 +55,12 @@ import org.xwiki.test.mockito.MockitoComponentMockingRule;
  * 
  * @version $Id$
  */
+@ComponentList(ExtensionDependencyGraph.class)
 public class GetTrialLicenseListenerTest
 {
     @Rule
-    public MockitoComponentMockingRule<GetTrialLicenseListener> mocker =
-        new MockitoComponentMockingRule<>(GetTrialLicenseListener.class);
+    public MockitoComponentMockingRule<GetTrialLicenseListener> mocker = new MockitoComponentMockingRule<>(
+        GetTrialLicenseListener.class, Arrays.asList(ExtensionDependencyGraph.class));
 
     TrialLicenseGenerator trialLicenseGenerator;
 
@@ -75,6 +84,14 @@ public class GetTrialLicenseListenerTest
 
     InstalledExtension installedTransitiveDependency;
 
+    @BeforeComponent
+    public void registerComponents() throws Exception
+    {
+        // Used by the extension dependency graph to run the traversals of the namespaces in parallel.
+        this.mocker.registerMockComponent(Execution.class);
+        this.mocker.registerMockComponent(ExecutionContextManager.class);
+    }
+
     @Before
     public void configure() throws Exception
     {
@@ -83,6 +100,13 @@ public class GetTrialLicenseListenerTest
         this.extensionId = new ExtensionId("application-test", "1.0");
         this.trialLicenseGenerator = this.mocker.getInstance(TrialLicenseGenerator.class);
 
+        // Execute the licensing work right away.
+        LicensingWorkQueue workQueue = this.mocker.getInstance(LicensingWorkQueue.class);
+        when(workQueue.submitAfterAll(any(), any(), any())).then(invocation -> {
+            invocation.<Runnable>getArgument(2).run();
+            return CompletableFuture.completedFuture(null);
+        });
+
         Request request = mock(Request.class);
         List<ExtensionId> extensions = Arrays.asList(this.extensionId);
 
@@ -134,8 +158,7 @@ public class GetTrialLicenseListenerTest
 
         this.mocker.getComponentUnderTest().onEvent(this.job, null, null);
 
-        verify(this.trialLicenseGenerator, times(1)).generateTrialLicense(this.extensionId);
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.dependencyId);
+        verify(this.trialLicenseGenerator, times(1)).generateTrialLicenses(Collections.singleton(this.extensionId));
     }
 
     @Test
@@ -146,7 +169,7 @@ public class GetTrialLicenseListenerTest
 
         this.mocker.getComponentUnderTest().onEvent(this.job, null, null);
 
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.extensionId);
+        verify(this.trialLicenseGenerator, never()).generateTrialLicenses(any());
     }
 
     @Test
@@ -157,8 +180,7 @@ public class GetTrialLicenseListenerTest
 
         this.mocker.getComponentUnderTest().onEvent(this.job, null, null);
 
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.extensionId);
-        verify(this.trialLicenseGenerator, times(1)).generateTrialLicense(this.dependencyId);
+        verify(this.trialLicenseGenerator, times(1)).generateTrialLicenses(Collections.singleton(this.dependencyId));
     }
 
     @Test
@@ -170,9 +192,8 @@ public class GetTrialLicenseListenerTest
 
         this.mocker.getComponentUnderTest().onEvent(this.job, null, null);
 
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.extensionId);
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.dependencyId);
-        verify(this.trialLicenseGenerator, times(1)).generateTrialLicense(this.transitiveDependencyId);
+        verify(this.trialLicenseGenerator, times(1))
+            .generateTrialLicenses(Collections.singleton(this.transitiveDependencyId));
     }
 
     @Test
@@ -186,9 +207,7 @@ public class GetTrialLicenseListenerTest
 
         this.mocker.getComponentUnderTest().onEvent(this.job, null, null);
 
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.extensionId);
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.dependencyId);
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.transitiveDependencyId);
+        verify(this.trialLicenseGenerator, never()).generateTrialLicenses(any());
         verify(this.trialLicenseGenerator, times(1)).canGenerateTrialLicense(this.transitiveDependencyId);
         verify(this.trialLicenseGenerator, times(1)).canGenerateTrialLicense(this.dependencyId);
     }
@@ -202,7 +221,27 @@ public class GetTrialLicenseListenerTest
 
         this.mocker.getComponentUnderTest().onEvent(this.job, null, null);
 
-        verify(this.trialLicenseGenerator, never()).generateTrialLicense(this.extensionId);
-        verify(this.trialLicenseGenerator, times(1)).generateTrialLicense(this.dependencyId);
+        verify(this.trialLicenseGenerator, times(1)).generateTrialLicenses(Collections.singleton(this.dependencyId));
+    }
+
+    @Test
+    public void onEventWithSeveralPaidApps() throws Exception
+    {
+        when(this.job.getRequest().getProperty("extensions"))
+            .thenReturn(Arrays.asList(this.extensionId, this.dependencyId, this.extensionId));
+        InstalledExtensionRepository installedExtensionRepository =
+            this.mocker.getInstance(InstalledExtensionRepository.class);
+        when(installedExtensionRepository.getInstalledExtension(this.dependencyId))
+            .thenReturn(this.installedDependency);
+        when(this.trialLicenseGenerator.canGenerateTrialLicense(this.extensionId)).thenReturn(true);
+        when(this.trialLicenseGenerator.canGenerateTrialLicense(this.dependencyId)).thenReturn(true);
+
+        this.mocker.getComponentUnderTest().onEvent(this.job, null, null);
+
+        // All the trial licenses are requested together, so that the licenses are updated once.
+        verify(this.trialLicenseGenerator, times(1))
+            .generateTrialLicenses(new LinkedHashSet<>(Arrays.asList(this.extensionId, this.dependencyId)));
+        verify(this.trialLicenseGenerator, times(1)).canGenerateTrialLicense(this.extensionId);
+        verify(this.trialLicenseGenerator, never()).generateTrialLicense(any());
     }
 }
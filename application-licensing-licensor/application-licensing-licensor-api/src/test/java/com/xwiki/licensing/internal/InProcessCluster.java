@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.properties.converter.Converter;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseManager;
+import com.xwiki.licensing.internal.UserCounter.UserListener;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * In-process stand-in for a cluster of XWiki instances, used to test the propagation of the licensing state between
+ * the cluster members. Each node has its own component manager holding the real licensing listeners and user counter,
+ * and mocks for their dependencies. The serializable events notified on a node are delivered, serialized, to the
+ * listeners of the other nodes while they are in remote state, like the remote observation manager does.
+ *
+ * @version $Id$
+ */
+public class InProcessCluster
+{
+    private final List<Node> nodes = new ArrayList<>();
+
+    /**
+     * A member of the cluster.
+     */
+    public final class Node
+    {
+        private final MockitoComponentManager componentManager = new MockitoComponentManager();
+
+        private final List<EventListener> listeners = new ArrayList<>();
+
+        private final Query userCountQuery = mock(Query.class, RETURNS_SELF);
+
+        private boolean remoteState;
+
+        private Node() throws Exception
+        {
+            WikiDescriptorManager wikiDescriptorManager =
+                this.componentManager.registerMockComponent(WikiDescriptorManager.class);
+            when(wikiDescriptorManager.getAllIds()).thenReturn(Collections.singletonList("wiki"));
+            QueryManager queryManager = this.componentManager.registerMockComponent(QueryManager.class);
+            when(queryManager.createQuery(anyString(), any())).thenReturn(this.userCountQuery);
+            this.componentManager.registerMockComponent(QueryFilter.class, "count");
+            this.componentManager.registerMockComponent(QueryFilter.class, "unique");
+            this.componentManager.registerMockComponent(Execution.class);
+            this.componentManager.registerMockComponent(ExecutionContextManager.class);
+            this.componentManager.registerMockComponent(LicenseManager.class);
+            this.componentManager.registerMockComponent(new DefaultParameterizedType(null, Converter.class,
+                License.class));
+
+            RemoteObservationManagerContext remoteObservationManagerContext =
+                this.componentManager.registerMockComponent(RemoteObservationManagerContext.class);
+            when(remoteObservationManagerContext.isRemoteState()).then(invocation -> this.remoteState);
+            ObservationManager observationManager =
+                this.componentManager.registerMockComponent(ObservationManager.class);
+            doAnswer(invocation -> {
+                notify(invocation.getArgument(0), invocation.getArgument(1));
+                return null;
+            }).when(observationManager).notify(any(Event.class), any());
+
+            this.componentManager.registerComponent(UserCounter.class);
+            this.componentManager.registerComponent(UserListener.class);
+            this.componentManager.registerComponent(LicensingClusterListener.class);
+            this.listeners.add(this.componentManager.getInstance(EventListener.class, UserListener.HINT));
+            this.listeners.add(this.componentManager.getInstance(EventListener.class, LicensingClusterListener.HINT));
+        }
+
+        /**
+         * @return the component manager of this node
+         */
+        public MockitoComponentManager getComponentManager()
+        {
+            return this.componentManager;
+        }
+
+        /**
+         * @return the query used by this node to count the users, which returns no result by default
+         */
+        public Query getUserCountQuery()
+        {
+            return this.userCountQuery;
+        }
+
+        /**
+         * Notify an event on this node, which is then sent to the other nodes if it can be serialized.
+         *
+         * @param event the event
+         * @param source the event source
+         */
+        public void notify(Event event, Object source)
+        {
+            deliver(event, source);
+
+            if (!this.remoteState && event instanceof Serializable) {
+                for (Node node : InProcessCluster.this.nodes) {
+                    if (node != this) {
+                        // Only the event is sent, the source is converted by the remote observation manager.
+                        node.receive(SerializationUtils.clone((Serializable) event));
+                    }
+                }
+            }
+        }
+
+        private void receive(Serializable event)
+        {
+            this.remoteState = true;
+            try {
+                deliver((Event) event, null);
+            } finally {
+                this.remoteState = false;
+            }
+        }
+
+        private void deliver(Event event, Object source)
+        {
+            for (EventListener listener : this.listeners) {
+                if (listener.getEvents().stream().anyMatch(listenedEvent -> listenedEvent.matches(event))) {
+                    listener.onEvent(event, source, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a new member to the cluster.
+     *
+     * @return the new node
+     * @throws Exception if the node components fail to be initialized
+     */
+    public Node addNode() throws Exception
+    {
+        Node node = new Node();
+        this.nodes.add(node);
+        return node;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.crypto.BinaryStringEncoder;
+import org.xwiki.properties.converter.Converter;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseImportResult;
+import com.xwiki.licensing.LicenseImportStatus;
+import com.xwiki.licensing.LicenseManager;
+import com.xwiki.licensing.SignedLicense;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LicenseBundleImporter}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList(LicenseVerificationExecutor.class)
+class LicenseBundleImporterTest
+{
+    private static final byte[] ADDED_DATA = {0x30, 1};
+
+    private static final byte[] NOT_ADDED_DATA = {0x30, 2};
+
+    private static final byte[] UNSIGNED_DATA = {0x30, 3};
+
+    @InjectMockComponents
+    private LicenseBundleImporter importer;
+
+    @MockComponent
+    private Provider<LicenseManager> licenseManagerProvider;
+
+    @MockComponent
+    private LicenseManager licenseManager;
+
+    @MockComponent
+    @Named("Base64")
+    private BinaryStringEncoder base64decoder;
+
+    @MockComponent
+    private Converter<License> converter;
+
+    private SignedLicense addedLicense = mock(SignedLicense.class);
+
+    private SignedLicense notAddedLicense = mock(SignedLicense.class);
+
+    private License unsignedLicense = new License();
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        when(this.licenseManagerProvider.get()).thenReturn(this.licenseManager);
+        when(this.base64decoder.decode(anyString()))
+            .then(invocation -> Base64.getDecoder().decode((String) invocation.getArgument(0)));
+
+        when(this.addedLicense.getId()).thenReturn(new LicenseId());
+        when(this.notAddedLicense.getId()).thenReturn(new LicenseId());
+        this.unsignedLicense.setId(new LicenseId());
+        when(this.converter.convert(License.class, ADDED_DATA)).thenReturn(this.addedLicense);
+        when(this.converter.convert(License.class, NOT_ADDED_DATA)).thenReturn(this.notAddedLicense);
+        when(this.converter.convert(License.class, UNSIGNED_DATA)).thenReturn(this.unsignedLicense);
+
+        when(this.licenseManager.add(anyCollection())).thenReturn(Collections.singletonList(this.addedLicense));
+    }
+
+    @Test
+    void importTextBundle() throws Exception
+    {
+        String bundle = String.join("\n", "# Licenses of the instance", encode(ADDED_DATA), "", encode(NOT_ADDED_DATA),
+            "not a license", "  " + encode(UNSIGNED_DATA) + "  ");
+
+        List<LicenseImportResult> results =
+            this.importer.importLicenses(new ByteArrayInputStream(bundle.getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals(4, results.size());
+        assertResult(results.get(0), "line 2", this.addedLicense, LicenseImportStatus.ADDED);
+        assertResult(results.get(1), "line 4", this.notAddedLicense, LicenseImportStatus.NOT_ADDED);
+        assertResult(results.get(2), "line 5", null, LicenseImportStatus.INVALID);
+        assertResult(results.get(3), "line 6", this.unsignedLicense, LicenseImportStatus.NOT_ADDED);
+        assertEquals("The license is not signed by a trusted authority.", results.get(3).getMessage());
+
+        // The valid licenses are added at once.
+        verify(this.licenseManager, times(1))
+            .add(Arrays.asList(this.addedLicense, this.notAddedLicense, this.unsignedLicense));
+    }
+
+    @Test
+    void importArchive() throws Exception
+    {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("licenses/"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("licenses/added.license"));
+            zip.write(ADDED_DATA);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("licenses/notAdded.txt"));
+            zip.write((encode(NOT_ADDED_DATA) + "\n").getBytes(StandardCharsets.US_ASCII));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("licenses/empty.license"));
+            zip.closeEntry();
+        }
+
+        List<LicenseImportResult> results =
+            this.importer.importLicenses(new ByteArrayInputStream(archive.toByteArray()));
+
+        assertEquals(3, results.size());
+        assertResult(results.get(0), "licenses/added.license", this.addedLicense, LicenseImportStatus.ADDED);
+        assertResult(results.get(1), "licenses/notAdded.txt", this.notAddedLicense, LicenseImportStatus.NOT_ADDED);
+        assertResult(results.get(2), "licenses/empty.license", null, LicenseImportStatus.INVALID);
+
+        verify(this.licenseManager, times(1)).add(Arrays.asList(this.addedLicense, this.notAddedLicense));
+    }
+
+    @Test
+    void importBundleWithoutLicenses() throws Exception
+    {
+        List<LicenseImportResult> results = this.importer.importLicenses(
+            new ByteArrayInputStream("# No licenses".getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals(0, results.size());
+        verify(this.licenseManager, never()).add(anyCollection());
+    }
+
+    private String encode(byte[] data)
+    {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    private void assertResult(LicenseImportResult result, String entry, License license, LicenseImportStatus status)
+    {
+        assertEquals(entry, result.getEntry());
+        assertSame(license, result.getLicense());
+        assertEquals(status, result.getStatus());
+        if (status == LicenseImportStatus.ADDED) {
+            assertNull(result.getMessage());
+        } else {
+            assertEquals(license == null ? null : license.getId(), result.getLicenseId());
+        }
+    }
+}
@@ -19,9 +19,12 @@
  */
 package com.xwiki.licensing.internal;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.inject.Provider;
 
@@ -43,6 +46,8 @@ import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensedFeatureId;
 import com.xwiki.licensing.Licensor;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -65,6 +70,12 @@ public class LicenseRenewListenerTest
     @MockComponent
     private LicenseUpdater licenseUpdater;
 
+    @MockComponent
+    private LicenseUpdateScheduler licenseUpdateScheduler;
+
+    @MockComponent
+    private LicensingWorkQueue workQueue;
+
     @Mock
     private InstalledExtension installedExtension;
 
@@ -81,6 +92,11 @@ public class LicenseRenewListenerTest
     void config() throws Exception
     {
         when(licensorProvider.get()).thenReturn(licensor);
+        when(licenseUpdateScheduler.scheduleUpdate()).thenReturn(CompletableFuture.completedFuture(null));
+        when(workQueue.submitAfterAll(any(), any(), any())).then(invocation -> {
+            invocation.<Runnable>getArgument(2).run();
+            return CompletableFuture.completedFuture(null);
+        });
     }
 
     @Test
@@ -89,15 +105,15 @@ public class LicenseRenewListenerTest
         ExtensionId extensionId = new ExtensionId("application-test", "1.0");
         ExtensionInstalledEvent event = new ExtensionInstalledEvent(extensionId, null);
         when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
-        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
+        when(licensedExtensionManager.isMandatoryLicensedExtension(extensionId)).thenReturn(true);
 
         when(installedExtension.getId()).thenReturn(extensionId);
         when(licensor.getLicense(extensionId)).thenReturn(license);
 
         renewListener.onEvent(event, installedExtension, null);
 
-        verify(licenseUpdater).updateLicenses();
-        verify(licenseUpdater).renewLicense(extensionId);
+        verify(licenseUpdateScheduler).scheduleUpdate();
+        verify(licenseUpdater).renewLicenses(Collections.singleton(extensionId));
     }
 
     @Test
@@ -106,9 +122,7 @@ public class LicenseRenewListenerTest
         ExtensionId extensionId = new ExtensionId("application-test", "1.2");
         ExtensionUpgradedEvent event = new ExtensionUpgradedEvent(extensionId, null);
         when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
-        // This extension should be considered mandatory no matter the specified version.
-        ExtensionId extensionIdV2 = new ExtensionId("application-test", "2.0");
-        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.singletonList(extensionIdV2));
+        when(licensedExtensionManager.isMandatoryLicensedExtension(extensionId)).thenReturn(true);
         when(licensor.getLicense(extensionId)).thenReturn(license);
 
         when(installedExtension.getId()).thenReturn(extensionId);
@@ -125,8 +139,8 @@ public class LicenseRenewListenerTest
 
         renewListener.onEvent(event, installedExtension, Collections.singletonList(prevInstalledExtension));
 
-        verify(licenseUpdater).updateLicenses();
-        verify(licenseUpdater).renewLicense(extensionId);
+        verify(licenseUpdateScheduler).scheduleUpdate();
+        verify(licenseUpdater).renewLicenses(Collections.singleton(extensionId));
     }
 
     @Test
@@ -135,7 +149,7 @@ public class LicenseRenewListenerTest
         ExtensionId extensionId = new ExtensionId("application-test", "1.2");
         ExtensionUpgradedEvent event = new ExtensionUpgradedEvent(extensionId, null);
         when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
-        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
+        when(licensedExtensionManager.isMandatoryLicensedExtension(extensionId)).thenReturn(true);
         when(licensor.getLicense(extensionId)).thenReturn(license);
 
         when(installedExtension.getId()).thenReturn(extensionId);
@@ -155,8 +169,8 @@ public class LicenseRenewListenerTest
 
         renewListener.onEvent(event, installedExtension, Collections.singletonList(prevInstalledExtension));
 
-        verify(licenseUpdater).updateLicenses();
-        verify(licenseUpdater).renewLicense(extensionId);
+        verify(licenseUpdateScheduler).scheduleUpdate();
+        verify(licenseUpdater).renewLicenses(Collections.singleton(extensionId));
     }
 
     @Test
@@ -165,7 +179,7 @@ public class LicenseRenewListenerTest
         ExtensionId extensionId = new ExtensionId("application-test", "1.2");
         ExtensionUpgradedEvent event = new ExtensionUpgradedEvent(extensionId, null);
         when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
-        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
+        when(licensedExtensionManager.isMandatoryLicensedExtension(extensionId)).thenReturn(true);
         when(licensor.getLicense(extensionId)).thenReturn(license);
 
         when(installedExtension.getId()).thenReturn(extensionId);
@@ -175,8 +189,8 @@ public class LicenseRenewListenerTest
 
         renewListener.onEvent(event, installedExtension, Collections.singletonList(prevInstalledExtension));
 
-        verify(licenseUpdater).updateLicenses();
-        verify(licenseUpdater, never()).renewLicense(extensionId);
+        verify(licenseUpdateScheduler).scheduleUpdate();
+        verify(licenseUpdater, never()).renewLicenses(any());
     }
 
     @Test
@@ -185,7 +199,7 @@ public class LicenseRenewListenerTest
         ExtensionId extensionId = new ExtensionId("application-test", "1.2");
         ExtensionUpgradedEvent event = new ExtensionUpgradedEvent(extensionId, null);
         when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
-        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
+        when(licensedExtensionManager.isMandatoryLicensedExtension(extensionId)).thenReturn(true);
         when(licensor.getLicense(extensionId)).thenReturn(license);
 
         when(installedExtension.getId()).thenReturn(extensionId);
@@ -203,8 +217,8 @@ public class LicenseRenewListenerTest
 
         renewListener.onEvent(event, installedExtension, Collections.singletonList(prevInstalledExtension));
 
-        verify(licenseUpdater).updateLicenses();
-        verify(licenseUpdater, never()).renewLicense(extensionId);
+        verify(licenseUpdateScheduler).scheduleUpdate();
+        verify(licenseUpdater, never()).renewLicenses(any());
     }
 
     @Test
@@ -213,13 +227,41 @@ public class LicenseRenewListenerTest
         ExtensionId extensionId = new ExtensionId("application-test", "1.2");
         ExtensionUpgradedEvent event = new ExtensionUpgradedEvent(extensionId, null);
         when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
-        when(licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(Collections.singletonList(extensionId));
+        when(licensedExtensionManager.isMandatoryLicensedExtension(extensionId)).thenReturn(true);
         when(licensor.getLicense(extensionId)).thenReturn(null);
         when(installedExtension.getId()).thenReturn(extensionId);
 
         renewListener.onEvent(event, installedExtension, Collections.singletonList(prevInstalledExtension));
 
-        verify(licenseUpdater).updateLicenses();
-        verify(licenseUpdater, never()).renewLicense(extensionId);
+        verify(licenseUpdateScheduler).scheduleUpdate();
+        verify(licenseUpdater, never()).renewLicenses(any());
+    }
+
+    @Test
+    void onEventsWithCoalescedUpdate() throws Exception
+    {
+        CompletableFuture<Void> update = new CompletableFuture<>();
+        when(licenseUpdateScheduler.scheduleUpdate()).thenReturn(update);
+
+        ExtensionId extensionId = new ExtensionId("application-test", "1.0");
+        ExtensionId otherExtensionId = new ExtensionId("application-other", "1.0");
+        when(licensedExtensionManager.getLicensedExtensions()).thenReturn(Arrays.asList(extensionId, otherExtensionId));
+        when(licensedExtensionManager.isMandatoryLicensedExtension(extensionId)).thenReturn(true);
+        when(licensedExtensionManager.isMandatoryLicensedExtension(otherExtensionId)).thenReturn(true);
+        when(installedExtension.getId()).thenReturn(extensionId);
+        when(licensor.getLicense(extensionId)).thenReturn(license);
+        InstalledExtension otherInstalledExtension = mock(InstalledExtension.class);
+        when(otherInstalledExtension.getId()).thenReturn(otherExtensionId);
+        when(licensor.getLicense(otherExtensionId)).thenReturn(license);
+
+        renewListener.onEvent(new ExtensionInstalledEvent(extensionId, null), installedExtension, null);
+        renewListener.onEvent(new ExtensionInstalledEvent(otherExtensionId, null), otherInstalledExtension, null);
+
+        // The licenses are checked once the licenses are updated.
+        verify(licenseUpdater, never()).renewLicenses(any());
+
+        update.complete(null);
+
+        verify(licenseUpdater).renewLicenses(new LinkedHashSet<>(Arrays.asList(extensionId, otherExtensionId)));
     }
 }
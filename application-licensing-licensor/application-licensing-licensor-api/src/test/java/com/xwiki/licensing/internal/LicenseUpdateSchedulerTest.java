@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.job.JobContext;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.licensing.LicenseUpdater;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LicenseUpdateScheduler}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class LicenseUpdateSchedulerTest
+{
+    @InjectMockComponents
+    private LicenseUpdateScheduler scheduler;
+
+    @MockComponent
+    private Provider<LicenseUpdater> licenseUpdaterProvider;
+
+    @MockComponent
+    private LicenseUpdater licenseUpdater;
+
+    @MockComponent
+    private JobContext jobContext;
+
+    @BeforeEach
+    void configure()
+    {
+        when(this.licenseUpdaterProvider.get()).thenReturn(this.licenseUpdater);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.scheduler.dispose();
+    }
+
+    @Test
+    void coalesceScheduledUpdates()
+    {
+        CompletableFuture<Void> update = this.scheduler.scheduleUpdate();
+        assertSame(update, this.scheduler.scheduleUpdate());
+        assertSame(update, this.scheduler.scheduleUpdate());
+        assertFalse(update.isDone());
+
+        // The pending update is executed right away.
+        assertSame(update, this.scheduler.updateNow());
+        assertTrue(update.isDone());
+        verify(this.licenseUpdater, times(1)).updateLicenses();
+
+        // The next request is served by a new update.
+        assertNotSame(update, this.scheduler.scheduleUpdate());
+    }
+
+    @Test
+    void updateNowWithoutPendingUpdate()
+    {
+        assertTrue(this.scheduler.updateNow().isDone());
+        assertTrue(this.scheduler.updateNow().isDone());
+
+        verify(this.licenseUpdater, times(2)).updateLicenses();
+    }
+
+    @Test
+    void updateFailure()
+    {
+        doThrow(new RuntimeException("store unavailable")).when(this.licenseUpdater).updateLicenses();
+
+        CompletableFuture<Void> update = this.scheduler.scheduleUpdate();
+        this.scheduler.updateNow();
+
+        assertTrue(update.isCompletedExceptionally());
+    }
+}
@@ -31,18 +31,25 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.Mock;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.extension.ExtensionDependency;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.extension.InstalledExtension;
 import org.xwiki.extension.repository.InstalledExtensionRepository;
 import org.xwiki.test.LogLevel;
+import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.junit5.LogCaptureExtension;
 import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -52,6 +59,7 @@ import static org.mockito.Mockito.when;
  * @since 1.6
  */
 @ComponentTest
+@ComponentList(ExtensionDependencyGraph.class)
 public class LicensedDependenciesMapTest
 {
     @InjectMockComponents
@@ -60,6 +68,16 @@ public class LicensedDependenciesMapTest
     @MockComponent
     private InstalledExtensionRepository installedExtensionRepository;
 
+    // Used by the extension dependency graph to run the traversals of the namespaces in parallel.
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
     @RegisterExtension
     private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.DEBUG);
 
@@ -90,6 +108,9 @@ public class LicensedDependenciesMapTest
     @Mock
     InstalledExtension contribExt;
 
+    @Mock
+    InstalledExtension pdfToolsExt;
+
     @Mock
     ExtensionDependency contribDep;
 
@@ -203,4 +224,43 @@ public class LicensedDependenciesMapTest
         licensedDependenciesMap.invalidateCache();
         assertEquals("Clear licensed dependency map cache.", this.logCapture.getMessage(this.logCapture.size() - 1));
     }
+
+    /**
+     * Verify that installing a licensed extension patches the cached map instead of computing it again.
+     */
+    @Test
+    void updateOnInstall() throws Exception
+    {
+        Collection<ExtensionId> allLicensedExtensions = List.of(poll, meet, pdf, diagram, proMacros);
+        licensedDependenciesMap.get(allLicensedExtensions);
+        long version = licensedDependenciesMap.getVersion();
+
+        // A new licensed extension depending on pdf is installed on the root namespace.
+        ExtensionId pdfTools = new ExtensionId("pdfTools", "1.0");
+        when(installedExtensionRepository.getInstalledExtension(pdfTools)).thenReturn(pdfToolsExt);
+        when(installedExtensionRepository.getInstalledExtension(pdfTools.getId(), null)).thenReturn(pdfToolsExt);
+        when(pdfToolsExt.getNamespaces()).thenReturn(null);
+        when(pdfToolsExt.getId()).thenReturn(pdfTools);
+        when(pdfToolsExt.getDependencies()).thenReturn(List.of(pdfDep));
+        when(pdfToolsExt.getName()).thenReturn("Pdf Tools");
+        this.componentManager.<ExtensionDependencyGraph>getInstance(ExtensionDependencyGraph.class)
+            .update(pdfToolsExt, null);
+
+        Collection<ExtensionId> newLicensedExtensions = List.of(poll, meet, pdf, diagram, proMacros, pdfTools);
+        licensedDependenciesMap.update(List.of(pdfToolsExt), null, () -> newLicensedExtensions);
+        assertEquals(version + 1, licensedDependenciesMap.getVersion());
+
+        this.logCapture.ignoreAllMessages();
+        Map<String, Set<LicensedDependenciesMap.LicensedExtensionParent>> result =
+            licensedDependenciesMap.get(newLicensedExtensions);
+        assertEquals("Licensed dependencies map is cached, returning it.",
+            this.logCapture.getMessage(this.logCapture.size() - 1));
+        assertEquals(Set.of(new LicensedDependenciesMap.LicensedExtensionParent("Pro Macros", proMacros.getId(), null),
+            new LicensedDependenciesMap.LicensedExtensionParent("Pdf Tools", pdfTools.getId(), null)),
+            result.get(pdf.getId()));
+        assertEquals(3, result.get(poll.getId()).size());
+
+        // The licensed extensions that don't depend on the new extension are not traversed again.
+        verify(installedExtensionRepository, times(1)).getInstalledExtension(meet.getId(), null);
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.properties.converter.Converter;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseManager;
+import com.xwiki.licensing.internal.UserCounter.UserListener;
+import com.xwiki.licensing.internal.event.LicenseAddedEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LicensingClusterListener}, using an {@link InProcessCluster}.
+ *
+ * @version $Id$
+ */
+class LicensingClusterListenerTest
+{
+    private InProcessCluster.Node firstNode;
+
+    private InProcessCluster.Node secondNode;
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        InProcessCluster cluster = new InProcessCluster();
+        this.firstNode = cluster.addNode();
+        this.secondNode = cluster.addNode();
+
+        when(this.firstNode.getUserCountQuery().execute()).thenReturn(Collections.singletonList(3L));
+        when(this.secondNode.getUserCountQuery().execute()).thenReturn(Collections.singletonList(3L));
+    }
+
+    @Test
+    void propagateUserCountChanges() throws Exception
+    {
+        UserCounter firstUserCounter = this.firstNode.getComponentManager().getInstance(UserCounter.class);
+        UserCounter secondUserCounter = this.secondNode.getComponentManager().getInstance(UserCounter.class);
+        assertEquals(3L, firstUserCounter.getUserCount());
+        assertEquals(3L, secondUserCounter.getUserCount());
+
+        // New active user created on the first node.
+        BaseObject userObject = mock(BaseObject.class);
+        when(userObject.getIntValue(UserListener.ACTIVE)).thenReturn(1);
+        this.firstNode.notify(new DocumentCreatedEvent(), mockUserDocument(userObject));
+
+        assertEquals(4L, firstUserCounter.getUserCount());
+        assertEquals(4L, secondUserCounter.getUserCount());
+        verify(this.secondNode.getUserCountQuery(), times(1)).execute();
+
+        // Invalidation requested on the second node.
+        secondUserCounter.invalidate();
+
+        assertEquals(3L, firstUserCounter.getUserCount());
+        assertEquals(3L, secondUserCounter.getUserCount());
+        verify(this.firstNode.getUserCountQuery(), times(2)).execute();
+        verify(this.secondNode.getUserCountQuery(), times(2)).execute();
+    }
+
+    @Test
+    void propagateAddedLicenses() throws Exception
+    {
+        byte[] encodedLicense = new byte[] { 1, 2, 3 };
+        License license = mock(License.class);
+        Converter<License> secondConverter = this.secondNode.getComponentManager()
+            .getInstance(new DefaultParameterizedType(null, Converter.class, License.class));
+        when(secondConverter.convert(License.class, encodedLicense)).thenReturn(license);
+
+        // The license is added by the license manager of the first node, which notifies the event.
+        this.firstNode.notify(new LicenseAddedEvent(encodedLicense), null);
+
+        LicenseManager firstLicenseManager = this.firstNode.getComponentManager().getInstance(LicenseManager.class);
+        verify(firstLicenseManager, never()).add(any());
+        LicenseManager secondLicenseManager = this.secondNode.getComponentManager().getInstance(LicenseManager.class);
+        verify(secondLicenseManager).add(license);
+    }
+
+    private XWikiDocument mockUserDocument(BaseObject userObject)
+    {
+        XWikiDocument originalDocument = mock(XWikiDocument.class);
+        when(originalDocument.getXObjects()).thenReturn(Collections.emptyMap());
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getOriginalDocument()).thenReturn(originalDocument);
+        when(document.getXObject(UserListener.USER_CLASS)).thenReturn(userObject);
+        when(document.getXObjects()).thenReturn(Collections.singletonMap(
+            new DocumentReference("wiki", "XWiki", "XWikiUsers"), Collections.singletonList(userObject)));
+        when(document.getDocumentReference()).thenReturn(new DocumentReference("wiki", "XWiki", "Alice"));
+        return document;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.crypto.signer.internal.cms.DefaultCMSSignedDataGenerator;
+import org.xwiki.extension.ExtensionId;
+import org.xwiki.extension.repository.InstalledExtensionRepository;
+import org.xwiki.instance.InstanceId;
+import org.xwiki.instance.InstanceIdManager;
+import org.xwiki.job.JobContext;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseManager;
+import com.xwiki.licensing.LicenseType;
+import com.xwiki.licensing.LicenseUpdater;
+import com.xwiki.licensing.LicensedExtensionManager;
+import com.xwiki.licensing.LicensingConfiguration;
+import com.xwiki.licensing.Licensor;
+import com.xwiki.licensing.SignedLicense;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils.StoreStatus;
+import com.xwiki.licensing.test.LicensingComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Load harness driving the licensor components that talk to the licensing store (license updater, trial license
+ * generator, update scheduler and HTTP client) against the {@link StandInStore}, with storms of extension events like
+ * the ones produced by concurrent install jobs. The licenses are signed with the test certificates and verified by the
+ * real license converter. The load is multiplied by the {@code licensing.loadTest.scale} system property (1 by
+ * default, so that the harness runs with the unit tests).
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@LicensingComponentList
+@ComponentList({
+    DefaultCMSSignedDataGenerator.class,
+    XmlStringLicenseSerializer.class,
+    HttpClientUtils.class,
+    DefaultLicenseUpdater.class,
+    LicenseVerificationExecutor.class,
+    LicenseUpdateScheduler.class,
+    TrialLicenseGenerator.class
+})
+class LicensingStoreLoadTest
+{
+    private static final int SCALE = Integer.getInteger("licensing.loadTest.scale", 1);
+
+    private static final int INSTALL_JOBS = 8 * SCALE;
+
+    private static final int EXTENSIONS_PER_JOB = 4;
+
+    private static final int EVENTS_PER_JOB = 50;
+
+    private static final int LICENSED_EXTENSIONS = INSTALL_JOBS * EXTENSIONS_PER_JOB;
+
+    private static final long STORE_LATENCY = 5;
+
+    private static final long TIMEOUT = 2;
+
+    private static final InstanceId INSTANCE_ID = new InstanceId("7237b65d-e5d6-4249-aa4f-7c732cba27e2");
+
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
+    @MockComponent
+    private LicensingConfiguration licensingConfig;
+
+    @MockComponent
+    private LicensedExtensionManager licensedExtensionManager;
+
+    @MockComponent
+    private InstalledExtensionRepository installedExtensionRepository;
+
+    @MockComponent
+    private InstanceIdManager instanceIdManager;
+
+    @MockComponent
+    private Licensor licensor;
+
+    @MockComponent
+    private LicenseManager licenseManager;
+
+    @MockComponent
+    private UserCounter userCounter;
+
+    @MockComponent
+    private JobContext jobContext;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    private StandInStore store;
+
+    private List<ExtensionId> extensions;
+
+    private final List<License> addedLicenses = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        this.store = new StandInStore();
+        this.store.setLatency(STORE_LATENCY);
+        this.store.setLicenseIssuer(new SignedLicenseIssuer(this.componentManager, INSTANCE_ID));
+
+        when(this.licensingConfig.getStoreUpdateURL()).thenReturn(this.store.getUpdateURL());
+        when(this.licensingConfig.getStoreRenewURL()).thenReturn(this.store.getRenewURL());
+        when(this.licensingConfig.getStoreTrialURL()).thenReturn(this.store.getTrialURL());
+        when(this.licensingConfig.getLicensingOwnerFirstName()).thenReturn("John");
+        when(this.licensingConfig.getLicensingOwnerLastName()).thenReturn("Doe");
+        when(this.licensingConfig.getLicensingOwnerEmail()).thenReturn("john.doe@example.com");
+        when(this.instanceIdManager.getInstanceId()).thenReturn(INSTANCE_ID);
+        when(this.userCounter.getUserCount()).thenReturn(10L);
+
+        this.extensions = IntStream.range(0, LICENSED_EXTENSIONS)
+            .mapToObj(index -> new ExtensionId("application-load-" + index, "1.0")).collect(Collectors.toList());
+        when(this.licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(this.extensions);
+        when(this.licensor.getLicense(any(ExtensionId.class))).thenReturn(License.UNLICENSED);
+
+        when(this.licenseManager.add(any(License.class))).then(invocation -> {
+            this.addedLicenses.add(invocation.getArgument(0));
+            return true;
+        });
+        when(this.licenseManager.add(anyCollection())).then(invocation -> {
+            Collection<License> licenses = invocation.getArgument(0);
+            this.addedLicenses.addAll(licenses);
+            return licenses;
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        this.componentManager.<LicenseUpdateScheduler>getInstance(LicenseUpdateScheduler.class).dispose();
+        this.store.close();
+    }
+
+    @Test
+    void installJobStorm() throws Exception
+    {
+        LicenseUpdateScheduler scheduler = this.componentManager.getInstance(LicenseUpdateScheduler.class);
+        TrialLicenseGenerator trialLicenseGenerator = this.componentManager.getInstance(TrialLicenseGenerator.class);
+
+        List<Callable<Void>> installJobs = new ArrayList<>();
+        for (int job = 0; job < INSTALL_JOBS; job++) {
+            List<ExtensionId> jobExtensions =
+                this.extensions.subList(job * EXTENSIONS_PER_JOB, (job + 1) * EXTENSIONS_PER_JOB);
+            installJobs.add(() -> {
+                // The extension events of the install job.
+                List<CompletableFuture<Void>> updates = new ArrayList<>();
+                for (int event = 0; event < EVENTS_PER_JOB; event++) {
+                    updates.add(scheduler.scheduleUpdate());
+                }
+                // The install job is finished.
+                scheduler.updateNow();
+                trialLicenseGenerator.generateTrialLicenses(jobExtensions);
+
+                CompletableFuture.allOf(updates.toArray(new CompletableFuture[0])).get(TIMEOUT, TimeUnit.MINUTES);
+                return null;
+            });
+        }
+        runConcurrently(installJobs);
+
+        // The extension events are served by a few updates, and the trial licenses are requested once per extension.
+        assertTrue(this.store.getUpdateRequests() <= 2 * INSTALL_JOBS,
+            String.format("Too many update requests: [%s]", this.store.getUpdateRequests()));
+        assertEquals(LICENSED_EXTENSIONS, this.store.getTrialRequests());
+        assertEquals(LICENSED_EXTENSIONS, this.store.getIssuedLicenses().size());
+
+        // All the trial licenses are received, signed and verified.
+        this.componentManager.<LicenseUpdater>getInstance(LicenseUpdater.class).updateLicenses();
+        assertTrue(this.addedLicenses.stream().allMatch(license -> license instanceof SignedLicense
+            && license.getType() == LicenseType.TRIAL));
+        assertEquals(this.extensions.stream().map(ExtensionId::getId).collect(Collectors.toSet()),
+            getLicensedFeatures());
+    }
+
+    @Test
+    void renewStormWithStoreFailures() throws Exception
+    {
+        LicenseUpdater licenseUpdater = this.componentManager.getInstance(LicenseUpdater.class);
+        HttpClientUtils httpUtils = this.componentManager.getInstance(HttpClientUtils.class);
+
+        // A few failures, not enough to consider the store unavailable.
+        int failures = 3;
+        this.store.failNextRequests(failures);
+
+        List<Callable<Void>> renewals = new ArrayList<>();
+        for (int job = 0; job < INSTALL_JOBS; job++) {
+            List<ExtensionId> jobExtensions =
+                this.extensions.subList(job * EXTENSIONS_PER_JOB, (job + 1) * EXTENSIONS_PER_JOB);
+            renewals.add(() -> {
+                licenseUpdater.renewLicenses(jobExtensions);
+                return null;
+            });
+        }
+        runConcurrently(renewals);
+
+        // The store renews one license per request, and the renewed licenses of each job are added together.
+        assertEquals(LICENSED_EXTENSIONS, this.store.getRenewRequests());
+        assertEquals(failures, this.store.getFailedRequests());
+        assertEquals(StoreStatus.ONLINE, httpUtils.getStoreStatus());
+        assertEquals(LICENSED_EXTENSIONS - failures, this.addedLicenses.size());
+        verify(this.licenseManager, times(INSTALL_JOBS)).add(anyCollection());
+        verify(this.licenseManager, never()).add(any(License.class));
+        assertTrue(this.addedLicenses.stream().allMatch(license -> license instanceof SignedLicense
+            && license.getType() == LicenseType.PAID));
+    }
+
+    @Test
+    void updateStormWithUnavailableStore() throws Exception
+    {
+        LicenseUpdater licenseUpdater = this.componentManager.getInstance(LicenseUpdater.class);
+        HttpClientUtils httpUtils = this.componentManager.getInstance(HttpClientUtils.class);
+
+        this.store.setUnavailable(true);
+
+        List<Callable<Void>> updates = new ArrayList<>();
+        for (int job = 0; job < INSTALL_JOBS; job++) {
+            updates.add(() -> {
+                for (int event = 0; event < EVENTS_PER_JOB; event++) {
+                    licenseUpdater.updateLicenses();
+                }
+                return null;
+            });
+        }
+        runConcurrently(updates);
+
+        // The store is not contacted anymore once it is considered unavailable. A few requests may be on their way
+        // when the circuit is opened.
+        assertEquals(StoreStatus.UNAVAILABLE, httpUtils.getStoreStatus());
+        assertTrue(this.store.getUpdateRequests() < 5 + INSTALL_JOBS,
+            String.format("Too many update requests: [%s]", this.store.getUpdateRequests()));
+    }
+
+    private Set<String> getLicensedFeatures()
+    {
+        synchronized (this.addedLicenses) {
+            return this.addedLicenses.stream().flatMap(license -> license.getFeatureIds().stream())
+                .map(featureId -> featureId.getId()).collect(Collectors.toSet());
+        }
+    }
+
+    private void runConcurrently(List<Callable<Void>> tasks) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (Future<Void> task : executor.invokeAll(tasks, TIMEOUT, TimeUnit.MINUTES)) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
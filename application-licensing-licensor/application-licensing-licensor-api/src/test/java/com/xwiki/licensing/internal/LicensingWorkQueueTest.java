@@ -0,0 +1,134 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link LicensingWorkQueue}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class LicensingWorkQueueTest
+{
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private LicensingWorkQueue workQueue;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown()
+    {
+        this.release.countDown();
+        this.workQueue.dispose();
+    }
+
+    @Test
+    void executeWorkInSubmissionOrder() throws Exception
+    {
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        this.workQueue.submit("key", "first", () -> {
+            await();
+            executed.add(1);
+        });
+        this.workQueue.submit("key", "second", () -> executed.add(2));
+        CompletableFuture<Void> last = this.workQueue.submit("key", "third", () -> executed.add(3));
+
+        assertEquals(Arrays.asList("first (#1)", "second (#2)", "third (#3)"), this.workQueue.getPendingWork());
+
+        this.release.countDown();
+        last.get(10, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(1, 2, 3), executed);
+        assertEquals(Collections.emptyList(), this.workQueue.getPendingWork());
+    }
+
+    @Test
+    void executeWorkAfterAll() throws Exception
+    {
+        CompletableFuture<Void> blocked = this.workQueue.submit("key", "blocked", this::await);
+        CompletableFuture<Void> other = this.workQueue.submit("otherKey", "other", () -> { });
+        CompletableFuture<Void> afterAll = this.workQueue.submitAfterAll("lastKey", "afterAll", () -> { });
+
+        // The work with another key is not blocked.
+        other.get(10, TimeUnit.SECONDS);
+        assertFalse(afterAll.isDone());
+
+        this.release.countDown();
+        afterAll.get(10, TimeUnit.SECONDS);
+        assertTrue(blocked.isDone());
+        this.workQueue.whenIdle().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void executeWorkAfterFailure() throws Exception
+    {
+        CompletableFuture<Void> failed = this.workQueue.submit("key", "failing", () -> {
+            throw new IllegalStateException("store unavailable");
+        });
+        List<String> executed = new CopyOnWriteArrayList<>();
+        this.workQueue.submit("key", "next", () -> executed.add("next")).get(10, TimeUnit.SECONDS);
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(Collections.singletonList("next"), executed);
+        assertEquals("Failed to execute the licensing work [failing (#1)]. Root cause is "
+            + "[IllegalStateException: store unavailable].", this.logCapture.getMessage(0));
+    }
+
+    private void await()
+    {
+        try {
+            this.release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.crypto.pkix.CertificateChainBuilder;
+import org.xwiki.crypto.pkix.CertifyingSigner;
+import org.xwiki.crypto.pkix.params.CertifiedKeyPair;
+import org.xwiki.crypto.pkix.params.CertifiedPublicKey;
+import org.xwiki.crypto.signer.CMSSignedDataGenerator;
+import org.xwiki.crypto.signer.param.CMSSignedDataGeneratorParameters;
+import org.xwiki.instance.InstanceId;
+
+import com.xwiki.licensing.License;
+import com.xwiki.licensing.LicenseId;
+import com.xwiki.licensing.LicenseSerializer;
+import com.xwiki.licensing.LicenseType;
+import com.xwiki.licensing.LicensedFeatureId;
+import com.xwiki.licensing.test.SignedLicenseTestUtils;
+
+/**
+ * Issue the licenses of the {@link StandInStore}, signed with the test certificates of {@link SignedLicenseTestUtils},
+ * so that they are accepted by the license converter. The test needs the {@code LicensingComponentList} components,
+ * the CMS signed data generator and the XML license serializer.
+ *
+ * @version $Id$
+ */
+public class SignedLicenseIssuer implements StandInStore.LicenseIssuer
+{
+    private static final long TRIAL_DURATION = TimeUnit.DAYS.toMillis(30);
+
+    private static final long PAID_DURATION = TimeUnit.DAYS.toMillis(365);
+
+    private final SignedLicenseTestUtils utils;
+
+    private final CMSSignedDataGenerator generator;
+
+    private final LicenseSerializer<String> serializer;
+
+    private final CertificateChainBuilder chainBuilder;
+
+    private final InstanceId instanceId;
+
+    /**
+     * @param componentManager the component manager of the test
+     * @param instanceId the instance for which the licenses are issued
+     * @throws ComponentLookupException if the components needed to sign the licenses are missing
+     */
+    public SignedLicenseIssuer(ComponentManager componentManager, InstanceId instanceId)
+        throws ComponentLookupException
+    {
+        this.utils = componentManager.getInstance(SignedLicenseTestUtils.class);
+        this.generator = componentManager.getInstance(CMSSignedDataGenerator.class);
+        this.serializer = componentManager.getInstance(LicenseSerializer.TYPE_STRING, "xml");
+        this.chainBuilder = componentManager.getInstance(CertificateChainBuilder.class, "X509");
+        this.instanceId = instanceId;
+    }
+
+    @Override
+    public String issue(String featureId, String version, LicenseType type) throws Exception
+    {
+        License license = new License();
+        license.setId(new LicenseId());
+        license.setType(type);
+        license.addFeatureId(new LicensedFeatureId(featureId, version));
+        license.addInstanceId(this.instanceId);
+        license.setExpirationDate(
+            System.currentTimeMillis() + (type == LicenseType.TRIAL ? TRIAL_DURATION : PAID_DURATION));
+        license.addLicenseeInfo("firstName", "John");
+        license.addLicenseeInfo("lastName", "Doe");
+        license.addLicenseeInfo("email", "john.doe@example.com");
+
+        CertifiedKeyPair keyPair = this.utils.getSigningKeyPair();
+        CMSSignedDataGeneratorParameters parameters = new CMSSignedDataGeneratorParameters()
+            .addSigner(CertifyingSigner.getInstance(true, keyPair, this.utils.getSignerFactory()));
+        for (CertifiedPublicKey certificate : this.chainBuilder.build(keyPair.getCertificate(),
+            this.utils.getCertificateProvider())) {
+            parameters.addCertificate(certificate);
+        }
+
+        byte[] signedLicense =
+            this.generator.generate(this.serializer.serialize(license).getBytes(StandardCharsets.UTF_8), parameters,
+                true);
+        return Base64.getEncoder().encodeToString(signedLicense);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.xwiki.licensing.LicenseType;
+
+/**
+ * In-process stand-in for the licensing store, used to test and benchmark the requests made by the licensor without
+ * network access. It serves:
+ * <ul>
+ * <li>the licenses update endpoint, tagging its responses with an entity tag computed from the served licenses, and
+ * answering the conditional requests whose licenses didn't change with {@code 304 Not Modified}</li>
+ * <li>the license renew endpoint, issuing a paid license for the requested feature</li>
+ * <li>the trial endpoint, issuing a trial license for the requested feature</li>
+ * </ul>
+ * The issued licenses are served afterwards by the update endpoint, to the requests asking for their feature. A
+ * latency and failures can be injected to simulate a slow or unavailable store.
+ *
+ * @version $Id$
+ */
+public class StandInStore implements AutoCloseable
+{
+    private static final String UPDATE_PATH = "/update";
+
+    private static final String RENEW_PATH = "/renew";
+
+    private static final String TRIAL_PATH = "/trial";
+
+    private static final String FEATURE_ID = "featureId";
+
+    private static final String EXTENSION_VERSION = "extensionVersion";
+
+    private static final String STATUS = "status";
+
+    private static final String ERROR = "error";
+
+    private static final int MAX_CONCURRENT_REQUESTS = 16;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /**
+     * Issue the licenses of the store.
+     *
+     * @version $Id$
+     */
+    @FunctionalInterface
+    public interface LicenseIssuer
+    {
+        /**
+         * @param featureId the feature to license
+         * @param version the version of the licensed extension
+         * @param type the type of license to issue
+         * @return the (base64 encoded) license
+         * @throws Exception if the license can't be issued
+         */
+        String issue(String featureId, String version, LicenseType type) throws Exception;
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger updateRequests = new AtomicInteger();
+
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+    private final AtomicInteger renewRequests = new AtomicInteger();
+
+    private final AtomicInteger trialRequests = new AtomicInteger();
+
+    private final AtomicInteger failedRequests = new AtomicInteger();
+
+    private final AtomicInteger requestsToFail = new AtomicInteger();
+
+    /**
+     * The licenses issued by the renew and trial endpoints, by feature.
+     */
+    private final Map<String, String> issuedLicenses = new ConcurrentHashMap<>();
+
+    private volatile List<String> licenses = Collections.emptyList();
+
+    private volatile boolean unavailable;
+
+    private volatile long latency;
+
+    private volatile LicenseIssuer licenseIssuer = (featureId, version, type) -> Base64.getEncoder()
+        .encodeToString(String.format("%s:%s:%s", featureId, version, type).getBytes(StandardCharsets.UTF_8));
+
+    /**
+     * Start the store on a free port of the loopback interface.
+     *
+     * @throws IOException if the store fails to start
+     */
+    public StandInStore() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(UPDATE_PATH, handler(this.updateRequests, this::handleUpdate));
+        this.server.createContext(RENEW_PATH, handler(this.renewRequests, this::handleRenew));
+        this.server.createContext(TRIAL_PATH, handler(this.trialRequests, this::handleTrial));
+        // Serve the requests concurrently, like a real store.
+        this.executor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS, runnable -> {
+            Thread thread = new Thread(runnable, "Stand-in Licensing Store Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * @return the URL of the licenses update endpoint
+     */
+    public String getUpdateURL()
+    {
+        return getURL(UPDATE_PATH);
+    }
+
+    /**
+     * @return the URL of the license renew endpoint
+     */
+    public String getRenewURL()
+    {
+        return getURL(RENEW_PATH);
+    }
+
+    /**
+     * @return the URL of the trial endpoint
+     */
+    public String getTrialURL()
+    {
+        return getURL(TRIAL_PATH);
+    }
+
+    protected String getURL(String path)
+    {
+        return String.format("http://%s:%s%s", this.server.getAddress().getHostString(),
+            this.server.getAddress().getPort(), path);
+    }
+
+    /**
+     * @param licenses the (base64 encoded) licenses served by the update endpoint, whatever the requested features
+     */
+    public void setLicenses(List<String> licenses)
+    {
+        this.licenses = Collections.unmodifiableList(new ArrayList<>(licenses));
+    }
+
+    /**
+     * @param licenseIssuer issues the licenses of the renew and trial endpoints; the default issuer returns opaque
+     *     values that are not valid licenses
+     */
+    public void setLicenseIssuer(LicenseIssuer licenseIssuer)
+    {
+        this.licenseIssuer = licenseIssuer;
+    }
+
+    /**
+     * @return the licenses issued by the renew and trial endpoints, by feature
+     */
+    public Map<String, String> getIssuedLicenses()
+    {
+        return new HashMap<>(this.issuedLicenses);
+    }
+
+    /**
+     * @param unavailable {@code true} to answer all the requests with {@code 500 Internal Server Error}
+     */
+    public void setUnavailable(boolean unavailable)
+    {
+        this.unavailable = unavailable;
+    }
+
+    /**
+     * @param count the number of next requests to answer with {@code 500 Internal Server Error}
+     */
+    public void failNextRequests(int count)
+    {
+        this.requestsToFail.set(count);
+    }
+
+    /**
+     * @param latency the time, in milliseconds, the store waits before answering each request
+     */
+    public void setLatency(long latency)
+    {
+        this.latency = latency;
+    }
+
+    /**
+     * @return the number of requests received by the update endpoint
+     */
+    public int getUpdateRequests()
+    {
+        return this.updateRequests.get();
+    }
+
+    /**
+     * @return the number of update requests answered with {@code 304 Not Modified}
+     */
+    public int getNotModifiedResponses()
+    {
+        return this.notModifiedResponses.get();
+    }
+
+    /**
+     * @return the number of requests received by the license renew endpoint
+     */
+    public int getRenewRequests()
+    {
+        return this.renewRequests.get();
+    }
+
+    /**
+     * @return the number of requests received by the trial endpoint
+     */
+    public int getTrialRequests()
+    {
+        return this.trialRequests.get();
+    }
+
+    /**
+     * @return the number of requests answered with an injected failure
+     */
+    public int getFailedRequests()
+    {
+        return this.failedRequests.get();
+    }
+
+    private HttpHandler handler(AtomicInteger requests, HttpHandler handler)
+    {
+        return exchange -> {
+            requests.incrementAndGet();
+            try {
+                if (this.latency > 0) {
+                    TimeUnit.MILLISECONDS.sleep(this.latency);
+                }
+                if (this.unavailable || this.requestsToFail.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                    this.failedRequests.incrementAndGet();
+                    exchange.sendResponseHeaders(500, -1);
+                } else {
+                    handler.handle(exchange);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    private void handleUpdate(HttpExchange exchange) throws IOException
+    {
+        List<String> servedLicenses = new ArrayList<>(this.licenses);
+        for (NameValuePair parameter : getParameters(exchange.getRequestURI().getRawQuery())) {
+            String issuedLicense = FEATURE_ID.equals(parameter.getName())
+                ? this.issuedLicenses.get(parameter.getValue()) : null;
+            if (issuedLicense != null) {
+                servedLicenses.add(issuedLicense);
+            }
+        }
+
+        String entityTag = '"' + DigestUtils.sha256Hex(String.join(",", servedLicenses)) + '"';
+        exchange.getResponseHeaders().set("ETag", entityTag);
+        if (entityTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            this.notModifiedResponses.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            sendJson(exchange, servedLicenses);
+        }
+    }
+
+    private void handleRenew(HttpExchange exchange) throws IOException
+    {
+        String body;
+        try (InputStream input = exchange.getRequestBody()) {
+            body = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        ObjectNode response = JSON.createObjectNode();
+        try {
+            String renewedLicense = issueLicense(getParameters(body), LicenseType.PAID);
+            response.put(STATUS, "success");
+            response.put("license", renewedLicense);
+        } catch (Exception e) {
+            response.put(STATUS, ERROR);
+            response.put("data", e.getMessage());
+        }
+        sendJson(exchange, response);
+    }
+
+    private void handleTrial(HttpExchange exchange) throws IOException
+    {
+        String response;
+        try {
+            issueLicense(getParameters(exchange.getRequestURI().getRawQuery()), LicenseType.TRIAL);
+            response = "success";
+        } catch (Exception e) {
+            response = String.format("%s: %s", ERROR, e.getMessage());
+        }
+
+        byte[] content = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(content);
+        }
+    }
+
+    /**
+     * Issue a license for the requested feature. Like the real store, a single feature is licensed per request.
+     */
+    private String issueLicense(List<NameValuePair> parameters, LicenseType type) throws Exception
+    {
+        String featureId = null;
+        String version = null;
+        for (NameValuePair parameter : parameters) {
+            if (FEATURE_ID.equals(parameter.getName())) {
+                if (featureId != null) {
+                    throw new IllegalArgumentException("A single feature can be requested at once.");
+                }
+                featureId = parameter.getValue();
+            } else if (EXTENSION_VERSION.equals(parameter.getName())) {
+                version = parameter.getValue();
+            }
+        }
+        if (featureId == null) {
+            throw new IllegalArgumentException("No feature requested.");
+        }
+
+        String license = this.licenseIssuer.issue(featureId, version, type);
+        this.issuedLicenses.put(featureId, license);
+        return license;
+    }
+
+    private List<NameValuePair> getParameters(String encodedParameters)
+    {
+        return encodedParameters != null ? URLEncodedUtils.parse(encodedParameters, StandardCharsets.UTF_8)
+            : Collections.emptyList();
+    }
+
+    protected void sendJson(HttpExchange exchange, Object value) throws IOException
+    {
+        byte[] content = JSON.writeValueAsBytes(value);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(content);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
@@ -19,13 +19,14 @@
  */
 package com.xwiki.licensing.internal;
 
-import java.util.Collections;
+import java.util.Arrays;
 
 import javax.inject.Provider;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.xwiki.extension.ExtensionId;
 import org.xwiki.instance.InstanceId;
@@ -36,18 +37,19 @@ import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
-import com.xpn.xwiki.XWiki;
-import com.xpn.xwiki.XWikiContext;
 import com.xwiki.licensing.License;
 import com.xwiki.licensing.LicenseUpdater;
 import com.xwiki.licensing.LicensedExtensionManager;
 import com.xwiki.licensing.LicensingConfiguration;
 import com.xwiki.licensing.Licensor;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -66,12 +68,6 @@ public class TrialLicenseGeneratorTest
     @Mock
     InstanceIdManager instanceIdManager;
 
-    @Mock
-    XWikiContext xcontext;
-
-    @Mock
-    XWiki xwiki;
-
     @Mock
     Licensor licensor;
 
@@ -103,7 +99,7 @@ public class TrialLicenseGeneratorTest
     private Provider<Licensor> licensorProvider;
 
     @MockComponent
-    private Provider<XWikiContext> contextProvider;
+    private HttpClientUtils httpUtils;
 
     @MockComponent
     private LicenseUpdater licenseUpdater;
@@ -115,8 +111,7 @@ public class TrialLicenseGeneratorTest
         when(this.licensingConfig.getLicensingOwnerLastName()).thenReturn("John");
         when(this.licensingConfig.getLicensingOwnerEmail()).thenReturn("test@mail.com");
 
-        when(this.licensedExtensionManager.getMandatoryLicensedExtensions()).thenReturn(
-            Collections.singletonList(this.extension1));
+        when(this.licensedExtensionManager.isMandatoryLicensedExtension(this.extension1)).thenReturn(true);
 
         this.instanceId = new InstanceId("7237b65d-e5d6-4249-aa4f-7c732cba27e2");
         when(instanceIdManagerProvider.get()).thenReturn(instanceIdManager);
@@ -125,9 +120,6 @@ public class TrialLicenseGeneratorTest
         when(userCounter.getUserCount()).thenReturn(Long.valueOf(5));
 
         when(licensorProvider.get()).thenReturn(this.licensor);
-
-        when(contextProvider.get()).thenReturn(this.xcontext);
-        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
     }
 
     @Test
@@ -138,7 +130,7 @@ public class TrialLicenseGeneratorTest
         String trialUrl = "https://storeTrial.com?firstName=Doe&lastName=John&email=test%40mail"
             + ".com&instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&featureId=application-test1&extensionVersion"
             + "=1.0&licenseType=TRIAL&userCount=5";
-        when(this.xwiki.getURLContent(trialUrl, this.xcontext)).thenReturn("success");
+        when(this.httpUtils.httpGet(trialUrl)).thenReturn("success");
 
         License license = mock(License.class, "oldLicense");
         when(this.licensor.getLicense(this.extension1)).thenReturn(license);
@@ -149,6 +141,41 @@ public class TrialLicenseGeneratorTest
         verify(this.licenseUpdater, times(1)).updateLicenses();
     }
 
+    @Test
+    public void generateTrialLicenses() throws Exception
+    {
+        when(this.licensingConfig.getStoreTrialURL()).thenReturn("https://storeTrial.com");
+        when(this.httpUtils.httpGet(any())).thenReturn("success");
+
+        trialLicenseGenerator.generateTrialLicenses(Arrays.asList(this.extension1, this.extension2));
+
+        // The store generates one trial license per request, and the licenses are updated once.
+        ArgumentCaptor<String> trialUrl = ArgumentCaptor.forClass(String.class);
+        verify(this.httpUtils, times(2)).httpGet(trialUrl.capture());
+        assertEquals(Arrays.asList("https://storeTrial.com?firstName=Doe&lastName=John&email=test%40mail"
+            + ".com&instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&featureId=application-test1"
+            + "&extensionVersion=1.0&licenseType=TRIAL&userCount=5",
+            "https://storeTrial.com?firstName=Doe&lastName=John&email=test%40mail"
+            + ".com&instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&featureId=application-test2"
+            + "&extensionVersion=2.0&licenseType=TRIAL&userCount=5"), trialUrl.getAllValues());
+        verify(this.licenseUpdater, times(1)).updateLicenses();
+    }
+
+    @Test
+    public void generateTrialLicensesWithGetTrialError() throws Exception
+    {
+        when(this.licensingConfig.getStoreTrialURL()).thenReturn("https://storeTrial.com");
+        when(this.httpUtils.httpGet(any())).thenReturn("error");
+
+        trialLicenseGenerator.generateTrialLicenses(Arrays.asList(this.extension1, this.extension2));
+
+        assertEquals(String.format("Failed to generate trial license for [%s] on store.", this.extension1.getId()),
+            logCapture.getMessage(0));
+        assertEquals(String.format("Failed to generate trial license for [%s] on store.", this.extension2.getId()),
+            logCapture.getMessage(1));
+        verify(this.licenseUpdater, never()).updateLicenses();
+    }
+
     @Test
     public void generateTrialLicenseWithNullTrialURL() throws Exception
     {
@@ -169,7 +196,7 @@ public class TrialLicenseGeneratorTest
         String trialUrl = "https://storeTrial.com?firstName=Doe&lastName=John&email=test%40mail"
             + ".com&instanceId=7237b65d-e5d6-4249-aa4f-7c732cba27e2&featureId=application-test1&extensionVersion"
             + "=1.0&licenseType=TRIAL&userCount=5";
-        when(this.xwiki.getURLContent(trialUrl, this.xcontext)).thenReturn("error");
+        when(this.httpUtils.httpGet(trialUrl)).thenReturn("error");
 
         trialLicenseGenerator.generateTrialLicense(this.extension1);
 
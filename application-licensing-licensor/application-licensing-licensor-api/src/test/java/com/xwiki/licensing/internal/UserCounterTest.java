@@ -21,10 +21,18 @@ package com.xwiki.licensing.internal;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
@@ -128,7 +136,8 @@ public class UserCounterTest
         }
     }
 
-    public void getUserCountWithCacheInvalidation() throws Exception
+    @Test
+    public void getUserCountUpdatedFromEvents() throws Exception
     {
         when(this.wikiDescriptorManager.getAllIds()).thenReturn(Collections.singletonList("foo"));
 
@@ -139,17 +148,44 @@ public class UserCounterTest
         assertEquals(3L, this.mocker.getComponentUnderTest().getUserCount());
         assertEquals(3L, this.mocker.getComponentUnderTest().getUserCount());
 
-        XWikiDocument userProfile = mock(XWikiDocument.class, "userProfile");
-        when(userProfile.getOriginalDocument()).thenReturn(mock(XWikiDocument.class));
-        when(userProfile.getXObject(UserListener.USER_CLASS)).thenReturn(mock(BaseObject.class));
-        EventListener userListener = this.mocker.getInstance(EventListener.class, UserListener.class.getName());
+        // New active user.
+        BaseObject userObject = mock(BaseObject.class);
+        when(userObject.getIntValue(UserListener.ACTIVE)).thenReturn(1);
+        XWikiDocument userProfile = mockDocument("foo", userObject, null);
+        EventListener userListener = this.mocker.getInstance(EventListener.class, UserListener.HINT);
         userListener.onEvent(null, userProfile, null);
 
+        assertEquals(4L, this.mocker.getComponentUnderTest().getUserCount());
+
+        // New user on a wiki created after the users have been counted.
+        userListener.onEvent(null, mockDocument("bar", userObject, null), null);
+
+        assertEquals(5L, this.mocker.getComponentUnderTest().getUserCount());
+
+        // Disabled user.
+        BaseObject inactiveUserObject = mock(BaseObject.class);
+        userListener.onEvent(null, mockDocument("foo", inactiveUserObject, userObject), null);
+
+        assertEquals(4L, this.mocker.getComponentUnderTest().getUserCount());
+
+        // Not an user.
+        XWikiDocument page = mockDocument("foo", null, null);
+        userListener.onEvent(null, page, null);
+        verify(page, never()).getXObject(UserListener.USER_CLASS);
+
+        assertEquals(4L, this.mocker.getComponentUnderTest().getUserCount());
+
+        userListener.onEvent(new WikiDeletedEvent("bar"), null, null);
+
         assertEquals(3L, this.mocker.getComponentUnderTest().getUserCount());
 
-        XWikiDocument blankPage = mock(XWikiDocument.class);
-        when(blankPage.getOriginalDocument()).thenReturn(blankPage);
-        userListener.onEvent(null, blankPage, null);
+        verify(this.wikiDescriptorManager, times(1)).getAllIds();
+        verify(fooQuery, times(1)).execute();
+        assertEquals(1, ((UserListener) userListener).getDroppedEventCount());
+        assertEquals(3, ((UserListener) userListener).getHandledEventCount());
+
+        // Reconciliation with the database.
+        this.mocker.getComponentUnderTest().invalidate();
 
         assertEquals(3L, this.mocker.getComponentUnderTest().getUserCount());
 
@@ -157,6 +193,59 @@ public class UserCounterTest
         verify(fooQuery, times(2)).execute();
     }
 
+    @Test
+    public void getUserCountIsComputedOnceForConcurrentCallers() throws Exception
+    {
+        when(this.wikiDescriptorManager.getAllIds()).thenReturn(Collections.singletonList("foo"));
+
+        Query fooQuery = createMockQuery("foo");
+        when(this.queryManager.createQuery(this.statement, Query.HQL)).thenReturn(fooQuery);
+        CountDownLatch queryStarted = new CountDownLatch(1);
+        CountDownLatch releaseQuery = new CountDownLatch(1);
+        when(fooQuery.execute()).then(invocation -> {
+            queryStarted.countDown();
+            releaseQuery.await();
+            return Collections.singletonList(3L);
+        });
+
+        UserCounter userCounter = this.mocker.getComponentUnderTest();
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Long> firstCount = callers.submit(userCounter::getUserCount);
+            queryStarted.await();
+            Future<Long> secondCount = callers.submit(userCounter::getUserCount);
+
+            releaseQuery.countDown();
+
+            assertEquals(3L, (long) firstCount.get());
+            assertEquals(3L, (long) secondCount.get());
+        } finally {
+            callers.shutdownNow();
+        }
+
+        verify(fooQuery, times(1)).execute();
+    }
+
+    private XWikiDocument mockDocument(String wikiId, BaseObject userObject, BaseObject originalUserObject)
+    {
+        DocumentReference userClass = new DocumentReference(wikiId, "XWiki", "XWikiUsers");
+        XWikiDocument originalDocument = mock(XWikiDocument.class);
+        when(originalDocument.getXObject(UserListener.USER_CLASS)).thenReturn(originalUserObject);
+        when(originalDocument.getXObjects()).thenReturn(getXObjects(userClass, originalUserObject));
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getOriginalDocument()).thenReturn(originalDocument);
+        when(document.getXObject(UserListener.USER_CLASS)).thenReturn(userObject);
+        when(document.getXObjects()).thenReturn(getXObjects(userClass, userObject));
+        when(document.getDocumentReference()).thenReturn(new DocumentReference(wikiId, "XWiki", "Alice"));
+        return document;
+    }
+
+    private Map<DocumentReference, List<BaseObject>> getXObjects(DocumentReference userClass, BaseObject userObject)
+    {
+        return userObject != null ? Collections.singletonMap(userClass, Collections.singletonList(userObject))
+            : Collections.emptyMap();
+    }
+
     private Query createMockQuery(String queryName) {
         Query query = mock(Query.class, queryName);
         when(query.addFilter(any())).thenReturn(query);
@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal.helpers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.licensing.LicensingConfiguration;
+import com.xwiki.licensing.internal.StandInStore;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils.ConditionalResponse;
+import com.xwiki.licensing.internal.helpers.HttpClientUtils.StoreStatus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link HttpClientUtils}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class HttpClientUtilsTest
+{
+    @InjectMockComponents
+    private HttpClientUtils httpUtils;
+
+    @MockComponent
+    private LicensingConfiguration licensingConfig;
+
+    private StandInStore store;
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        this.store = new StandInStore();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.store.close();
+        this.httpUtils.dispose();
+    }
+
+    @Test
+    void conditionalGet() throws Exception
+    {
+        this.store.setLicenses(Collections.singletonList("license"));
+
+        ConditionalResponse<String> response = this.httpUtils.httpGet(this.store.getUpdateURL(), null);
+        assertFalse(response.isNotModified());
+        assertEquals("[\"license\"]", response.getContent());
+        assertNotNull(response.getEntityTag());
+
+        ConditionalResponse<String> notModifiedResponse =
+            this.httpUtils.httpGet(this.store.getUpdateURL(), response.getEntityTag());
+        assertTrue(notModifiedResponse.isNotModified());
+        assertNull(notModifiedResponse.getContent());
+        assertEquals(response.getEntityTag(), notModifiedResponse.getEntityTag());
+
+        this.store.setLicenses(Arrays.asList("license", "otherLicense"));
+
+        ConditionalResponse<String> modifiedResponse =
+            this.httpUtils.httpGet(this.store.getUpdateURL(), response.getEntityTag());
+        assertEquals("[\"license\",\"otherLicense\"]", modifiedResponse.getContent());
+        assertNotEquals(response.getEntityTag(), modifiedResponse.getEntityTag());
+
+        assertEquals(3, this.store.getUpdateRequests());
+        assertEquals(1, this.store.getNotModifiedResponses());
+    }
+
+    @Test
+    void getWithoutEntityTag() throws Exception
+    {
+        assertEquals("[]", this.httpUtils.httpGet(this.store.getUpdateURL()));
+    }
+
+    @Test
+    void getWithContentReader() throws Exception
+    {
+        this.store.setLicenses(Arrays.asList("license", "otherLicense"));
+
+        ConditionalResponse<Integer> response = this.httpUtils.httpGet(this.store.getUpdateURL(), null,
+            content -> this.httpUtils.getJsonReader().readTree(content).size());
+        assertEquals(2, response.getContent());
+    }
+
+    @Test
+    void offline()
+    {
+        when(this.licensingConfig.isOffline()).thenReturn(true);
+
+        assertThrows(StoreUnavailableException.class, () -> this.httpUtils.httpGet(this.store.getUpdateURL()));
+        assertEquals(StoreStatus.OFFLINE, this.httpUtils.getStoreStatus());
+        assertEquals(0, this.store.getUpdateRequests());
+    }
+
+    @Test
+    void failFastWhenUnavailable() throws Exception
+    {
+        this.store.setUnavailable(true);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(StoreStatus.ONLINE, this.httpUtils.getStoreStatus());
+            IOException exception =
+                assertThrows(IOException.class, () -> this.httpUtils.httpGet(this.store.getUpdateURL()));
+            assertFalse(exception instanceof StoreUnavailableException);
+        }
+        assertEquals(StoreStatus.UNAVAILABLE, this.httpUtils.getStoreStatus());
+
+        // The store is not contacted anymore.
+        this.store.setUnavailable(false);
+        assertThrows(StoreUnavailableException.class, () -> this.httpUtils.httpGet(this.store.getUpdateURL()));
+        assertEquals(5, this.store.getUpdateRequests());
+    }
+
+    @Test
+    void retryIntervals()
+    {
+        HttpClientUtils.BackoffRetryStrategy strategy = new HttpClientUtils.BackoffRetryStrategy();
+
+        // The I/O errors are retried with an exponential backoff, like the unavailable store responses.
+        IOException error = new IOException("Connection reset");
+        assertEquals(1000, strategy.getRetryInterval(null, error, 1, null).toMilliseconds());
+        assertEquals(2000, strategy.getRetryInterval(null, error, 2, null).toMilliseconds());
+        assertEquals(4000, strategy.getRetryInterval(null, error, 3, null).toMilliseconds());
+        HttpResponse response = new BasicHttpResponse(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        assertEquals(2000, strategy.getRetryInterval(response, 2, null).toMilliseconds());
+
+        // The delay asked by the store is used, up to a maximum.
+        response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+        assertEquals(5000, strategy.getRetryInterval(response, 1, null).toMilliseconds());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "3600");
+        assertEquals(10000, strategy.getRetryInterval(response, 1, null).toMilliseconds());
+    }
+}
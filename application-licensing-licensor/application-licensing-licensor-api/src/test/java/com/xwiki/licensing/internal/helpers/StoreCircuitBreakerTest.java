@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.licensing.internal.helpers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.xwiki.licensing.internal.helpers.StoreCircuitBreaker.State;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link StoreCircuitBreaker}.
+ *
+ * @version $Id$
+ */
+class StoreCircuitBreakerTest
+{
+    private long now;
+
+    private final StoreCircuitBreaker circuitBreaker = new StoreCircuitBreaker(3, 1000, () -> this.now);
+
+    @Test
+    void openAfterConsecutiveFailures()
+    {
+        assertTrue(this.circuitBreaker.tryAcquire());
+        assertFalse(this.circuitBreaker.onFailure());
+        assertFalse(this.circuitBreaker.onFailure());
+
+        // A success resets the failure count.
+        this.circuitBreaker.onSuccess();
+        assertFalse(this.circuitBreaker.onFailure());
+        assertFalse(this.circuitBreaker.onFailure());
+        assertTrue(this.circuitBreaker.onFailure());
+
+        assertEquals(State.OPEN, this.circuitBreaker.getState());
+        assertFalse(this.circuitBreaker.tryAcquire());
+        assertEquals(1000, this.circuitBreaker.getRetryDelay());
+    }
+
+    @Test
+    void probeAfterOpenDuration()
+    {
+        for (int i = 0; i < 3; i++) {
+            this.circuitBreaker.onFailure();
+        }
+
+        this.now += TimeUnit.MILLISECONDS.toNanos(400);
+        assertFalse(this.circuitBreaker.tryAcquire());
+        assertEquals(600, this.circuitBreaker.getRetryDelay());
+
+        // A single probe is let through.
+        this.now += TimeUnit.MILLISECONDS.toNanos(600);
+        assertTrue(this.circuitBreaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, this.circuitBreaker.getState());
+        assertFalse(this.circuitBreaker.tryAcquire());
+
+        // The failed probe opens the circuit again.
+        assertTrue(this.circuitBreaker.onFailure());
+        assertEquals(State.OPEN, this.circuitBreaker.getState());
+
+        this.now += TimeUnit.MILLISECONDS.toNanos(1000);
+        assertTrue(this.circuitBreaker.tryAcquire());
+        this.circuitBreaker.onSuccess();
+        assertEquals(State.CLOSED, this.circuitBreaker.getState());
+        assertEquals(0, this.circuitBreaker.getRetryDelay());
+        assertTrue(this.circuitBreaker.tryAcquire());
+    }
+}